@@ -0,0 +1,152 @@
+package com.example.android.storeapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.android.storeapp.data.ProductProvider;
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Measures the time to the first row of the product list on a cold start, over a store of
+ * {@link #PRODUCTS} products, the three ways the list can get it:
+ * <ul>
+ * <li>cold: the first page is queried once the activity is inflated, and waits for the database
+ * to be opened, as before the prewarm</li>
+ * <li>prewarmed: the provider opened the database and loaded the first page while the activity
+ * was inflating, {@link #INFLATE_MS} stands in for that time</li>
+ * <li>snapshot: the first page is read from the {@link FirstPageSnapshot}</li>
+ * </ul>
+ * Every round starts from a closed database, but the files stay in the page cache of the system,
+ * so a real cold start after a reboot is slower for the database and about the same for the
+ * snapshot. The results are logged, the medians in ms after the inflate time.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ColdStartBenchmark {
+
+    private static final String LOG_TAG = ColdStartBenchmark.class.getSimpleName();
+
+    private static final int PRODUCTS = 100000;
+    private static final int INSERT_BATCH = 10000;
+    private static final int ROUNDS = 10;
+    /**
+     * About the time the activity takes to inflate its first screen
+     */
+    private static final long INFLATE_MS = 150;
+
+    private Context context;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "bench.");
+        context.deleteDatabase("store.db");
+        snapshotFile = new File(context.getCacheDir(), "bench.first_page.snapshot");
+
+        ProductProvider provider = newProvider();
+        try {
+            ContentValues[] batch = new ContentValues[INSERT_BATCH];
+            for (int inserted = 0; inserted < PRODUCTS; inserted += INSERT_BATCH) {
+                for (int i = 0; i < INSERT_BATCH; i++) {
+                    ContentValues values = new ContentValues();
+                    values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + (inserted + i));
+                    values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i % 500);
+                    values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+                    values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, "Supplier " + (i % 50));
+                    batch[i] = values;
+                }
+                provider.bulkInsert(ProductEntry.CONTENT_URI, batch);
+            }
+            new FirstPageSnapshot(snapshotFile).write(queryFirstPage(provider));
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase("store.db");
+        snapshotFile.delete();
+    }
+
+    @Test
+    public void firstRow_coldPrewarmedAndSnapshot() {
+        long[] cold = new long[ROUNDS];
+        long[] prewarmed = new long[ROUNDS];
+        long[] snapshot = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            // The first query right behind onCreate() waits for the whole database open
+            ProductProvider provider = newProvider();
+            long start = SystemClock.elapsedRealtime();
+            assertEquals(ProductPager.PAGE_SIZE, queryFirstPage(provider).length);
+            cold[round] = SystemClock.elapsedRealtime() - start;
+            provider.shutdown();
+
+            provider = newProvider();
+            SystemClock.sleep(INFLATE_MS);
+            start = SystemClock.elapsedRealtime();
+            assertEquals(ProductPager.PAGE_SIZE, queryFirstPage(provider).length);
+            prewarmed[round] = SystemClock.elapsedRealtime() - start;
+            provider.shutdown();
+
+            start = SystemClock.elapsedRealtime();
+            ProductRow[] rows = new FirstPageSnapshot(snapshotFile).read();
+            snapshot[round] = SystemClock.elapsedRealtime() - start;
+            assertNotNull(rows);
+            assertEquals(ProductPager.PAGE_SIZE, rows.length);
+        }
+
+        Log.i(LOG_TAG, "products=" + PRODUCTS + " inflateMillis=" + INFLATE_MS
+                + " coldMillis=" + median(cold)
+                + " prewarmedMillis=" + median(prewarmed)
+                + " snapshotMillis=" + median(snapshot)
+                + " snapshotBytes=" + snapshotFile.length());
+    }
+
+    private ProductProvider newProvider() {
+        ProductProvider provider = new ProductProvider();
+        provider.attachInfo(context, null);
+        return provider;
+    }
+
+    /**
+     * Query the first page the way the list does on start, and read every row.
+     */
+    private static ProductRow[] queryFirstPage(ProductProvider provider) {
+        Cursor cursor = provider.query(ProductEntry.buildPageUri(ProductEntry.SORT_BY_ID, ProductPager.PAGE_SIZE,
+                null, 0), ProductEntry.LIST_COLUMNS, null, null, null);
+        try {
+            ProductRow[] rows = new ProductRow[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                rows[i++] = new ProductRow(cursor.getLong(0), cursor.getString(1), cursor.getInt(2),
+                        cursor.getInt(3));
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
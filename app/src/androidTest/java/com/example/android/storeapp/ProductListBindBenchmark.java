@@ -0,0 +1,77 @@
+package com.example.android.storeapp;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrolls through a long product list by binding the rows to a small pool of view holders, the
+ * way {@link android.support.v7.widget.RecyclerView} recycles them, and counts the allocations
+ * made while binding. Binding must not allocate for each row.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductListBindBenchmark {
+
+    private static final String LOG_TAG = ProductListBindBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 10000;
+    /**
+     * About the number of holders kept by a recycler view showing one screen of products
+     */
+    private static final int HOLDERS = 12;
+
+    @Test
+    public void bind_doesNotAllocatePerRow() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final ProductRow[] rows = new ProductRow[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new ProductRow(i + 1, "Product " + i, i % 1000, i % 50);
+        }
+        final int[] allocations = new int[1];
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                View.OnClickListener listener = new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                    }
+                };
+                ProductAdapter.ProductViewHolder[] holders = new ProductAdapter.ProductViewHolder[HOLDERS];
+                for (int i = 0; i < HOLDERS; i++) {
+                    View view = LayoutInflater.from(context).inflate(R.layout.list_item, null, false);
+                    holders[i] = new ProductAdapter.ProductViewHolder(view, listener, listener);
+                }
+
+                // Warm up, so lazily created objects of the views aren't counted
+                scroll(holders, rows);
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                scroll(holders, rows);
+                allocations[0] = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+            }
+        });
+
+        Log.i(LOG_TAG, "rows=" + ROWS + " allocations=" + allocations[0]
+                + " per row=" + (float) allocations[0] / ROWS);
+        assertTrue("Binding allocated " + allocations[0] + " objects for " + ROWS + " rows",
+                allocations[0] < ROWS);
+    }
+
+    private static void scroll(ProductAdapter.ProductViewHolder[] holders, ProductRow[] rows) {
+        for (int position = 0; position < rows.length; position++) {
+            holders[position % holders.length].bind(rows[position]);
+        }
+    }
+}
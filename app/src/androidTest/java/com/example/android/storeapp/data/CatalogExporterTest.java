@@ -0,0 +1,144 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented tests for {@link CatalogExporter}, exporting a {@link ProductProvider} on a
+ * separate "test." database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogExporterTest {
+
+    private static final String LOG_TAG = CatalogExporterTest.class.getSimpleName();
+
+    /**
+     * Number of products exported, not a multiple of the window size so the last window is partial
+     */
+    private static final int PRODUCTS = 10 * CatalogExporter.WINDOW_SIZE + 123;
+
+    private Context context;
+    private ProductProvider provider;
+    private MockContentResolver contentResolver;
+    private File file;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "test.");
+        context.deleteDatabase("store.db");
+
+        provider = new ProductProvider();
+        provider.attachInfo(context, null);
+        provider.awaitStartup();
+
+        contentResolver = new MockContentResolver(context);
+        contentResolver.addProvider(StoreContract.CONTENT_AUTHORITY, provider);
+
+        ContentValues[] products = new ContentValues[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) {
+            ContentValues values = new ContentValues();
+            // Quotes, commas and line breaks must survive both formats
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, i % 7 == 0 ? "Pen \"" + i + "\",\nblue" : "Pen " + i);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i % 100);
+            values.put(ProductEntry.COLUMN_SALE_OFFER, i % 2);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 10);
+            products[i] = values;
+        }
+        provider.bulkInsert(ProductEntry.CONTENT_URI, products);
+
+        file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "test_export");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        provider.shutdown();
+        context.deleteDatabase("store.db");
+    }
+
+    @Test
+    public void export_csvImportsBackEveryProduct() throws Exception {
+        CatalogExporter.Result result = new CatalogExporter(contentResolver)
+                .export(file, CatalogExporter.FORMAT_CSV, false, null, null, null);
+
+        assertFalse(result.cancelled);
+        assertEquals(PRODUCTS, result.checkpoint.rowsExported);
+        assertEquals(file.length(), result.checkpoint.fileLength);
+        Log.i(LOG_TAG, "export rows=" + PRODUCTS + " millis=" + result.elapsedMillis);
+
+        // The export is a valid catalog for the importer
+        provider.delete(ProductEntry.CONTENT_URI, null, null);
+        CatalogImporter.Result imported = new CatalogImporter(contentResolver)
+                .importCsv(new FileInputStream(file), new StringWriter(), null);
+        assertEquals(PRODUCTS, imported.rowsImported);
+        assertEquals(0, imported.rowsRejected);
+    }
+
+    @Test
+    public void export_cancelledExportResumesWithoutGapsOrDuplicates() throws Exception {
+        final CancellationSignal signal = new CancellationSignal();
+        CatalogExporter exporter = new CatalogExporter(contentResolver);
+
+        CatalogExporter.Result first = exporter.export(file, CatalogExporter.FORMAT_JSON_LINES, true, null, signal,
+                new CatalogExporter.ProgressListener() {
+                    @Override
+                    public void onProgress(CatalogExporter.Checkpoint checkpoint) {
+                        if (checkpoint.rowsExported >= 3 * CatalogExporter.WINDOW_SIZE) {
+                            signal.cancel();
+                        }
+                    }
+                });
+        assertTrue(first.cancelled);
+        assertEquals(3 * CatalogExporter.WINDOW_SIZE, first.checkpoint.rowsExported);
+
+        CatalogExporter.Result second = exporter.export(file, CatalogExporter.FORMAT_JSON_LINES, true,
+                first.checkpoint, null, null);
+        assertFalse(second.cancelled);
+        assertEquals(PRODUCTS, second.checkpoint.rowsExported);
+
+        // Every window is a gzip member of its own, read them all back as one stream
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            long previousId = 0;
+            int lines = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                assertTrue(line, line.startsWith("{\"_id\":"));
+                long id = Long.parseLong(line.substring(7, line.indexOf(',')));
+                assertTrue("IDs out of order at " + id, id > previousId);
+                previousId = id;
+                lines++;
+            }
+            assertEquals(PRODUCTS, lines);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.storeapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.domain.ProductValidator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented tests for {@link CatalogImporter}, importing into a {@link ProductProvider} on a
+ * separate "test." database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogImporterTest {
+
+    private static final String LOG_TAG = CatalogImporterTest.class.getSimpleName();
+
+    /**
+     * Number of rows of the generated catalog in {@link #import_millionRowsInBoundedMemory()}
+     */
+    private static final int LARGE_CATALOG_ROWS = 1000000;
+
+    /**
+     * Maximum growth of the heap allowed while importing the large catalog
+     */
+    private static final long HEAP_BUDGET_BYTES = 16 * 1024 * 1024;
+
+    private static final String HEADER = "Product,Price,Sale,Quantity,Supplier,Supplier_Phone\n";
+
+    private Context context;
+    private ProductProvider provider;
+    private CatalogImporter importer;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "test.");
+        context.deleteDatabase("store.db");
+
+        provider = new ProductProvider();
+        provider.attachInfo(context, null);
+        provider.awaitStartup();
+
+        MockContentResolver contentResolver = new MockContentResolver(context);
+        contentResolver.addProvider(StoreContract.CONTENT_AUTHORITY, provider);
+        importer = new CatalogImporter(contentResolver);
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+        context.deleteDatabase("store.db");
+    }
+
+    @Test
+    public void import_rejectsInvalidRowsWithLineAndReason() throws Exception {
+        String csv = HEADER
+                + "Pen,10,0,5,Acme,123\n"
+                + "Broken pen,-1,0,5,Acme,123\n"
+                + ",10,0,5,Acme,123\n"
+                + "\"Pencil, HB\",3,1,7,\"Acme\nWarehouse\",123\n"
+                + "Eraser,2,9,1,Acme,123\n"
+                + "Ruler,4,0,,Acme,123\n";
+        StringWriter rejects = new StringWriter();
+
+        CatalogImporter.Result result = importer.importCsv(
+                new ByteArrayInputStream(csv.getBytes("UTF-8")), rejects, null);
+
+        assertEquals(6, result.rowsRead);
+        assertEquals(2, result.rowsImported);
+        assertEquals(4, result.rowsRejected);
+        assertEquals(2, countProducts());
+
+        String[] lines = rejects.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("line,reason,Product,Price,Sale,Quantity,Supplier,Supplier_Phone", lines[0]);
+        assertEquals("3," + ProductValidator.INVALID_PRICE + ",Broken pen,-1,0,5,Acme,123", lines[1]);
+        assertEquals("4," + ProductValidator.INVALID_NAME + ",,10,0,5,Acme,123", lines[2]);
+        // The quoted record spans lines 5 and 6, so the next one starts on line 7
+        assertEquals("7," + ProductValidator.INVALID_SALE + ",Eraser,2,9,1,Acme,123", lines[3]);
+        assertEquals("8," + ProductValidator.INVALID_QUANTITY + ",Ruler,4,0,,Acme,123", lines[4]);
+    }
+
+    @Test
+    public void import_headerWithByteOrderMark() throws Exception {
+        String csv = "\uFEFF" + HEADER + "Pen,10,0,5,Acme,123\n";
+
+        CatalogImporter.Result result = importer.importCsv(
+                new ByteArrayInputStream(csv.getBytes("UTF-8")), new StringWriter(), null);
+
+        // The first column is still found
+        assertEquals(1, result.rowsImported);
+        assertEquals(1, countProducts());
+    }
+
+    @Test
+    public void import_millionRowsInBoundedMemory() throws Exception {
+        File catalog = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "test_catalog.csv");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(catalog), "UTF-8"));
+        try {
+            writer.write(HEADER);
+            for (int i = 0; i < LARGE_CATALOG_ROWS; i++) {
+                writer.write("Product " + i + "," + (i % 500) + "," + (i % 2) + "," + (i % 50)
+                        + ",Supplier " + (i % 100) + ",0100" + i + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long baseline = runtime.totalMemory() - runtime.freeMemory();
+        final long[] peak = new long[1];
+        CatalogImporter.ProgressListener listener = new CatalogImporter.ProgressListener() {
+            @Override
+            public void onProgress(long rowsRead, long rowsImported, long rowsRejected) {
+                // Sample the live heap every 50 chunks
+                if (rowsRead % (50 * CatalogImporter.CHUNK_SIZE) == 0) {
+                    System.gc();
+                    peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory() - baseline);
+                }
+            }
+        };
+
+        CatalogImporter.Result result;
+        try {
+            result = importer.importCsv(new FileInputStream(catalog), new StringWriter(), listener);
+        } finally {
+            catalog.delete();
+        }
+
+        assertEquals(LARGE_CATALOG_ROWS, result.rowsImported);
+        assertEquals(0, result.rowsRejected);
+        assertEquals(LARGE_CATALOG_ROWS, countProducts());
+        assertTrue("Heap grew by " + peak[0] + " bytes", peak[0] < HEAP_BUDGET_BYTES);
+        Log.i(LOG_TAG, "import rows=" + result.rowsRead + " rows/sec=" + result.getRowsPerSecond()
+                + " peakHeapGrowth=" + peak[0]);
+    }
+
+    private int countProducts() {
+        Cursor cursor = provider.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
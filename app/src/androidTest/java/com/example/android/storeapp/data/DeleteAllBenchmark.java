@@ -0,0 +1,152 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures a delete of every product of a large store, and the longest time a reader waits for a
+ * product while it runs, two ways:
+ * <ul>
+ * <li>single: the whole table in one statement and one transaction, as before the chunked delete,
+ * done through a batch since the provider doesn't chunk inside one</li>
+ * <li>chunked: {@link ProductProvider#DELETE_CHUNK_SIZE} products per transaction, then the free
+ * pages given back by the incremental vacuum</li>
+ * </ul>
+ * The results are logged, with the size of the file right after the delete and once the vacuum is
+ * done, or given up after {@link #VACUUM_TIMEOUT_MS}.
+ * <p>
+ * The store is 256MB by default, pass -e deleteBenchmarkMegabytes N to the instrumentation to change it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeleteAllBenchmark {
+
+    private static final String LOG_TAG = DeleteAllBenchmark.class.getSimpleName();
+
+    private static final String ARGUMENT_MEGABYTES = "deleteBenchmarkMegabytes";
+    private static final int DEFAULT_MEGABYTES = 256;
+
+    /**
+     * Size of the supplier text of every product, so a product takes about a kilobyte
+     */
+    private static final int PADDING_CHARS = 1000;
+
+    private static final int INSERT_BATCH = 10000;
+
+    private static final long VACUUM_TIMEOUT_MS = 60000;
+
+    @Test
+    public void deleteAll_single() throws Exception {
+        run("single", true);
+    }
+
+    @Test
+    public void deleteAll_chunked() throws Exception {
+        run("chunked", false);
+    }
+
+    private void run(String mode, boolean single) throws Exception {
+        Context context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "bench.");
+        context.deleteDatabase("store.db");
+        final ProductProvider provider = new ProductProvider();
+        provider.attachInfo(context, null);
+        try {
+            final long products = fill(provider);
+            File file = context.getDatabasePath("store.db");
+            long filledBytes = file.length();
+
+            // One reader opening products one after the other for the whole delete
+            final AtomicBoolean deleting = new AtomicBoolean(true);
+            final long[] longestReadNanos = new long[1];
+            final int[] reads = new int[1];
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long id = 1;
+                    while (deleting.get()) {
+                        long start = System.nanoTime();
+                        Cursor cursor = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                                ProductEntry.LIST_COLUMNS, null, null, null);
+                        cursor.close();
+                        longestReadNanos[0] = Math.max(longestReadNanos[0], System.nanoTime() - start);
+                        reads[0]++;
+                        id = id % products + 1;
+                    }
+                }
+            });
+            reader.start();
+
+            long start = System.nanoTime();
+            if (single) {
+                ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+                operations.add(ContentProviderOperation.newDelete(ProductEntry.CONTENT_URI).build());
+                provider.applyBatch(operations);
+            } else {
+                provider.delete(ProductEntry.CONTENT_URI, null, null);
+            }
+            long elapsed = System.nanoTime() - start;
+            deleting.set(false);
+            reader.join();
+            long deletedBytes = file.length();
+
+            long vacuumStart = SystemClock.elapsedRealtime();
+            while (file.length() >= deletedBytes / 2
+                    && SystemClock.elapsedRealtime() - vacuumStart < (single ? 0 : VACUUM_TIMEOUT_MS)) {
+                SystemClock.sleep(100);
+            }
+
+            Log.i(LOG_TAG, mode + ": products=" + products
+                    + " filledBytes=" + filledBytes
+                    + " deleteMillis=" + elapsed / 1000000
+                    + " readsDuringDelete=" + reads[0]
+                    + " longestReadMillis=" + longestReadNanos[0] / 1000000
+                    + " bytesAfterDelete=" + deletedBytes
+                    + " bytesAfterVacuum=" + file.length()
+                    + " vacuumMillis=" + (SystemClock.elapsedRealtime() - vacuumStart));
+        } finally {
+            provider.shutdown();
+            context.deleteDatabase("store.db");
+        }
+    }
+
+    /**
+     * Fill the store with products up to the requested size, and return the number of products.
+     */
+    private static long fill(ProductProvider provider) {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String megabytes = arguments.getString(ARGUMENT_MEGABYTES);
+        long targetBytes = (megabytes != null ? Long.parseLong(megabytes) : DEFAULT_MEGABYTES) * 1024 * 1024;
+
+        char[] padding = new char[PADDING_CHARS];
+        Arrays.fill(padding, 'x');
+        String supplier = new String(padding);
+
+        long products = targetBytes / PADDING_CHARS;
+        ContentValues[] batch = ProductProviderTest.buildProducts(INSERT_BATCH);
+        for (ContentValues values : batch) {
+            values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, supplier);
+        }
+        for (long inserted = 0; inserted < products; inserted += INSERT_BATCH) {
+            provider.bulkInsert(ProductEntry.CONTENT_URI, batch);
+        }
+        return (products + INSERT_BATCH - 1) / INSERT_BATCH * INSERT_BATCH;
+    }
+}
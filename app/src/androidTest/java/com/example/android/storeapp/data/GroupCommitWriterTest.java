@@ -0,0 +1,99 @@
+package com.example.android.storeapp.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented tests for {@link GroupCommitWriter}, on a separate "test." database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GroupCommitWriterTest {
+
+    private static final int CALLERS = 8;
+
+    private Context context;
+    private StoreDbHelper dbHelper;
+    private GroupCommitWriter writer;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "test.");
+        context.deleteDatabase("store.db");
+        dbHelper = new StoreDbHelper(context);
+        // A long window, so the callers end up in the same group
+        writer = new GroupCommitWriter(dbHelper, 500, GroupCommitWriter.DEFAULT_MAX_GROUP_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        writer.shutdown();
+        dbHelper.close();
+        context.deleteDatabase("store.db");
+    }
+
+    @Test
+    public void execute_failingOperationOnlyFailsItsCaller() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                final boolean bad = i == CALLERS / 2;
+                results.add(callers.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return writer.execute(new GroupCommitWriter.Operation<Long>() {
+                            @Override
+                            Long apply(SQLiteDatabase db) {
+                                if (bad) {
+                                    throw new IllegalArgumentException("Bad input");
+                                }
+                                return db.insert(ProductEntry.TABLE_NAME, null,
+                                        ProductProviderTest.buildProducts(1)[0]);
+                            }
+                        });
+                    }
+                }));
+            }
+
+            for (int i = 0; i < CALLERS; i++) {
+                try {
+                    long id = results.get(i).get();
+                    assertTrue(i != CALLERS / 2);
+                    assertTrue(id > 0);
+                } catch (ExecutionException e) {
+                    if (i != CALLERS / 2) {
+                        fail("Write " + i + " failed with the bad one: " + e.getCause());
+                    }
+                    assertTrue(e.getCause() instanceof IllegalArgumentException);
+                }
+            }
+        } finally {
+            callers.shutdown();
+        }
+        assertEquals(CALLERS - 1, DatabaseUtils.queryNumEntries(dbHelper.getReadableDatabase(),
+                ProductEntry.TABLE_NAME));
+    }
+}
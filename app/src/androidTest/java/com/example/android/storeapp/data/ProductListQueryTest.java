@@ -0,0 +1,183 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented tests for the product lists of {@link ProductListQuery}: the rows and order of the
+ * list URIs of {@link ProductProvider}, and the plan SQLite picks for every list and sort order,
+ * which must read a covering index in order, never the table and never a sort.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductListQueryTest {
+
+    private static final int PRODUCT_COUNT = 1000;
+
+    private Context context;
+    private ProductProvider provider;
+    private StoreDbHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "test.");
+        context.deleteDatabase("store.db");
+
+        provider = new ProductProvider();
+        provider.attachInfo(context, null);
+        provider.awaitStartup();
+        provider.bulkInsert(ProductEntry.CONTENT_URI, ProductProviderTest.buildProducts(PRODUCT_COUNT));
+        dbHelper = new StoreDbHelper(context);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        provider.shutdown();
+        context.deleteDatabase("store.db");
+    }
+
+    @Test
+    public void plan_everyListAndSortReadsItsCoveringIndex() {
+        assertPlans(ProductListQuery.LIST_ALL, ProductEntry.CONTENT_URI, ProductEntry.SORT_BY_ID, "7");
+        assertPlans(ProductListQuery.LIST_ALL, ProductEntry.CONTENT_URI, ProductEntry.SORT_BY_NAME, "Product 7");
+        assertPlans(ProductListQuery.LIST_ALL, ProductEntry.CONTENT_URI, ProductEntry.SORT_BY_PRICE, "7");
+        assertPlans(ProductListQuery.LIST_ALL, ProductEntry.CONTENT_URI, ProductEntry.SORT_BY_QUANTITY, "7");
+        assertPlans(ProductListQuery.LIST_ON_SALE, ProductEntry.buildOnSaleUri(), ProductEntry.SORT_BY_NAME,
+                "Product 7");
+        assertPlans(ProductListQuery.LIST_LOW_STOCK, ProductEntry.buildLowStockUri(10),
+                ProductEntry.SORT_BY_QUANTITY, "7");
+        assertPlans(ProductListQuery.LIST_BY_SUPPLIER, ProductEntry.buildBySupplierUri("Supplier 7"),
+                ProductEntry.SORT_BY_NAME, "Product 7");
+    }
+
+    @Test
+    public void onSale_listsOnlyProductsOnSaleByName() {
+        Cursor cursor = provider.query(ProductEntry.buildOnSaleUri(), new String[]{ProductEntry._ID,
+                ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_SALE_OFFER}, null, null, null);
+        try {
+            assertEquals(PRODUCT_COUNT / 2, cursor.getCount());
+            String previousName = "";
+            while (cursor.moveToNext()) {
+                assertEquals(ProductEntry.HAS_SALE, cursor.getInt(2));
+                assertTrue(cursor.getString(1).compareTo(previousName) >= 0);
+                previousName = cursor.getString(1);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void lowStock_pagesVisitEveryProductUnderTheThresholdByQuantity() {
+        int threshold = 3;
+        Uri listUri = ProductEntry.buildLowStockUri(threshold);
+        String[] projection = {ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+        int count = 0;
+        int previousQuantity = -1;
+        String afterValue = null;
+        long afterId = 0;
+        while (true) {
+            Cursor cursor = provider.query(ProductEntry.buildPageUri(listUri, ProductEntry.SORT_BY_QUANTITY, 7,
+                    afterValue, afterId), projection, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    break;
+                }
+                do {
+                    count++;
+                    assertTrue(cursor.getInt(1) <= threshold);
+                    assertTrue(cursor.getInt(1) >= previousQuantity);
+                    previousQuantity = cursor.getInt(1);
+                } while (cursor.moveToNext());
+                cursor.moveToLast();
+                afterId = cursor.getLong(0);
+                afterValue = cursor.getString(1);
+            } finally {
+                cursor.close();
+            }
+        }
+        // Quantities go from 0 to 99, so 4 products in every hundred
+        assertEquals(PRODUCT_COUNT / 100 * (threshold + 1), count);
+    }
+
+    @Test
+    public void bySupplier_listsOnlyThatSupplier() {
+        ContentValues values = ProductProviderTest.buildProducts(1)[0];
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, "Acme / Sons");
+        provider.insert(ProductEntry.CONTENT_URI, values);
+
+        Cursor cursor = provider.query(ProductEntry.buildBySupplierUri("Acme / Sons"),
+                new String[]{ProductEntry.COLUMN_PRODUCT_SUPPLIER}, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Acme / Sons", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void sort_withoutIndexIsRejected() {
+        try {
+            provider.query(ProductEntry.buildPageUri(ProductEntry.buildOnSaleUri(), ProductEntry.SORT_BY_PRICE,
+                    10, null, 0), ProductEntry.LIST_COLUMNS, null, null, null);
+            fail("Expected the on sale list to reject the price order");
+        } catch (IllegalArgumentException expected) {
+            // There is no index of the products on sale by price
+        }
+    }
+
+    /**
+     * Check the plans of the first page and of a later page of the given list and sort order.
+     */
+    private void assertPlans(int list, Uri listUri, String sort, String afterValue) {
+        assertPlan(ProductListQuery.fromUri(list, ProductEntry.buildPageUri(listUri, sort, 50, null, 0),
+                null, null, null, 0));
+        assertPlan(ProductListQuery.fromUri(list, ProductEntry.buildPageUri(listUri, sort, 50, afterValue, 7),
+                null, null, null, 0));
+    }
+
+    private void assertPlan(ProductListQuery query) {
+        String sql = query.toSql(ProductEntry.LIST_COLUMNS);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, query.selectionArgs);
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailColumnIndex)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+
+        String message = sql + "\n" + plan;
+        assertFalse(message, plan.toString().contains("TEMP B-TREE"));
+        if (query.index == null) {
+            // Sorted by ID, read from the table in rowid order
+            assertFalse(message, plan.toString().contains("INDEX"));
+        } else {
+            assertTrue(message, plan.toString().contains("COVERING INDEX " + query.index));
+        }
+    }
+}
@@ -0,0 +1,975 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.MetricsEntry;
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.data.StoreContract.SalesEntry;
+import com.example.android.storeapp.data.StoreContract.SalesSnapshotEntry;
+import com.example.android.storeapp.data.StoreContract.SlowQueryEntry;
+import com.example.android.storeapp.data.StoreContract.StatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented tests for {@link ProductProvider}, run against a separate "test." database so
+ * the products of the app under test are left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderTest {
+
+    private static final String LOG_TAG = ProductProviderTest.class.getSimpleName();
+
+    /**
+     * Number of product queries made by {@link #cache_repeatedEditorOpens()}
+     */
+    private static final int EDITOR_OPENS = 2000;
+
+    private Context context;
+    private ProductProvider provider;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "test.");
+        context.deleteDatabase("store.db");
+
+        provider = new ProductProvider();
+        // attachInfo() calls onCreate() with our renaming context
+        provider.attachInfo(context, null);
+        // Let the prewarm and the pending migrations finish, so they don't show in the test
+        provider.awaitStartup();
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+        context.deleteDatabase("store.db");
+        context.deleteDatabase(StoreBackup.BACKUP_FILE_NAME);
+    }
+
+    @Test
+    public void bulkInsert_insertsEveryRow() {
+        int inserted = provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(100));
+
+        assertEquals(100, inserted);
+        assertEquals(100, countProducts());
+    }
+
+    @Test
+    public void bulkInsert_invalidRowRollsBackWholeBatch() {
+        ContentValues[] products = buildProducts(10);
+        products[7].put(ProductEntry.COLUMN_PRODUCT_PRICE, -1);
+
+        try {
+            provider.bulkInsert(ProductEntry.CONTENT_URI, products);
+            fail("Expected the invalid price to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // The whole batch should have been rolled back
+        }
+        assertEquals(0, countProducts());
+    }
+
+    @Test
+    public void insert_missingPriceIsRejectedByBothInserts() {
+        ContentValues[] products = buildProducts(1);
+        products[0].remove(ProductEntry.COLUMN_PRODUCT_PRICE);
+
+        try {
+            provider.insert(ProductEntry.CONTENT_URI, products[0]);
+            fail("Expected the missing price to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // The table has no default price
+        }
+        try {
+            provider.bulkInsert(ProductEntry.CONTENT_URI, products);
+            fail("Expected the missing price to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Same rule as a single insert
+        }
+        assertEquals(0, countProducts());
+    }
+
+    @Test
+    public void bulkInsert_keepsColumnsOutsideTheCompiledInsert() {
+        ContentValues[] products = buildProducts(2);
+        products[1].put(ProductEntry._ID, 4242);
+
+        assertEquals(2, provider.bulkInsert(ProductEntry.CONTENT_URI, products));
+        // The row with an ID is written with it, not given the next one
+        assertEquals(1, queryQuantity(4242));
+    }
+
+    @Test
+    public void bulkInsert_throughput() {
+        int[] sizes = {1000, 10000, 100000};
+        for (int size : sizes) {
+            provider.delete(ProductEntry.CONTENT_URI, null, null);
+            ContentValues[] products = buildProducts(size);
+
+            long start = System.nanoTime();
+            int inserted = provider.bulkInsert(ProductEntry.CONTENT_URI, products);
+            long elapsed = System.nanoTime() - start;
+
+            assertEquals(size, inserted);
+            Log.i(LOG_TAG, "bulkInsert rows=" + size + " rows/sec=" + (size * 1000000000L / elapsed));
+        }
+    }
+
+    @Test
+    public void statements_singleProductOperationsFromManyThreads() throws Exception {
+        final int threads = 8;
+        final int productsPerThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < productsPerThread; i++) {
+                        Uri uri = provider.insert(ProductEntry.CONTENT_URI, buildProducts(1)[0]);
+
+                        ContentValues quantity = new ContentValues();
+                        quantity.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, thread * 1000 + i);
+                        assertEquals(1, provider.update(uri, quantity, null, null));
+
+                        ContentValues row = buildProducts(1)[0];
+                        row.put(ProductEntry.COLUMN_PRODUCT_NAME, "Thread " + thread + " product " + i);
+                        row.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, thread * 1000 + i);
+                        assertEquals(1, provider.update(uri, row, null, null));
+
+                        Cursor cursor = provider.query(uri, null, null, null, null);
+                        try {
+                            assertTrue(cursor.moveToFirst());
+                            assertEquals("Thread " + thread + " product " + i, cursor.getString(
+                                    cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME)));
+                            assertEquals(thread * 1000 + i, cursor.getInt(
+                                    cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY)));
+                        } finally {
+                            cursor.close();
+                        }
+                        // Keep every other product
+                        if (i % 2 == 1) {
+                            assertEquals(1, provider.delete(uri, null, null));
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        assertEquals(threads * productsPerThread / 2, countProducts());
+        // An invalid quantity is still rejected on the compiled update
+        ContentValues invalid = new ContentValues();
+        invalid.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, -1);
+        try {
+            provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, insertProduct(1)), invalid,
+                    null, null);
+            fail("Expected the invalid quantity to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // The product keeps its quantity
+        }
+    }
+
+    @Test
+    public void sell_decrementsAndReturnsRemainingStock() {
+        long id = insertProduct(5);
+
+        assertEquals(3, provider.update(ProductEntry.buildSellUri(id, 2), null, null, null));
+        assertEquals(ProductEntry.SELL_REJECTED, provider.update(ProductEntry.buildSellUri(id, 4), null, null, null));
+        assertEquals(0, provider.update(ProductEntry.buildSellUri(id, 3), null, null, null));
+        assertEquals(0, queryQuantity(id));
+    }
+
+    @Test
+    public void checkout_sellsEveryLineOrNone() {
+        long first = insertProduct(5);
+        long second = insertProduct(3);
+
+        // The second product is on two lines, its stock must cover both: the line that goes over it is rejected
+        Bundle result = checkout(new long[]{first, second, second}, new int[]{2, 1, 3});
+        assertEquals(2, result.getInt(StoreContract.KEY_CHECKOUT_REJECTED_LINE));
+        assertEquals(5, queryQuantity(first));
+        assertEquals(3, queryQuantity(second));
+
+        result = checkout(new long[]{first, second, second}, new int[]{2, 1, 2});
+        assertEquals(-1, result.getInt(StoreContract.KEY_CHECKOUT_REJECTED_LINE));
+        long[] remaining = result.getLongArray(StoreContract.KEY_CHECKOUT_REMAINING);
+        assertEquals(3, remaining[0]);
+        assertEquals(2, remaining[1]);
+        assertEquals(0, remaining[2]);
+        assertEquals(3, queryQuantity(first));
+        assertEquals(0, queryQuantity(second));
+
+        // A product that doesn't exist rejects the basket
+        result = checkout(new long[]{first, 12345}, new int[]{1, 1});
+        assertEquals(1, result.getInt(StoreContract.KEY_CHECKOUT_REJECTED_LINE));
+        assertEquals(3, queryQuantity(first));
+
+        Cursor cursor = provider.query(SalesEntry.CONTENT_URI, new String[]{SalesEntry._ID}, null, null, null);
+        try {
+            // One ledger row per line of the basket that was sold
+            assertEquals(3, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void checkout_notifiesEveryProductOnce() throws Exception {
+        long[] ids = new long[10];
+        int[] counts = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = insertProduct(10);
+            counts[i] = 1;
+        }
+        Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MS * 4);
+
+        RecordingObserver observer = new RecordingObserver();
+        context.getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+        try {
+            checkout(ids, counts);
+            List<Uri> uris = observer.awaitChanges();
+
+            assertEquals(ids.length, uris.size());
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals(ProductEntry.buildChangeUri(ids[i], ProductEntry.CHANGE_UPDATE), uris.get(i));
+            }
+        } finally {
+            context.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void checkout_invalidBasketIsRefused() {
+        long id = insertProduct(5);
+        try {
+            checkout(new long[]{id}, new int[]{0});
+            fail("Expected a count of 0 to be refused");
+        } catch (IllegalArgumentException expected) {
+            // Nothing sold
+        }
+        try {
+            checkout(new long[]{id, id}, new int[]{1});
+            fail("Expected lines without a count to be refused");
+        } catch (IllegalArgumentException expected) {
+            // Nothing sold
+        }
+        assertEquals(5, queryQuantity(id));
+    }
+
+    @Test
+    public void sell_concurrentSalesLoseNoDecrements() throws Exception {
+        final int threads = 16;
+        final int salesPerThread = 500;
+        final int stock = threads * salesPerThread / 2;
+        final long id = insertProduct(stock);
+        final AtomicInteger sold = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < salesPerThread; i++) {
+                        if (provider.update(ProductEntry.buildSellUri(id, 1), null, null, null)
+                                != ProductEntry.SELL_REJECTED) {
+                            sold.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Every unit was sold exactly once, the extra attempts were all rejected
+        assertEquals(stock, sold.get());
+        assertEquals(0, queryQuantity(id));
+    }
+
+    @Test
+    public void search_prefixMatchesRankNameBeforeSupplier() {
+        ContentValues[] products = buildProducts(3);
+        products[0].put(ProductEntry.COLUMN_PRODUCT_NAME, "Keyboard");
+        products[0].put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, "Headway");
+        products[1].put(ProductEntry.COLUMN_PRODUCT_NAME, "Headphone");
+        products[2].put(ProductEntry.COLUMN_PRODUCT_NAME, "Mouse");
+        provider.bulkInsert(ProductEntry.CONTENT_URI, products);
+
+        Cursor cursor = provider.query(ProductEntry.buildSearchUri("hea"),
+                new String[]{ProductEntry.COLUMN_PRODUCT_NAME}, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Headphone", cursor.getString(0));
+            cursor.moveToNext();
+            assertEquals("Keyboard", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void search_latency() {
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(200000));
+        String[] queries = {"pro", "product 19", "supplier 4", "product 1999"};
+
+        for (String query : queries) {
+            long start = System.nanoTime();
+            Cursor cursor = provider.query(ProductEntry.buildSearchUri(query),
+                    new String[]{ProductEntry._ID}, null, null, null);
+            int count = cursor.getCount();
+            cursor.close();
+            Log.i(LOG_TAG, "search q=\"" + query + "\" rows=" + count + " ms="
+                    + (System.nanoTime() - start) / 1000000.0);
+        }
+    }
+
+    @Test
+    public void page_keysetPagesVisitEveryRowOnceInOrder() {
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(1234));
+        String[] projection = {ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_PRICE};
+
+        Set<Long> seen = new HashSet<>();
+        String afterValue = null;
+        long afterId = 0;
+        int previousPrice = -1;
+        while (true) {
+            Cursor cursor = provider.query(ProductEntry.buildPageUri(ProductEntry.SORT_BY_PRICE, 100,
+                    afterValue, afterId), projection, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    break;
+                }
+                do {
+                    assertTrue(seen.add(cursor.getLong(0)));
+                    assertTrue(cursor.getInt(1) >= previousPrice);
+                    previousPrice = cursor.getInt(1);
+                } while (cursor.moveToNext());
+                cursor.moveToLast();
+                afterId = cursor.getLong(0);
+                afterValue = cursor.getString(1);
+            } finally {
+                cursor.close();
+            }
+        }
+        assertEquals(1234, seen.size());
+    }
+
+    @Test
+    public void notify_saleOnLargeTableNotifiesOnlyThatProduct() throws Exception {
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(100000));
+        long id = insertProduct(10);
+        // Let the notifications of the inserts go out before watching
+        Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MS * 4);
+
+        RecordingObserver observer = new RecordingObserver();
+        context.getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+        try {
+            // Rapid sales of the same product are coalesced into a single row-level change
+            for (int i = 0; i < 3; i++) {
+                provider.update(ProductEntry.buildSellUri(id, 1), null, null, null);
+            }
+            List<Uri> uris = observer.awaitChanges();
+
+            assertEquals(1, uris.size());
+            assertEquals(ProductEntry.buildChangeUri(id, ProductEntry.CHANGE_UPDATE), uris.get(0));
+        } finally {
+            context.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void applyBatch_backReferencesAndAllOrNothing() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                .withValues(buildProducts(1)[0])
+                .build());
+        // Restock the product inserted above, found from the ID of the insert
+        operations.add(ContentProviderOperation.newUpdate(ProductEntry.CONTENT_URI)
+                .withSelection(ProductEntry._ID + " = ?", new String[]{null})
+                .withSelectionBackReference(0, 0)
+                .withValue(ProductEntry.COLUMN_PRODUCT_QUANTITY, 40)
+                .withExpectedCount(1)
+                .withYieldAllowed(true)
+                .build());
+        ContentProviderResult[] results = provider.applyBatch(operations);
+        long id = ContentUris.parseId(results[0].uri);
+        assertEquals(1, (int) results[1].count);
+        assertEquals(40, queryQuantity(id));
+
+        // The last operation fails, so the first one is rolled back with it
+        ContentValues invalid = new ContentValues();
+        invalid.put(ProductEntry.COLUMN_PRODUCT_PRICE, -1);
+        operations.clear();
+        operations.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id))
+                .withValue(ProductEntry.COLUMN_PRODUCT_QUANTITY, 1)
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id))
+                .withValues(invalid)
+                .build());
+        try {
+            provider.applyBatch(operations);
+            fail("Expected the invalid price to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Nothing committed
+        }
+        assertEquals(40, queryQuantity(id));
+        assertEquals(1, countProducts());
+    }
+
+    @Test
+    public void applyBatch_notifiesEveryChangedProductOnce() throws Exception {
+        long id = insertProduct(10);
+        Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MS * 4);
+
+        RecordingObserver observer = new RecordingObserver();
+        context.getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+        try {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                operations.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id))
+                        .withValue(ProductEntry.COLUMN_PRODUCT_QUANTITY, i)
+                        .withYieldAllowed(i % 100 == 0)
+                        .build());
+            }
+            provider.applyBatch(operations);
+            List<Uri> uris = observer.awaitChanges();
+
+            assertEquals(1, uris.size());
+            assertEquals(ProductEntry.buildChangeUri(id, ProductEntry.CHANGE_UPDATE), uris.get(0));
+            assertEquals(499, queryQuantity(id));
+        } finally {
+            context.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void notify_deleteWithSelectionNotifiesWholeTable() throws Exception {
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(10));
+        Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MS * 4);
+
+        RecordingObserver observer = new RecordingObserver();
+        context.getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+        try {
+            provider.delete(ProductEntry.CONTENT_URI, ProductEntry.COLUMN_PRODUCT_PRICE + " < ?", new String[]{"5"});
+            List<Uri> uris = observer.awaitChanges();
+
+            assertEquals(1, uris.size());
+            assertEquals(ProductEntry.CONTENT_URI, uris.get(0));
+        } finally {
+            context.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void cache_repeatedQueryHitsUntilWrite() {
+        long id = insertProduct(5);
+        Bundle before = provider.call(StoreContract.METHOD_QUERY_CACHE_STATS, null, null);
+
+        assertEquals(5, queryQuantity(id));
+        assertEquals(5, queryQuantity(id));
+        provider.update(ProductEntry.buildSellUri(id, 2), null, null, null);
+        // The sale dropped the cached row, the new stock is read from the database
+        assertEquals(3, queryQuantity(id));
+
+        Bundle after = provider.call(StoreContract.METHOD_QUERY_CACHE_STATS, null, null);
+        assertEquals(1, after.getLong(StoreContract.KEY_CACHE_HITS) - before.getLong(StoreContract.KEY_CACHE_HITS));
+        assertEquals(2, after.getLong(StoreContract.KEY_CACHE_MISSES) - before.getLong(StoreContract.KEY_CACHE_MISSES));
+    }
+
+    @Test
+    public void cache_repeatedEditorOpens() {
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(100000));
+        ProductProvider uncached = new ProductProvider() {
+            @Override
+            QueryCache newQueryCache() {
+                return new QueryCache(0);
+            }
+        };
+        uncached.attachInfo(context, null);
+        uncached.awaitStartup();
+
+        try {
+            long uncachedNanos = openEditorRepeatedly(uncached);
+            long cachedNanos = openEditorRepeatedly(provider);
+            Log.i(LOG_TAG, "editor opens=" + EDITOR_OPENS + " uncached us/open=" + uncachedNanos / EDITOR_OPENS / 1000
+                    + " cached us/open=" + cachedNanos / EDITOR_OPENS / 1000
+                    + " speedup=" + (float) uncachedNanos / cachedNanos);
+        } finally {
+            uncached.shutdown();
+        }
+    }
+
+    /**
+     * Query the same few products with the projection of the editor, the way reopening them does.
+     */
+    private static long openEditorRepeatedly(ProductProvider provider) {
+        String[] projection = {ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_SALE_OFFER, ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER, ProductEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+        long start = System.nanoTime();
+        for (int i = 0; i < EDITOR_OPENS; i++) {
+            Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, 1 + i % 10 * 9973);
+            Cursor cursor = provider.query(uri, projection, null, null, null);
+            cursor.moveToFirst();
+            cursor.getString(1);
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void stats_followEveryWriteAndMatchRecompute() {
+        ContentValues[] products = buildProducts(4);
+        for (int i = 0; i < products.length; i++) {
+            products[i].put(ProductEntry.COLUMN_PRODUCT_PRICE, 10 * (i + 1));
+            products[i].put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i);
+        }
+        provider.bulkInsert(ProductEntry.CONTENT_URI, products);
+        // Prices 10, 20, 30, 40 with quantities 0, 1, 2, 3 and every second product on sale
+        assertStats(4, 6, 200, 2, 1);
+
+        long id = insertProduct(5);
+        provider.update(ProductEntry.buildSellUri(id, 5), null, null, null);
+        assertStats(5, 6, 200, 2, 2);
+
+        provider.delete(ProductEntry.CONTENT_URI, ProductEntry.COLUMN_PRODUCT_PRICE + " = ?", new String[]{"40"});
+        assertStats(4, 3, 80, 1, 2);
+
+        Bundle result = provider.call(StoreContract.METHOD_VERIFY_STATS, null, null);
+        assertTrue(result.getBoolean(StoreContract.KEY_STATS_CONSISTENT));
+    }
+
+    @Test
+    public void stats_computedFromProductsUntilSeeded() {
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(4));
+        // As right after an upgrade, before the background step seeded the row
+        StoreDbHelper helper = new StoreDbHelper(context);
+        try {
+            helper.getWritableDatabase().delete(ProductStats.TABLE_NAME, null, null);
+        } finally {
+            helper.close();
+        }
+        // Quantities 0, 1, 2, 3 at prices 0, 1, 2, 3, and every second product on sale
+        assertStats(4, 6, 14, 2, 1);
+
+        insertProduct(5);
+        assertStats(5, 11, 14, 2, 1);
+
+        // Seeding isn't reported as out of sync, and the triggers take over from there
+        Bundle result = provider.call(StoreContract.METHOD_VERIFY_STATS, null, null);
+        assertTrue(result.getBoolean(StoreContract.KEY_STATS_CONSISTENT));
+        helper = new StoreDbHelper(context);
+        try {
+            assertEquals(1, DatabaseUtils.queryNumEntries(helper.getReadableDatabase(), ProductStats.TABLE_NAME));
+        } finally {
+            helper.close();
+        }
+        insertProduct(1);
+        assertStats(6, 12, 14, 2, 1);
+        assertTrue(provider.call(StoreContract.METHOD_VERIFY_STATS, null, null)
+                .getBoolean(StoreContract.KEY_STATS_CONSISTENT));
+    }
+
+    @Test
+    public void sales_saleAppendsLedgerRowAtPriceOfTheSale() {
+        long id = insertProduct(10);
+        ContentValues price = new ContentValues();
+        price.put(ProductEntry.COLUMN_PRODUCT_PRICE, 25);
+        provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), price, null, null);
+        provider.update(ProductEntry.buildSellUri(id, 2), null, null, null);
+        price.put(ProductEntry.COLUMN_PRODUCT_PRICE, 30);
+        provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), price, null, null);
+        provider.update(ProductEntry.buildSellUri(id, 1), null, null, null);
+        // A rejected sale isn't recorded
+        provider.update(ProductEntry.buildSellUri(id, 100), null, null, null);
+
+        Cursor cursor = provider.query(SalesEntry.CONTENT_URI, new String[]{SalesEntry.COLUMN_PRODUCT_ID,
+                SalesEntry.COLUMN_QUANTITY, SalesEntry.COLUMN_UNIT_PRICE}, null, null, SalesEntry._ID);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(id, cursor.getLong(0));
+            assertEquals(2, cursor.getInt(1));
+            assertEquals(25, cursor.getInt(2));
+            cursor.moveToNext();
+            assertEquals(1, cursor.getInt(1));
+            assertEquals(30, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void sales_compactionFoldsOldSalesIntoSnapshot() {
+        int extraSales = 500;
+        long id = insertProduct(SalesLedger.KEEP_RECENT_SALES + extraSales);
+        for (int i = 0; i < SalesLedger.KEEP_RECENT_SALES + extraSales; i++) {
+            provider.update(ProductEntry.buildSellUri(id, 1), null, null, null);
+        }
+
+        Bundle result = provider.call(StoreContract.METHOD_COMPACT_SALES, null, null);
+        assertEquals(extraSales, result.getInt(StoreContract.KEY_COMPACTED_SALES));
+
+        Cursor ledger = provider.query(SalesEntry.CONTENT_URI, new String[]{SalesEntry._ID}, null, null, null);
+        try {
+            assertEquals(SalesLedger.KEEP_RECENT_SALES, ledger.getCount());
+        } finally {
+            ledger.close();
+        }
+        Cursor snapshot = provider.query(SalesSnapshotEntry.CONTENT_URI, new String[]{
+                SalesSnapshotEntry.COLUMN_UNITS_SOLD, SalesSnapshotEntry.COLUMN_SALE_COUNT},
+                SalesSnapshotEntry.COLUMN_PRODUCT_ID + "=?", new String[]{String.valueOf(id)}, null);
+        try {
+            assertTrue(snapshot.moveToFirst());
+            assertEquals(extraSales, snapshot.getInt(0));
+            assertEquals(extraSales, snapshot.getInt(1));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void backup_restoreBringsBackProductsSalesAndIndexes() {
+        // More rows than a backup step, so the copy takes several steps
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(StoreBackup.STEP_ROWS * 2 + 500));
+        long id = insertProduct(10);
+        provider.update(ProductEntry.buildSellUri(id, 3), null, null, null);
+        int products = countProducts();
+
+        Bundle backup = provider.call(StoreContract.METHOD_BACKUP, null, null);
+        assertTrue(backup.getLong(StoreContract.KEY_BACKUP_ROWS) > products);
+
+        provider.delete(ProductEntry.CONTENT_URI, null, null);
+        assertEquals(0, countProducts());
+
+        provider.call(StoreContract.METHOD_RESTORE_BACKUP, null, null);
+        assertEquals(products, countProducts());
+        assertEquals(7, queryQuantity(id));
+        Cursor sales = provider.query(SalesEntry.CONTENT_URI, new String[]{SalesEntry._ID}, null, null, null);
+        try {
+            assertEquals(1, sales.getCount());
+        } finally {
+            sales.close();
+        }
+        // The search index and the statistics come back with the rows, and their triggers
+        // keep following the products after the restore
+        Cursor search = provider.query(ProductEntry.buildSearchUri("Product"), null, null, null, null);
+        try {
+            assertTrue(search.getCount() > 0);
+        } finally {
+            search.close();
+        }
+        insertProduct(1);
+        assertTrue(provider.call(StoreContract.METHOD_VERIFY_STATS, null, null)
+                .getBoolean(StoreContract.KEY_STATS_CONSISTENT));
+    }
+
+    @Test
+    public void metrics_countCallsRowsAndErrorsPerUri() {
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(10));
+        long id = insertProduct(5);
+        queryQuantity(id);
+        queryQuantity(id);
+        ContentValues invalid = new ContentValues();
+        invalid.put(ProductEntry.COLUMN_PRODUCT_PRICE, -1);
+        try {
+            provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), invalid, null, null);
+            fail("Expected the invalid price to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Counted as an error
+        }
+
+        assertMetrics("products", "bulk_insert", 1, 0, 10);
+        assertMetrics("products", "insert", 1, 0, 1);
+        assertMetrics("products/#", "query", 2, 0, 2);
+        assertMetrics("products/#", "update", 1, 1, 0);
+
+        StringWriter dump = new StringWriter();
+        provider.dump(null, new PrintWriter(dump), new String[0]);
+        assertTrue(dump.toString(), dump.toString().contains("products/#"));
+    }
+
+    @Test
+    public void slowQueries_logSqlRedactedArgsAndPlan() throws Exception {
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(10));
+        provider.call(StoreContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+        Uri uri = ProductEntry.buildBySupplierUri("Supplier 3");
+        provider.query(uri, ProductEntry.LIST_COLUMNS, null, null, null).close();
+
+        // The plan is captured in the background, wait for it
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            Cursor cursor = provider.query(SlowQueryEntry.CONTENT_URI, SlowQueryEntry.ALL_COLUMNS, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    // The supplier name isn't kept in the URI either
+                    String loggedUri = StoreContract.CONTENT_AUTHORITY + "/" + StoreContract.PATH_PRODUCTS + "/"
+                            + StoreContract.PATH_BY_SUPPLIER + "/<10 chars>";
+                    String entryUri = cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_URI));
+                    if (entryUri == null || !entryUri.endsWith(loggedUri)) {
+                        continue;
+                    }
+                    assertTrue(cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_SQL))
+                            .contains(ProductEntry.COLUMN_PRODUCT_SUPPLIER + " = ?"));
+                    // The supplier name isn't kept
+                    assertEquals("[<10 chars>]", cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_ARGS)));
+                    String plan = cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_PLAN));
+                    if (plan != null) {
+                        assertTrue(plan, plan.contains("COVERING INDEX " + ProductListQuery.INDEX_SUPPLIER_NAME));
+                        return;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            Thread.sleep(20);
+        }
+        fail("No plan captured for " + uri);
+    }
+
+    @Test
+    public void delete_inChunksDeletesEveryMatchingProduct() {
+        // Several chunks, the last one partly filled
+        int products = ProductProvider.DELETE_CHUNK_SIZE * 2 + 500;
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(products));
+        int cheap = 0;
+        for (ContentValues product : buildProducts(products)) {
+            if (product.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE) < 250) {
+                cheap++;
+            }
+        }
+
+        assertEquals(cheap, provider.delete(ProductEntry.CONTENT_URI, ProductEntry.COLUMN_PRODUCT_PRICE + " < ?",
+                new String[]{"250"}));
+        assertEquals(products - cheap, countProducts());
+        assertEquals(products - cheap, provider.delete(ProductEntry.CONTENT_URI, null, null));
+        assertEquals(0, countProducts());
+        assertEquals(0, provider.delete(ProductEntry.CONTENT_URI, null, null));
+    }
+
+    @Test
+    public void delete_freedPagesAreGivenBackInTheBackground() throws Exception {
+        provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(20000));
+        File file = context.getDatabasePath("store.db");
+        long filledSize = file.length();
+
+        provider.delete(ProductEntry.CONTENT_URI, null, null);
+
+        // The file is truncated by the vacuum thread, wait for it
+        long deadline = System.currentTimeMillis() + 10000;
+        while (file.length() > filledSize / 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(file.length() + " bytes left of " + filledSize, file.length() <= filledSize / 4);
+        StoreDbHelper helper = new StoreDbHelper(context);
+        try {
+            SQLiteDatabase database = helper.getReadableDatabase();
+            assertEquals(StoreVacuum.AUTO_VACUUM_INCREMENTAL,
+                    DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+            assertEquals(0, StoreVacuum.getFreePages(database));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void reclaim_switchesAnOlderStoreOnceMostlyFree() throws Exception {
+        StoreDbHelper helper = new StoreDbHelper(context);
+        try {
+            SQLiteDatabase database = helper.getWritableDatabase();
+            // A store created before incremental auto-vacuum
+            database.rawQuery("PRAGMA auto_vacuum = NONE", null).close();
+            database.execSQL("VACUUM");
+            provider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(20000));
+            long filledSize = StoreVacuum.getSizeBytes(database);
+
+            // Still mostly products, the full VACUUM isn't worth it yet
+            provider.delete(ProductEntry.CONTENT_URI, ProductEntry._ID + " <= 100", null);
+            assertEquals(0, StoreVacuum.reclaim(database));
+            assertFalse(StoreVacuum.isIncremental(database));
+
+            // Once every product is deleted the vacuum thread switches it, wait for it
+            provider.delete(ProductEntry.CONTENT_URI, null, null);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!StoreVacuum.isIncremental(database) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(StoreVacuum.isIncremental(database));
+            assertTrue(StoreVacuum.getSizeBytes(database) + " bytes left of " + filledSize,
+                    StoreVacuum.getSizeBytes(database) <= filledSize / 4);
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Check the metrics row of the given URI pattern and operation.
+     */
+    private void assertMetrics(String uri, String operation, long count, long errors, long rows) {
+        Cursor cursor = provider.query(MetricsEntry.CONTENT_URI, MetricsEntry.ALL_COLUMNS, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getString(cursor.getColumnIndex(MetricsEntry.COLUMN_URI)).equals(uri)
+                        && cursor.getString(cursor.getColumnIndex(MetricsEntry.COLUMN_OPERATION)).equals(operation)) {
+                    assertEquals(count, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_COUNT)));
+                    assertEquals(errors, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_ERRORS)));
+                    assertEquals(rows, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_ROWS)));
+                    assertTrue(cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_P99_MICROS))
+                            >= cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_P50_MICROS)));
+                    return;
+                }
+            }
+            fail("No metrics for " + operation + " " + uri);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertStats(long productCount, long totalUnits, long totalValue, long onSaleCount,
+                             long outOfStockCount) {
+        Cursor cursor = provider.query(StatsEntry.CONTENT_URI, new String[]{StatsEntry.COLUMN_PRODUCT_COUNT,
+                StatsEntry.COLUMN_TOTAL_UNITS, StatsEntry.COLUMN_TOTAL_VALUE, StatsEntry.COLUMN_ON_SALE_COUNT,
+                StatsEntry.COLUMN_OUT_OF_STOCK_COUNT}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(productCount, cursor.getLong(0));
+            assertEquals(totalUnits, cursor.getLong(1));
+            assertEquals(totalValue, cursor.getLong(2));
+            assertEquals(onSaleCount, cursor.getLong(3));
+            assertEquals(outOfStockCount, cursor.getLong(4));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records the URIs notified to it, on the binder thread.
+     */
+    private static class RecordingObserver extends ContentObserver {
+
+        private final List<Uri> uris = new ArrayList<>();
+
+        RecordingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            synchronized (uris) {
+                uris.add(uri);
+            }
+        }
+
+        /**
+         * Returns the URIs notified once the coalescing window has passed.
+         */
+        List<Uri> awaitChanges() throws InterruptedException {
+            Thread.sleep(ChangeNotifier.COALESCE_WINDOW_MS * 10);
+            synchronized (uris) {
+                return new ArrayList<>(uris);
+            }
+        }
+    }
+
+    /**
+     * Builds the given number of valid product rows.
+     */
+    static ContentValues[] buildProducts(int count) {
+        ContentValues[] products = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i % 500);
+            values.put(ProductEntry.COLUMN_SALE_OFFER, i % 2);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+            values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, "Supplier " + (i % 50));
+            values.put(ProductEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0100000" + (i % 50));
+            products[i] = values;
+        }
+        return products;
+    }
+
+    private Bundle checkout(long[] productIds, int[] counts) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(StoreContract.KEY_CHECKOUT_PRODUCT_IDS, productIds);
+        extras.putIntArray(StoreContract.KEY_CHECKOUT_COUNTS, counts);
+        return provider.call(StoreContract.METHOD_CHECKOUT, null, extras);
+    }
+
+    private long insertProduct(int quantity) {
+        ContentValues values = buildProducts(1)[0];
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        return ContentUris.parseId(provider.insert(ProductEntry.CONTENT_URI, values));
+    }
+
+    private int queryQuantity(long id) {
+        Cursor cursor = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[]{ProductEntry.COLUMN_PRODUCT_QUANTITY}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countProducts() {
+        Cursor cursor = provider.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.storeapp.data;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures sales per second through the sell URI from several tills at once, with the sales
+ * grouped into shared transactions and with one transaction per sale.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SalesThroughputBenchmark {
+
+    private static final String LOG_TAG = SalesThroughputBenchmark.class.getSimpleName();
+
+    private static final int PRODUCTS = 1000;
+    private static final int TILL_THREADS = 8;
+    private static final int SALES_PER_THREAD = 500;
+
+    @Test
+    public void salesPerSecond_groupCommit() throws Exception {
+        run("group commit", GroupCommitWriter.DEFAULT_WINDOW_MS, GroupCommitWriter.DEFAULT_MAX_GROUP_SIZE);
+    }
+
+    @Test
+    public void salesPerSecond_transactionPerSale() throws Exception {
+        run("transaction per sale", 0, 1);
+    }
+
+    private void run(String mode, final long windowMillis, final int maxGroupSize) throws Exception {
+        Context context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "bench.");
+        context.deleteDatabase("store.db");
+        final ProductProvider provider = new ProductProvider() {
+            @Override
+            GroupCommitWriter newGroupCommitWriter(StoreDbHelper dbHelper) {
+                return new GroupCommitWriter(dbHelper, windowMillis, maxGroupSize);
+            }
+        };
+        provider.attachInfo(context, null);
+        provider.bulkInsert(ProductEntry.CONTENT_URI, ProductProviderTest.buildProducts(PRODUCTS));
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(TILL_THREADS);
+        for (int t = 0; t < TILL_THREADS; t++) {
+            final int till = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < SALES_PER_THREAD; i++) {
+                        long id = 1 + (till * SALES_PER_THREAD + i) % PRODUCTS;
+                        provider.update(ProductEntry.buildSellUri(id, 1), null, null, null);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - startNanos;
+
+        int sales = TILL_THREADS * SALES_PER_THREAD;
+        Log.i(LOG_TAG, mode + ": tills=" + TILL_THREADS + " sales=" + sales
+                + " sales/sec=" + (sales * 1000000000L / elapsed));
+
+        provider.shutdown();
+        context.deleteDatabase("store.db");
+    }
+}
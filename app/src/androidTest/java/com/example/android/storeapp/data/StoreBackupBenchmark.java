@@ -0,0 +1,153 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long a backup of a large store takes, and the longest time a till waits for a sale
+ * while the backup runs, with write-ahead logging and with the rollback journal. The till sells
+ * without a pause, so with the rollback journal the backup is expected to give up, but the sales
+ * must never stall for longer than {@link #MAX_SALE_STALL_MILLIS} nor fail on the lock.
+ * <p>
+ * The store is 1GB by default, pass -e backupBenchmarkMegabytes N to the instrumentation to change it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StoreBackupBenchmark {
+
+    private static final String LOG_TAG = StoreBackupBenchmark.class.getSimpleName();
+
+    private static final String ARGUMENT_MEGABYTES = "backupBenchmarkMegabytes";
+    private static final int DEFAULT_MEGABYTES = 1024;
+
+    /**
+     * Size of the supplier text of every product, so a product takes about a kilobyte
+     */
+    private static final int PADDING_CHARS = 1000;
+
+    private static final int INSERT_BATCH = 10000;
+
+    /**
+     * Longest a sale may wait for the backup, well under the busy timeout after which it would fail
+     */
+    private static final long MAX_SALE_STALL_MILLIS = 1000;
+
+    @Test
+    public void backup_writeAheadLogging() throws Exception {
+        run("wal", new StoreDbConfig(true, 1000, StoreDbConfig.SYNCHRONOUS_NORMAL));
+    }
+
+    @Test
+    public void backup_rollbackJournal() throws Exception {
+        run("rollback journal", new StoreDbConfig(false, 0, StoreDbConfig.SYNCHRONOUS_FULL));
+    }
+
+    private void run(String mode, final StoreDbConfig config) throws Exception {
+        Context context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "bench.");
+        context.deleteDatabase("store.db");
+        context.deleteDatabase(StoreBackup.BACKUP_FILE_NAME);
+        final ProductProvider provider = new ProductProvider() {
+            @Override
+            StoreDbHelper newDbHelper(Context context) {
+                return new StoreDbHelper(context, config);
+            }
+        };
+        provider.attachInfo(context, null);
+        try {
+            long products = fill(provider);
+
+            // One till selling as fast as it can for the whole backup
+            final AtomicBoolean backingUp = new AtomicBoolean(true);
+            final long[] longestSaleNanos = new long[1];
+            final int[] sales = new int[1];
+            final int[] failedSales = new int[1];
+            Thread till = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long id = 1;
+                    while (backingUp.get()) {
+                        long start = System.nanoTime();
+                        try {
+                            provider.update(ProductEntry.buildSellUri(id, 1), null, null, null);
+                        } catch (SQLiteException e) {
+                            // "database is locked", the backup held the read lock for too long
+                            failedSales[0]++;
+                        }
+                        longestSaleNanos[0] = Math.max(longestSaleNanos[0], System.nanoTime() - start);
+                        sales[0]++;
+                        id = id % 1000 + 1;
+                    }
+                }
+            });
+            till.start();
+
+            long start = System.nanoTime();
+            long rowsCopied = -1;
+            try {
+                Bundle result = provider.call(StoreContract.METHOD_BACKUP, null, null);
+                rowsCopied = result.getLong(StoreContract.KEY_BACKUP_ROWS);
+            } catch (IllegalStateException e) {
+                // Gave up on a store that kept changing, logged as rowsCopied=-1
+                Log.i(LOG_TAG, mode + ": " + e.getCause().getMessage());
+            }
+            long elapsed = System.nanoTime() - start;
+            backingUp.set(false);
+            till.join();
+
+            Log.i(LOG_TAG, mode + ": products=" + products
+                    + " dbBytes=" + context.getDatabasePath("store.db").length()
+                    + " rowsCopied=" + rowsCopied
+                    + " backupMillis=" + elapsed / 1000000
+                    + " salesDuringBackup=" + sales[0]
+                    + " failedSales=" + failedSales[0]
+                    + " longestSaleMillis=" + longestSaleNanos[0] / 1000000);
+            assertEquals(0, failedSales[0]);
+            assertTrue("A sale waited " + longestSaleNanos[0] / 1000000 + " ms for the backup",
+                    longestSaleNanos[0] / 1000000 <= MAX_SALE_STALL_MILLIS);
+        } finally {
+            provider.shutdown();
+            context.deleteDatabase("store.db");
+            context.deleteDatabase(StoreBackup.BACKUP_FILE_NAME);
+        }
+    }
+
+    /**
+     * Fill the store with products up to the requested size, and return the number of products.
+     */
+    private static long fill(ProductProvider provider) {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String megabytes = arguments.getString(ARGUMENT_MEGABYTES);
+        long targetBytes = (megabytes != null ? Long.parseLong(megabytes) : DEFAULT_MEGABYTES) * 1024 * 1024;
+
+        char[] padding = new char[PADDING_CHARS];
+        Arrays.fill(padding, 'x');
+        String supplier = new String(padding);
+
+        long products = targetBytes / PADDING_CHARS;
+        ContentValues[] batch = ProductProviderTest.buildProducts(INSERT_BATCH);
+        for (ContentValues values : batch) {
+            values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, supplier);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, Integer.MAX_VALUE);
+        }
+        for (long inserted = 0; inserted < products; inserted += INSERT_BATCH) {
+            provider.bulkInsert(ProductEntry.CONTENT_URI, batch);
+        }
+        return (products + INSERT_BATCH - 1) / INSERT_BATCH * INSERT_BATCH;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures read latency of {@link ProductProvider#query} while a writer keeps updating products,
+ * with the rollback journal and with write-ahead logging. Results are logged as p50 and p99.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StoreConcurrencyBenchmark {
+
+    private static final String LOG_TAG = StoreConcurrencyBenchmark.class.getSimpleName();
+
+    private static final int PRODUCTS = 10000;
+    private static final int READER_THREADS = 4;
+    private static final int READS_PER_THREAD = 2000;
+
+    @Test
+    public void readLatencyUnderWrites_rollbackJournal() throws Exception {
+        run("rollback journal", new StoreDbConfig(false, 0, StoreDbConfig.SYNCHRONOUS_FULL));
+    }
+
+    @Test
+    public void readLatencyUnderWrites_writeAheadLogging() throws Exception {
+        run("write-ahead logging", new StoreDbConfig(true, 1000, StoreDbConfig.SYNCHRONOUS_NORMAL));
+    }
+
+    private void run(String mode, final StoreDbConfig config) throws Exception {
+        Context context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "bench.");
+        context.deleteDatabase("store.db");
+        final ProductProvider provider = new ProductProvider() {
+            @Override
+            StoreDbHelper newDbHelper(Context context) {
+                return new StoreDbHelper(context, config);
+            }
+        };
+        provider.attachInfo(context, null);
+        provider.bulkInsert(ProductEntry.CONTENT_URI, ProductProviderTest.buildProducts(PRODUCTS));
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(1);
+                ContentValues values = new ContentValues();
+                while (writing.get()) {
+                    long id = 1 + random.nextInt(PRODUCTS);
+                    values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, random.nextInt(100));
+                    provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), values, null, null);
+                }
+            }
+        });
+        writer.start();
+
+        final long[] latencies = new long[READER_THREADS * READS_PER_THREAD];
+        final CountDownLatch done = new CountDownLatch(READER_THREADS);
+        for (int t = 0; t < READER_THREADS; t++) {
+            final int offset = t * READS_PER_THREAD;
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(offset);
+                    for (int i = 0; i < READS_PER_THREAD; i++) {
+                        long id = 1 + random.nextInt(PRODUCTS);
+                        long start = System.nanoTime();
+                        Cursor cursor = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                                null, null, null, null);
+                        cursor.moveToFirst();
+                        cursor.close();
+                        latencies[offset + i] = System.nanoTime() - start;
+                    }
+                    done.countDown();
+                }
+            });
+            reader.start();
+        }
+        done.await();
+        writing.set(false);
+        writer.join();
+
+        Arrays.sort(latencies);
+        Log.i(LOG_TAG, mode + ": readers=" + READER_THREADS
+                + " p50=" + latencies[latencies.length / 2] / 1000 + "us"
+                + " p99=" + latencies[latencies.length * 99 / 100] / 1000 + "us");
+
+        provider.shutdown();
+        context.deleteDatabase("store.db");
+    }
+}
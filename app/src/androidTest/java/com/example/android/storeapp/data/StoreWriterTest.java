@@ -0,0 +1,162 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.StrictMode;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented tests for {@link StoreWriter}, writing to a {@link ProductProvider} on a separate
+ * "test." database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StoreWriterTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private Context context;
+    private ProductProvider provider;
+    private StoreWriter writer;
+
+    @Before
+    public void setUp() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "test.");
+        context.deleteDatabase("store.db");
+
+        provider = new ProductProvider();
+        provider.attachInfo(context, null);
+        provider.awaitStartup();
+
+        MockContentResolver contentResolver = new MockContentResolver(context);
+        contentResolver.addProvider(StoreContract.CONTENT_AUTHORITY, provider);
+        writer = new StoreWriter(contentResolver);
+    }
+
+    @After
+    public void tearDown() {
+        writer.shutdown();
+        provider.shutdown();
+        context.deleteDatabase("store.db");
+    }
+
+    @Test
+    public void writes_queuedTogetherEachGetTheirResult() throws Exception {
+        ContentValues[] products = ProductProviderTest.buildProducts(500);
+        List<Future<ContentProviderResult>> results = new ArrayList<>();
+        for (ContentValues product : products) {
+            results.add(writer.insert(product, null));
+        }
+
+        for (Future<ContentProviderResult> result : results) {
+            assertNotNull(result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).uri);
+        }
+        assertEquals(products.length, countProducts());
+    }
+
+    @Test
+    public void writes_failingWriteFailsAlone() throws Exception {
+        ContentValues[] products = ProductProviderTest.buildProducts(3);
+        products[1].put(ProductEntry.COLUMN_PRODUCT_PRICE, -1);
+        List<Future<ContentProviderResult>> results = new ArrayList<>();
+        for (ContentValues product : products) {
+            results.add(writer.insert(product, null));
+        }
+
+        assertNotNull(results.get(0).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).uri);
+        try {
+            results.get(1).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("Expected the invalid price to be rejected");
+        } catch (ExecutionException expected) {
+            // Only this write failed
+        }
+        assertNotNull(results.get(2).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).uri);
+        assertEquals(2, countProducts());
+    }
+
+    @Test
+    public void sell_inBatchReturnsRemainingStock() throws Exception {
+        ContentValues product = ProductProviderTest.buildProducts(1)[0];
+        product.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 5);
+        long id = ContentUris.parseId(writer.insert(product, null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).uri);
+
+        // Queued together, so the sales run in the transaction of the batch
+        Future<ContentProviderResult> first = writer.sell(id, 2, null);
+        Future<ContentProviderResult> second = writer.sell(id, 4, null);
+        Future<ContentProviderResult> third = writer.sell(id, 3, null);
+
+        assertEquals(3, (int) first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).count);
+        assertEquals(ProductEntry.SELL_REJECTED, (int) second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).count);
+        assertEquals(0, (int) third.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).count);
+    }
+
+    /**
+     * Makes every write of the screens from the main thread with StrictMode killing the app on
+     * any disk access there, so the test run fails if a write doesn't go to the writer thread.
+     */
+    @Test
+    public void writes_neverTouchTheDiskOnTheMainThread() throws Exception {
+        final ContentValues product = ProductProviderTest.buildProducts(1)[0];
+        final long id = ContentUris.parseId(writer.insert(product, null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).uri);
+        final List<Future<ContentProviderResult>> results = new ArrayList<>();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StrictMode.ThreadPolicy oldPolicy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .penaltyDeath()
+                        .build());
+                try {
+                    // The writes of the list, the editor and the delete all option
+                    results.add(writer.sell(id, 1, null));
+                    results.add(writer.insert(product, null));
+                    results.add(writer.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), product, null));
+                    results.add(writer.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), null));
+                    results.add(writer.delete(ProductEntry.CONTENT_URI, null));
+                } finally {
+                    StrictMode.setThreadPolicy(oldPolicy);
+                }
+            }
+        });
+
+        for (Future<ContentProviderResult> result : results) {
+            result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        assertEquals(0, countProducts());
+    }
+
+    private int countProducts() {
+        Cursor cursor = provider.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.example.android.storeapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -26,7 +28,10 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.storeapp.data.ProductValues;
 import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.data.StoreWriter;
+import com.example.android.storeapp.domain.Product;
 
 
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
@@ -234,41 +239,19 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         // If user entered a valid product info continue with adding or updating the product into the database
         else {
-            ContentValues values = new ContentValues();
-            values.put(ProductEntry.COLUMN_PRODUCT_NAME, productName);
-            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
-            values.put(ProductEntry.COLUMN_SALE_OFFER, saleOffer);
-            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
-            values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, supplierName);
-            values.put(ProductEntry.COLUMN_SUPPLIER_PHONE_NUMBER, supplierPhoneNumber);
+            Product product = new Product(Product.NO_ID, productName, price, saleOffer, quantity,
+                    supplierName, supplierPhoneNumber);
+            ContentValues values = ProductValues.toContentValues(product);
 
+            // The write runs on the writer thread, a toast tells whether it worked once it's done
             if (currentProductUri == null) {
-                // Insert a new product into the provider, returning the content URI for the new product.
-                Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-
-                // Show a toast message depending on whether or not the insertion was successful
-                if (newUri == null) {
-                    // If the new content URI is null, then there was an error with insertion.
-                    Toast.makeText(this, getString(R.string.editor_insert_product_failed),
-                            Toast.LENGTH_SHORT).show();
-                } else {
-                    // Otherwise, the insertion was successful and we can display a toast.
-                    Toast.makeText(this, getString(R.string.editor_insert_product_successful),
-                            Toast.LENGTH_SHORT).show();
-                }
+                // Insert a new product into the provider
+                StoreWriter.getInstance(this).insert(values, toastResult(R.string.editor_insert_product_successful,
+                        R.string.editor_insert_product_failed));
             } else {
-                // Perform the update on the database and get the number of rows affected
-                int rowsAffected = getContentResolver().update(currentProductUri, values, null, null);
-                // Show a toast message depending on whether or not the updating was successful
-                if (rowsAffected == 0) {
-                    // If the rowsAffected = 0 then there is no product updated
-                    Toast.makeText(this, getString(R.string.editor_update_product_failed),
-                            Toast.LENGTH_SHORT).show();
-                } else {
-                    // Otherwise, the update was successful and we can display a toast.
-                    Toast.makeText(this, getString(R.string.editor_update_product_successful),
-                            Toast.LENGTH_SHORT).show();
-                }
+                // Update the product in the provider
+                StoreWriter.getInstance(this).update(currentProductUri, values,
+                        toastResult(R.string.editor_update_product_successful, R.string.editor_update_product_failed));
             }
             // Exit activity
             finish();
@@ -369,15 +352,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        String[] projection = {ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_SALE_OFFER,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY,
-                ProductEntry.COLUMN_PRODUCT_SUPPLIER,
-                ProductEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
-
-        return new CursorLoader(this, currentProductUri, projection, null, null, null);
+        return new CursorLoader(this, currentProductUri, ProductEntry.ALL_COLUMNS, null, null, null);
     }
 
     @Override
@@ -389,21 +364,14 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
 
         if (cursor.moveToFirst()) {
-            // Find the columns of product attributes that we're interested in
-            int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
-            int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
-            int saleColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SALE_OFFER);
-            int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-            int supplierColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
-            int supplierPhoneColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-
-            // Extract out the value from the Cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            int price = cursor.getInt(priceColumnIndex);
-            int saleOffer = cursor.getInt(saleColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            String supplier = cursor.getString(supplierColumnIndex);
-            String supplierPhone = cursor.getString(supplierPhoneColumnIndex);
+            // Read the product in the row
+            Product product = ProductValues.fromCursor(cursor);
+            String name = product.getName();
+            long price = product.getPrice();
+            int saleOffer = product.getSale();
+            long quantity = product.getQuantity();
+            String supplier = product.getSupplier();
+            String supplierPhone = product.getSupplierPhone();
 
             // Update the views on the screen with the values from the database
             productNameText.setText(name);
@@ -495,20 +463,32 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private void deleteProduct() {
         // Only perform the delete if this is an existing product.
         if (currentProductUri != null) {
-            int rowsDeleted = getContentResolver().delete(currentProductUri, null, null);
-            // Show a toast message depending on whether or not the deletion was successful
-            if (rowsDeleted == 0) {
-                // If the rowsDeleted = 0 then there is no product deleted
-                Toast.makeText(this, getString(R.string.editor_delete_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            StoreWriter.getInstance(this).delete(currentProductUri,
+                    toastResult(R.string.editor_delete_product_successful, R.string.editor_delete_product_failed));
         }
 
         // Close the activity
         finish();
     }
+
+    /**
+     * Returns a callback showing whether or not a write worked. The editor is closed by the time
+     * the write is done, so the toast is shown from the application context.
+     */
+    private StoreWriter.Callback toastResult(final int doneMessage, final int failedMessage) {
+        final Context context = getApplicationContext();
+        return new StoreWriter.Callback() {
+            @Override
+            public void onDone(ContentProviderResult result) {
+                // An insert returns the new URI, an update or a delete the number of rows changed
+                boolean done = result.uri != null || (result.count != null && result.count != 0);
+                Toast.makeText(context, done ? doneMessage : failedMessage, Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                Toast.makeText(context, failedMessage, Toast.LENGTH_SHORT).show();
+            }
+        };
+    }
 }
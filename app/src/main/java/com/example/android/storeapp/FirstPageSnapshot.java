@@ -0,0 +1,151 @@
+package com.example.android.storeapp;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The rows of the first page of the product list as last shown, kept in a small binary file of
+ * the app cache. On a cold start the list shows them right away, before the database is even
+ * open, and the {@link ProductPager} replaces them with the live rows once the first page query
+ * returns.
+ * <p>
+ * The file holds a header, the number of rows, then the ID, name, price and quantity of every
+ * row. A file of another version, or one that can't be read, is ignored and written again with
+ * the next live page. It's only a preview of the list, so it is never read for anything else.
+ * <p>
+ * The methods do disk I/O, call them from a background thread.
+ */
+class FirstPageSnapshot {
+
+    private static final String LOG_TAG = FirstPageSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "first_page.snapshot";
+
+    /**
+     * Start of the file, the version goes up whenever the layout of a row changes
+     */
+    private static final int MAGIC = 0x53545031;
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    /**
+     * Rows last read or written, so an unchanged page isn't written again
+     */
+    private ProductRow[] savedRows;
+
+    FirstPageSnapshot(Context context) {
+        this(new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    FirstPageSnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the rows of the snapshot, or null if there is none or it can't be read.
+     */
+    ProductRow[] read() {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            // First start, or the cache was cleared
+            return null;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0 || count > ProductPager.PAGE_SIZE) {
+                return null;
+            }
+            ProductRow[] rows = new ProductRow[count];
+            for (int i = 0; i < count; i++) {
+                rows[i] = new ProductRow(in.readLong(), in.readUTF(), in.readInt(), in.readInt());
+            }
+            savedRows = rows;
+            return rows;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable snapshot " + file, e);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Save the given rows as the snapshot, unless they are the rows already saved. The rows are
+     * written to a temporary file first and moved over the snapshot, so a snapshot is never
+     * half written.
+     */
+    void write(ProductRow[] rows) {
+        if (sameRows(savedRows, rows)) {
+            return;
+        }
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temporaryFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(rows.length);
+                for (ProductRow row : rows) {
+                    out.writeLong(row.id);
+                    out.writeUTF(row.name);
+                    out.writeInt(row.price);
+                    out.writeInt(row.quantity);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temporaryFile.renameTo(file)) {
+                throw new IOException("Cannot move " + temporaryFile + " to " + file);
+            }
+            savedRows = rows;
+        } catch (IOException e) {
+            // The next start shows the old snapshot, or none, until the live page is there
+            Log.w(LOG_TAG, "Failed to save the snapshot", e);
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * Returns whether or not the given rows show the same products with the same values.
+     */
+    private static boolean sameRows(ProductRow[] oldRows, ProductRow[] newRows) {
+        if (oldRows == null || oldRows.length != newRows.length) {
+            return false;
+        }
+        for (int i = 0; i < oldRows.length; i++) {
+            ProductRow oldRow = oldRows[i];
+            ProductRow newRow = newRows[i];
+            if (oldRow.id != newRow.id || oldRow.price != newRow.price || oldRow.quantity != newRow.quantity
+                    || !TextUtils.equals(oldRow.name, newRow.name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void close(DataInputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing was written
+        }
+    }
+}
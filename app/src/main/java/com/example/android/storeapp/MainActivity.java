@@ -1,32 +1,87 @@
 package com.example.android.storeapp;
 
 import android.app.AlertDialog;
-import android.app.LoaderManager;
 import android.content.ContentUris;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
+import android.content.SharedPreferences;
+import android.database.SQLException;
 import android.net.Uri;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.util.Log;
 import android.view.View;
 import android.support.design.widget.FloatingActionButton;
-import android.widget.AdapterView;
-import android.widget.ListView;
 
+import android.widget.Toast;
+
+import com.example.android.storeapp.data.CatalogExporter;
+import com.example.android.storeapp.data.CatalogImporter;
+import com.example.android.storeapp.data.StoreContract;
 import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.data.StoreWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+public class MainActivity extends AppCompatActivity {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = MainActivity.class.getSimpleName();
+
+    /**
+     * Request code of the catalog file picker
+     */
+    private static final int REQUEST_IMPORT_CATALOG = 1;
 
-public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+    /**
+     * Name of the file receiving the rows rejected by the last catalog import
+     */
+    private static final String IMPORT_REJECTS_FILE_NAME = "import_rejects.csv";
 
-    private static int PRODUCT_LOADER = 0;
-    ProductCursorAdapter cursorAdapter;
+    /**
+     * Name of the file the catalog is exported to
+     */
+    private static final String EXPORT_FILE_NAME = "catalog_export.csv";
+
+    /**
+     * Preferences holding the checkpoint of an export cut short, so the next one resumes it
+     */
+    private static final String EXPORT_PREFERENCES = "catalog_export";
+    private static final String KEY_EXPORT_LAST_ID = "last_id";
+    private static final String KEY_EXPORT_ROWS = "rows";
+    private static final String KEY_EXPORT_FILE_LENGTH = "file_length";
+
+    ProductAdapter productAdapter;
+
+    /**
+     * Time onCreate() started, the time to the first row is measured from there
+     */
+    private long createTimeMillis;
+
+    /**
+     * Cancels the running export, or null if there is none
+     */
+    private CancellationSignal exportCancellationSignal;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        createTimeMillis = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -40,27 +95,50 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             }
         });
 
-        ListView listView = findViewById(R.id.list);
-        cursorAdapter = new ProductCursorAdapter(this, null);
-        listView.setAdapter(cursorAdapter);
-
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        listView.setEmptyView(emptyView);
-
-        // Kick of the loader
-        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
-
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        RecyclerView recyclerView = findViewById(R.id.list);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.setHasFixedSize(true);
+        productAdapter = new ProductAdapter(this, new ProductAdapter.OnProductClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onProductClick(long productId) {
                 Intent intent = new Intent(MainActivity.this, EditorActivity.class);
-                Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+                Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId);
                 // Sending value to another activity using intent.
                 intent.setData(uri);
                 startActivity(intent);
             }
         });
+        recyclerView.setAdapter(productAdapter);
+
+        // Find and set empty view on the list, so that it only shows when the list has 0 items.
+        View emptyView = findViewById(R.id.empty_view);
+        productAdapter.setEmptyView(emptyView);
+
+        // Log the time to the first row, and tell the system once the live rows are shown
+        // so the "Fully drawn" time of the launch includes them
+        productAdapter.setOnFirstPageShownListener(new ProductAdapter.OnFirstPageShownListener() {
+            @Override
+            public void onFirstPageShown(boolean live) {
+                Log.i(LOG_TAG, "First page shown from the " + (live ? "database" : "snapshot") + " in "
+                        + (SystemClock.uptimeMillis() - createTimeMillis) + " ms");
+                if (live && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    reportFullyDrawn();
+                }
+            }
+        });
+
+        // Kick off loading the first page of products, the next ones are loaded as the user scrolls
+        productAdapter.start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        productAdapter.stop();
+        // The export stops at its next window and is resumed by the next one
+        if (exportCancellationSignal != null) {
+            exportCancellationSignal.cancel();
+        }
     }
 
     @Override
@@ -68,6 +146,23 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         // Inflate the menu options from the res/menu/menu_main.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // Search as the user types. A new text cancels the query of the previous one
+        // through its CancellationSignal, so only the latest text is ever waited for.
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                productAdapter.setSearchQuery(newText.trim());
+                return true;
+            }
+        });
         return true;
     }
 
@@ -75,6 +170,38 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            case R.id.action_list_all:
+                showList(item, ProductEntry.CONTENT_URI, ProductEntry.SORT_BY_ID);
+                return true;
+            case R.id.action_list_by_name:
+                showList(item, ProductEntry.CONTENT_URI, ProductEntry.SORT_BY_NAME);
+                return true;
+            case R.id.action_list_by_price:
+                showList(item, ProductEntry.CONTENT_URI, ProductEntry.SORT_BY_PRICE);
+                return true;
+            case R.id.action_list_on_sale:
+                showList(item, ProductEntry.buildOnSaleUri(), ProductEntry.SORT_BY_NAME);
+                return true;
+            case R.id.action_list_low_stock:
+                showList(item, ProductEntry.buildLowStockUri(ProductEntry.DEFAULT_LOW_STOCK_THRESHOLD),
+                        ProductEntry.SORT_BY_QUANTITY);
+                return true;
+            case R.id.action_import_catalog:
+                // Let the user pick the CSV file of a supplier
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("text/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, REQUEST_IMPORT_CATALOG);
+                return true;
+            case R.id.action_export_catalog:
+                exportCatalog();
+                return true;
+            case R.id.action_backup:
+                runStoreMethod(StoreContract.METHOD_BACKUP, R.string.backup_done, R.string.backup_failed);
+                return true;
+            case R.id.action_restore_backup:
+                showRestoreConfirmationDialog();
+                return true;
             case R.id.action_delete_all_entries:
                 showDeleteConfirmationDialog();
                 return true;
@@ -82,28 +209,131 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about
-        String[] projection = {ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY};
-        //This loader will execute the ContentProvider's query method on background thread
-        return new CursorLoader(this, ProductEntry.CONTENT_URI, projection,
-                null, null, null);
+    /**
+     * Check the given list option and show its list of products.
+     */
+    private void showList(MenuItem item, Uri listUri, String sort) {
+        item.setChecked(true);
+        productAdapter.setList(listUri, sort);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        // Update {@link ProductCursorAdapter} with this new cursor containing updated product data
-        cursorAdapter.swapCursor(cursor);
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_CATALOG) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                importCatalog(data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        cursorAdapter.swapCursor(null);
+    /**
+     * Import the catalog file at the given URI on a background thread, the list picks up the new
+     * products from the provider notifications. Rejected rows are written to the app files.
+     */
+    private void importCatalog(final Uri catalogUri) {
+        final Context context = getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    InputStream in = context.getContentResolver().openInputStream(catalogUri);
+                    if (in == null) {
+                        throw new IOException("No content at " + catalogUri);
+                    }
+                    try {
+                        Writer rejects = new OutputStreamWriter(new FileOutputStream(
+                                new File(context.getFilesDir(), IMPORT_REJECTS_FILE_NAME)), "UTF-8");
+                        try {
+                            CatalogImporter.Result result = new CatalogImporter(context.getContentResolver())
+                                    .importCsv(in, rejects, null);
+                            Log.i(LOG_TAG, "Imported " + result.rowsImported + " of " + result.rowsRead + " rows, "
+                                    + result.getRowsPerSecond() + " rows/sec");
+                            message = context.getString(R.string.import_catalog_done, result.rowsImported,
+                                    result.rowsRejected);
+                        } finally {
+                            rejects.close();
+                        }
+                    } finally {
+                        // The import closes it, but not when the rejects file can't be opened
+                        in.close();
+                    }
+                } catch (IOException | IllegalArgumentException | SQLException e) {
+                    // SQLException when the store can't take the rows, such as a full disk
+                    Log.e(LOG_TAG, "Failed to import " + catalogUri, e);
+                    message = context.getString(R.string.import_catalog_failed);
+                }
+                final String toast = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, toast, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "CatalogImport").start();
+    }
+
+    /**
+     * Export the catalog to a CSV file of the app on a background thread. An export cancelled by
+     * the activity going away saves its checkpoint, and the next export resumes from it.
+     */
+    private void exportCatalog() {
+        if (exportCancellationSignal != null) {
+            // Already exporting
+            return;
+        }
+        final Context context = getApplicationContext();
+        final CancellationSignal signal = new CancellationSignal();
+        exportCancellationSignal = signal;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SharedPreferences preferences = context.getSharedPreferences(EXPORT_PREFERENCES, MODE_PRIVATE);
+                File directory = context.getExternalFilesDir(null);
+                File file = new File(directory != null ? directory : context.getFilesDir(), EXPORT_FILE_NAME);
+                CatalogExporter.Checkpoint resumeFrom = null;
+                if (file.exists() && preferences.contains(KEY_EXPORT_LAST_ID)) {
+                    resumeFrom = new CatalogExporter.Checkpoint(preferences.getLong(KEY_EXPORT_LAST_ID, 0),
+                            preferences.getLong(KEY_EXPORT_ROWS, 0), preferences.getLong(KEY_EXPORT_FILE_LENGTH, 0));
+                }
+
+                String message = null;
+                try {
+                    CatalogExporter.Result result = new CatalogExporter(context.getContentResolver())
+                            .export(file, CatalogExporter.FORMAT_CSV, false, resumeFrom, signal, null);
+                    if (result.cancelled) {
+                        preferences.edit()
+                                .putLong(KEY_EXPORT_LAST_ID, result.checkpoint.lastId)
+                                .putLong(KEY_EXPORT_ROWS, result.checkpoint.rowsExported)
+                                .putLong(KEY_EXPORT_FILE_LENGTH, result.checkpoint.fileLength)
+                                .apply();
+                    } else {
+                        preferences.edit().clear().apply();
+                        message = context.getString(R.string.export_catalog_done,
+                                result.checkpoint.rowsExported, file.getPath());
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Failed to export the catalog", e);
+                    preferences.edit().clear().apply();
+                    message = context.getString(R.string.export_catalog_failed);
+                }
+                final String toast = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (exportCancellationSignal == signal) {
+                            exportCancellationSignal = null;
+                        }
+                        if (toast != null) {
+                            Toast.makeText(context, toast, Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
+            }
+        }, "CatalogExport").start();
     }
 
     private void showDeleteConfirmationDialog() {
@@ -133,10 +363,79 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         alertDialog.show();
     }
 
+    private void showRestoreConfirmationDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.restore_backup_dialog_msg);
+
+        builder.setPositiveButton(R.string.restore, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Restore" button, so replace the store with the backup.
+                runStoreMethod(StoreContract.METHOD_RESTORE_BACKUP, R.string.restore_backup_done,
+                        R.string.restore_backup_failed);
+            }
+        });
+
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
+
     /**
      * Helper method to delete all products in the database.
+     * <p>
+     * The delete goes straight to the provider on a background thread rather than through the
+     * {@link StoreWriter}: the writer applies its writes in a single transaction, and the provider
+     * only deletes in chunks, letting the list and other writes in between, outside one.
      */
     private void deleteAllProducts() {
-        getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
+        final Context context = getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    context.getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to delete all products", e);
+                }
+            }
+        }, "DeleteAllProducts").start();
+    }
+
+    /**
+     * Run a provider method that can take a while on a background thread, then show its result.
+     *
+     * @param doneMessage   message shown with the number of rows of the result
+     * @param failedMessage message shown if the method fails
+     */
+    private void runStoreMethod(final String method, final int doneMessage, final int failedMessage) {
+        final Context context = getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    Bundle result = context.getContentResolver().call(StoreContract.BASE_CONTENT_URI,
+                            method, null, null);
+                    message = context.getString(doneMessage, result.getLong(StoreContract.KEY_BACKUP_ROWS));
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Store method " + method + " failed", e);
+                    message = context.getString(failedMessage);
+                }
+                final String toast = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, toast, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "StoreMethod").start();
     }
 }
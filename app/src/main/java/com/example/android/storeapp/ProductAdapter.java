@@ -0,0 +1,346 @@
+package com.example.android.storeapp;
+
+import android.content.ContentProviderResult;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.v4.util.LongSparseArray;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.data.StoreWriter;
+
+/**
+ * {@link ProductAdapter} is an adapter for a recycler view that shows the products loaded page by
+ * page by a {@link ProductPager}. Rows whose page isn't loaded yet are shown empty until it arrives.
+ * <p>
+ * When the products change, only the rows found different by the pager's background diff are
+ * bound again, and binding a row doesn't allocate anything.
+ */
+public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductViewHolder>
+        implements ProductPager.Callback {
+
+    /**
+     * Taps on the sale button of the same product within this delay are sold together
+     */
+    private static final long SALE_COALESCE_DELAY_MS = 300;
+
+    /**
+     * Receives the clicks on the products of the list.
+     */
+    public interface OnProductClickListener {
+        void onProductClick(long productId);
+    }
+
+    /**
+     * Told when the first rows of the list are on screen.
+     */
+    public interface OnFirstPageShownListener {
+        /**
+         * Called with the rows saved by the last run, then with the live rows of the provider.
+         *
+         * @param live false for the saved rows, true for the live rows
+         */
+        void onFirstPageShown(boolean live);
+    }
+
+    private final Context context;
+    private final ProductPager pager;
+    private final OnProductClickListener productClickListener;
+    private OnFirstPageShownListener firstPageShownListener;
+    private final Handler handler = new Handler();
+    /**
+     * Shown instead of the list when there is no product
+     */
+    private View emptyView;
+    /**
+     * Number of units tapped for each product ID that haven't been sold yet
+     */
+    private final LongSparseArray<Integer> pendingSales = new LongSparseArray<>();
+    /**
+     * Sells all the pending units, one call per product
+     */
+    private final Runnable flushPendingSales = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < pendingSales.size(); i++) {
+                sellProduct(pendingSales.keyAt(i), pendingSales.valueAt(i));
+            }
+            pendingSales.clear();
+        }
+    };
+
+    /**
+     * Shared by the sale buttons of every row, the row is found from the view holder in the tag
+     */
+    private final View.OnClickListener saleClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ProductRow row = getRow((ProductViewHolder) view.getTag());
+            if (row != null) {
+                saleProduct(row.id, row.quantity);
+            }
+        }
+    };
+
+    /**
+     * Shared by every row, the row is found from the view holder in the tag
+     */
+    private final View.OnClickListener itemClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ProductRow row = getRow((ProductViewHolder) view.getTag());
+            if (row != null) {
+                productClickListener.onProductClick(row.id);
+            }
+        }
+    };
+
+    /**
+     * Moves the changes of a reloaded page to its position in the whole list
+     */
+    private final PageUpdateCallback pageUpdateCallback = new PageUpdateCallback();
+
+    /**
+     * Constructs a new {@link ProductAdapter} listing the products in insertion order.
+     *
+     * @param context              The context
+     * @param productClickListener Called when the user clicks on a product
+     */
+    public ProductAdapter(Context context, OnProductClickListener productClickListener) {
+        this.context = context;
+        this.productClickListener = productClickListener;
+        this.pager = new ProductPager(context, this);
+    }
+
+    /**
+     * Start loading the products.
+     */
+    public void start() {
+        pager.start();
+    }
+
+    /**
+     * Stop loading the products.
+     */
+    public void stop() {
+        pager.stop();
+    }
+
+    /**
+     * Show the products matching the given text, or every product if it is empty.
+     */
+    public void setSearchQuery(String query) {
+        pager.setSearchQuery(query);
+    }
+
+    /**
+     * Show the given list of products in the given sort order, see
+     * {@link ProductEntry#buildPageUri(Uri, String, int, String, long)}.
+     */
+    public void setList(Uri listUri, String sort) {
+        pager.setList(listUri, sort);
+    }
+
+    /**
+     * Set the listener told when the first rows of the list are on screen, or null.
+     */
+    public void setOnFirstPageShownListener(OnFirstPageShownListener listener) {
+        this.firstPageShownListener = listener;
+    }
+
+    /**
+     * Set the view shown instead of the list when there is no product.
+     */
+    public void setEmptyView(View emptyView) {
+        this.emptyView = emptyView;
+        updateEmptyView();
+    }
+
+    @Override
+    public void onRowsInserted(int positionStart, int itemCount) {
+        notifyItemRangeInserted(positionStart, itemCount);
+        updateEmptyView();
+    }
+
+    @Override
+    public void onPageReloaded(int positionStart, int itemCount, DiffUtil.DiffResult diff) {
+        if (diff == null) {
+            notifyItemRangeChanged(positionStart, itemCount);
+        } else {
+            pageUpdateCallback.offset = positionStart;
+            diff.dispatchUpdatesTo(pageUpdateCallback);
+        }
+        updateEmptyView();
+    }
+
+    @Override
+    public void onDataSetChanged() {
+        notifyDataSetChanged();
+        updateEmptyView();
+    }
+
+    @Override
+    public void onFirstPageShown(boolean live) {
+        if (firstPageShownListener != null) {
+            firstPageShownListener.onFirstPageShown(live);
+        }
+    }
+
+    private void updateEmptyView() {
+        if (emptyView != null) {
+            emptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return pager.getCount();
+    }
+
+    @Override
+    public ProductViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        return new ProductViewHolder(view, saleClickListener, itemClickListener);
+    }
+
+    /**
+     * Binds the product at the given position to a view holder, the views and the texts are
+     * already there so nothing is allocated.
+     */
+    @Override
+    public void onBindViewHolder(ProductViewHolder holder, int position) {
+        holder.bind(pager.getRow(position));
+    }
+
+    /**
+     * Returns the row shown by the given view holder, or null if its page is still loading.
+     */
+    private ProductRow getRow(ProductViewHolder holder) {
+        int position = holder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION) {
+            return null;
+        }
+        return pager.getRow(position);
+    }
+
+    /**
+     * Queue the sale of one unit of the given product. Rapid taps on the same product are
+     * coalesced and sold with a single call once the user stops tapping.
+     *
+     * @param quantity the quantity of the product when it was bound, before any pending sale
+     */
+    private void saleProduct(long productId, int quantity) {
+        int pending = pendingSales.get(productId, 0);
+
+        if (quantity - pending > 0) {
+            pendingSales.put(productId, pending + 1);
+            // Restart the delay, so the sale is only sent once the taps stop
+            handler.removeCallbacks(flushPendingSales);
+            handler.postDelayed(flushPendingSales, SALE_COALESCE_DELAY_MS);
+        } else {
+            //  Notify the user that the product is out of stock
+            Toast.makeText(context, R.string.product_out_of_stock, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Sell the given number of units of a product. The provider decrements the stock in the
+     * database, so sales made elsewhere in the meantime are never overwritten. The sale runs on
+     * the writer thread, the list shows the new stock when the provider notifies the change.
+     */
+    private void sellProduct(long productId, int count) {
+        StoreWriter.getInstance(context).sell(productId, count, new StoreWriter.Callback() {
+            @Override
+            public void onDone(ContentProviderResult result) {
+                if (result.count == ProductEntry.SELL_REJECTED) {
+                    onFailed(null);
+                }
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                Toast.makeText(context, R.string.sale_process_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Holds the views of a list item, found once when the item is inflated.
+     */
+    static class ProductViewHolder extends RecyclerView.ViewHolder {
+
+        final TextView nameTextView;
+        final TextView priceTextView;
+        final TextView quantityTextView;
+        final Button saleButton;
+
+        ProductViewHolder(View itemView, View.OnClickListener saleClickListener,
+                          View.OnClickListener itemClickListener) {
+            super(itemView);
+            nameTextView = itemView.findViewById(R.id.name);
+            priceTextView = itemView.findViewById(R.id.price);
+            quantityTextView = itemView.findViewById(R.id.quantity);
+            saleButton = itemView.findViewById(R.id.sale_button);
+
+            // The listeners are shared, they find the row from the holder in the tag
+            itemView.setTag(this);
+            saleButton.setTag(this);
+            itemView.setOnClickListener(itemClickListener);
+            saleButton.setOnClickListener(saleClickListener);
+        }
+
+        /**
+         * Show the given row, or an empty row if its page is still loading.
+         */
+        void bind(ProductRow row) {
+            if (row == null) {
+                nameTextView.setText(null);
+                priceTextView.setText(null);
+                quantityTextView.setText(null);
+                saleButton.setEnabled(false);
+                return;
+            }
+            nameTextView.setText(row.name);
+            priceTextView.setText(row.priceText);
+            quantityTextView.setText(row.quantityText);
+            saleButton.setEnabled(true);
+        }
+    }
+
+    /**
+     * Forwards the changes of a page diff to the adapter, moved by the position of the page.
+     */
+    private class PageUpdateCallback implements ListUpdateCallback {
+
+        int offset;
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(offset + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(offset + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(offset + fromPosition, offset + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(offset + position, count, payload);
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package com.example.android.storeapp;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+import android.support.v7.util.DiffUtil;
+import android.text.TextUtils;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the product list one page at a time, as the user scrolls, from the keyset page URIs of
+ * the provider (see {@link ProductEntry#buildPageUri(Uri, String, int, String, long)}): the whole
+ * list or a part of it, like the products on sale, in one of the sort orders allowed for it.
+ * <p>
+ * At most {@link #MAX_LOADED_PAGES} pages of rows are kept in memory, the least recently used
+ * page is dropped when another one is loaded. Only the key of the last row of every page is
+ * kept for the whole list, so a dropped page can be loaded again when the user scrolls back.
+ * <p>
+ * All the methods must be called from the main thread, the queries run on a background thread.
+ */
+class ProductPager {
+
+    /**
+     * Receives the changes of the list, on the main thread.
+     */
+    interface Callback {
+        /**
+         * Called when a new page was added at the end of the list.
+         */
+        void onRowsInserted(int positionStart, int itemCount);
+
+        /**
+         * Called when a page was reloaded, with the changes between its old and new rows. The diff
+         * is null when the old rows had been dropped from memory, in which case every row of the
+         * page should be bound again.
+         */
+        void onPageReloaded(int positionStart, int itemCount, DiffUtil.DiffResult diff);
+
+        /**
+         * Called when the whole list changed, after a new search or when the pages moved.
+         */
+        void onDataSetChanged();
+
+        /**
+         * Called once the first page is shown after {@link #start()}: first with the rows of the
+         * snapshot if there is one, then with the live rows of the provider.
+         *
+         * @param live false for the rows of the snapshot, true for the rows of the provider
+         */
+        void onFirstPageShown(boolean live);
+    }
+
+    /**
+     * Number of rows in a page
+     */
+    static final int PAGE_SIZE = 50;
+    /**
+     * Maximum number of pages kept in memory
+     */
+    static final int MAX_LOADED_PAGES = 6;
+
+    /**
+     * Columns of the list rows
+     */
+    private static final String[] PROJECTION = ProductEntry.LIST_COLUMNS;
+
+    private final ContentResolver contentResolver;
+    private final Callback callback;
+    private final Handler handler = new Handler();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    /**
+     * The first page of the whole list as last loaded, only used on the background thread
+     */
+    private final FirstPageSnapshot snapshot;
+
+    /**
+     * Loaded pages by page index, in least recently used order
+     */
+    private final LinkedHashMap<Integer, ProductRow[]> loadedPages =
+            new LinkedHashMap<Integer, ProductRow[]>(MAX_LOADED_PAGES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, ProductRow[]> eldest) {
+                    return size() > MAX_LOADED_PAGES;
+                }
+            };
+    /**
+     * Last row of every page seen so far, the page after it starts right after that row
+     */
+    private final List<ProductRow> pageEnds = new ArrayList<>();
+    /**
+     * Pages being loaded, so a page isn't requested twice
+     */
+    private final Set<Integer> loadingPages = new HashSet<>();
+
+    /**
+     * Reloads the pages holding the changed products, or every loaded page when the provider
+     * doesn't say which products changed
+     */
+    private final ContentObserver observer = new ContentObserver(handler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            reloadPages();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onProductChanged(uri);
+        }
+    };
+
+    /**
+     * Incremented whenever the loaded pages and page ends are reset, results loaded before that are dropped
+     */
+    private int generation;
+    /**
+     * Number of rows in the pages seen so far
+     */
+    private int rowCount;
+    /**
+     * Whether the last page has been seen
+     */
+    private boolean endReached;
+    /**
+     * Number of rows in the last page, once it has been seen
+     */
+    private int lastPageSize;
+    /**
+     * Text searched for, the list shows a single page of search results when it isn't empty
+     */
+    private String searchQuery = "";
+    /**
+     * Cancels the query of the previous search when the text changes
+     */
+    private CancellationSignal searchCancellation;
+    /**
+     * List shown, and its sort order
+     */
+    private Uri listUri = ProductEntry.CONTENT_URI;
+    private String sort = ProductEntry.SORT_BY_ID;
+    /**
+     * Whether the live rows of the first page were shown since the pager started
+     */
+    private boolean liveFirstPageShown;
+
+    ProductPager(Context context, Callback callback) {
+        this.contentResolver = context.getContentResolver();
+        this.callback = callback;
+        this.snapshot = new FirstPageSnapshot(context);
+    }
+
+    /**
+     * Start loading the first page and watching the products for changes. The rows of the
+     * snapshot are shown as soon as they are read, and reconciled with the live rows like a
+     * reloaded page.
+     */
+    void start() {
+        contentResolver.registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+        loadingPages.add(0);
+        final int loadGeneration = generation;
+        final Uri uri = ProductEntry.buildPageUri(listUri, sort, PAGE_SIZE, null, 0);
+        final boolean wholeList = showsWholeList();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ProductRow[] snapshotRows = wholeList ? snapshot.read() : null;
+                if (snapshotRows != null) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onSnapshotLoaded(loadGeneration, snapshotRows);
+                        }
+                    });
+                }
+                // Posted after the snapshot, so the live rows are compared with it
+                loadRows(0, loadGeneration, snapshotRows, uri, null, wholeList);
+            }
+        });
+    }
+
+    /**
+     * Stop watching the products and release the background thread.
+     */
+    void stop() {
+        contentResolver.unregisterContentObserver(observer);
+        if (searchCancellation != null) {
+            searchCancellation.cancel();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Show the search results for the given text instead of the whole list, or the whole list again
+     * if the text is empty. The query of the previous text is cancelled if it is still running.
+     */
+    void setSearchQuery(String query) {
+        if (query.equals(searchQuery)) {
+            return;
+        }
+        searchQuery = query;
+        if (searchCancellation != null) {
+            searchCancellation.cancel();
+            searchCancellation = null;
+        }
+        reset();
+        loadPage(0);
+        callback.onDataSetChanged();
+    }
+
+    /**
+     * Show the given list in the given sort order, which must be one the provider allows for that
+     * list, from its first page.
+     */
+    void setList(Uri listUri, String sort) {
+        if (listUri.equals(this.listUri) && sort.equals(this.sort)) {
+            return;
+        }
+        this.listUri = listUri;
+        this.sort = sort;
+        reset();
+        loadPage(0);
+        callback.onDataSetChanged();
+    }
+
+    /**
+     * Returns the number of rows in the pages seen so far.
+     */
+    int getCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the row at the given position, or null if its page isn't loaded yet, in which case
+     * the page is loaded and {@link Callback#onPageReloaded} is called once it's there.
+     * The next page is loaded ahead when the position is in the second half of the last page.
+     */
+    ProductRow getRow(int position) {
+        int page = position / PAGE_SIZE;
+        if (!endReached && position >= rowCount - PAGE_SIZE / 2) {
+            loadPage(pageEnds.size());
+        }
+
+        ProductRow[] rows = loadedPages.get(page);
+        if (rows == null) {
+            loadPage(page);
+            return null;
+        }
+        int index = position % PAGE_SIZE;
+        return index < rows.length ? rows[index] : null;
+    }
+
+    /**
+     * Show the rows of the snapshot as the first page, unless the live rows or another list got
+     * there first.
+     */
+    private void onSnapshotLoaded(int loadGeneration, ProductRow[] rows) {
+        if (loadGeneration != generation || loadedPages.containsKey(0)) {
+            return;
+        }
+        addPage(0, rows);
+        if (rowCount > 0) {
+            callback.onRowsInserted(0, rowCount);
+        }
+        callback.onFirstPageShown(false);
+    }
+
+    /**
+     * Drop every loaded page and page end, results still loading are ignored.
+     */
+    private void reset() {
+        generation++;
+        loadedPages.clear();
+        pageEnds.clear();
+        loadingPages.clear();
+        rowCount = 0;
+        endReached = false;
+        lastPageSize = 0;
+    }
+
+    /**
+     * Apply the change of a single product notified by the provider. When showing the whole list
+     * sorted by ID the page
+     * of the product is known from the page ends, so only that page is reloaded, and only if the
+     * change can be seen. Otherwise the product may have moved and every loaded page is reloaded.
+     */
+    private void onProductChanged(Uri uri) {
+        String change = ProductEntry.getChange(uri);
+        if (change == null || !showsWholeList()) {
+            reloadPages();
+            return;
+        }
+        int page = findPage(ContentUris.parseId(uri));
+        if (page == pageEnds.size() && !endReached) {
+            // The product is after the rows seen so far, it shows up when the user scrolls there
+            return;
+        }
+        if (change.equals(ProductEntry.CHANGE_UPDATE) && !loadedPages.containsKey(page)) {
+            // The new values are read when the page is loaded again
+            return;
+        }
+        // An insert or delete moves the rows of its page, even when the page isn't in memory
+        loadingPages.remove(page);
+        loadPage(page);
+    }
+
+    /**
+     * Returns whether or not the list shows every product sorted by ID, with no search.
+     */
+    private boolean showsWholeList() {
+        return TextUtils.isEmpty(searchQuery) && listUri.equals(ProductEntry.CONTENT_URI)
+                && sort.equals(ProductEntry.SORT_BY_ID);
+    }
+
+    /**
+     * Returns the page holding the given product ID when sorting by ID, the number of page ends
+     * if it is after all of them.
+     */
+    private int findPage(long id) {
+        int low = 0;
+        int high = pageEnds.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (pageEnds.get(middle).id < id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reload the pages in memory, in order, after the products changed. The rows shown stay there
+     * until their page is back.
+     */
+    private void reloadPages() {
+        if (!TextUtils.isEmpty(searchQuery)) {
+            // Search results are a single page, run the search again
+            loadingPages.remove(0);
+            loadPage(0);
+            return;
+        }
+        List<Integer> pages = new ArrayList<>(loadedPages.keySet());
+        if (endReached && !loadedPages.containsKey(pageEnds.size())) {
+            // Rows may have been added at the end of the list
+            pages.add(pageEnds.size());
+        }
+        Collections.sort(pages);
+        for (int page : pages) {
+            loadingPages.remove(page);
+            loadPage(page);
+        }
+        if (pages.isEmpty()) {
+            loadPage(0);
+        }
+    }
+
+    /**
+     * Load the given page in the background, unless it's already loading. A page can only be
+     * loaded once the end of the page before it is known, so the first unknown page is loaded instead.
+     */
+    private void loadPage(int page) {
+        boolean searching = !TextUtils.isEmpty(searchQuery);
+        if (searching && page > 0) {
+            return;
+        }
+        if (page > pageEnds.size()) {
+            page = pageEnds.size();
+        }
+        if (!loadingPages.add(page)) {
+            return;
+        }
+
+        final int loadPage = page;
+        final int loadGeneration = generation;
+        // Pages are immutable arrays, so the old rows can be compared with the new ones in the background
+        final ProductRow[] oldRows = loadedPages.get(page);
+        final Uri uri;
+        final CancellationSignal cancellationSignal;
+        if (searching) {
+            uri = ProductEntry.buildSearchUri(searchQuery);
+            cancellationSignal = new CancellationSignal();
+            searchCancellation = cancellationSignal;
+        } else {
+            ProductRow previous = page == 0 ? null : pageEnds.get(page - 1);
+            uri = previous == null
+                    ? ProductEntry.buildPageUri(listUri, sort, PAGE_SIZE, null, 0)
+                    : ProductEntry.buildPageUri(listUri, sort, PAGE_SIZE, getSortValue(previous), previous.id);
+            cancellationSignal = null;
+        }
+        // The first page of the whole list is what the next cold start shows
+        final boolean saveSnapshot = page == 0 && showsWholeList();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadRows(loadPage, loadGeneration, oldRows, uri, cancellationSignal, saveSnapshot);
+            }
+        });
+    }
+
+    /**
+     * Query the rows of a page, compare them with the old rows and post them to the main thread.
+     * Runs on the background thread.
+     */
+    private void loadRows(final int page, final int loadGeneration, final ProductRow[] oldRows, Uri uri,
+                          CancellationSignal cancellationSignal, boolean saveSnapshot) {
+        final ProductRow[] rows;
+        try {
+            rows = queryRows(uri, cancellationSignal);
+        } catch (OperationCanceledException e) {
+            // A newer search replaced this one
+            return;
+        }
+        // Work out which rows changed off the main thread, so only those are bound again
+        final DiffUtil.DiffResult diff = oldRows == null ? null
+                : DiffUtil.calculateDiff(new RowDiff(oldRows, rows), false);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                onPageLoaded(page, loadGeneration, oldRows, rows, diff);
+            }
+        });
+        if (saveSnapshot) {
+            snapshot.write(rows);
+        }
+    }
+
+    /**
+     * Query the rows of a page. Runs on the background thread.
+     */
+    private ProductRow[] queryRows(Uri uri, CancellationSignal cancellationSignal) {
+        Cursor cursor = contentResolver.query(uri, PROJECTION, null, null, null, cancellationSignal);
+        if (cursor == null) {
+            return new ProductRow[0];
+        }
+        try {
+            // Find the columns once for the whole page
+            int idColumnIndex = cursor.getColumnIndex(ProductEntry._ID);
+            int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
+            int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
+            int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+
+            ProductRow[] rows = new ProductRow[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                rows[i++] = new ProductRow(cursor.getLong(idColumnIndex),
+                        cursor.getString(nameColumnIndex),
+                        cursor.getInt(priceColumnIndex),
+                        cursor.getInt(quantityColumnIndex));
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void onPageLoaded(int page, int loadGeneration, ProductRow[] oldRows, ProductRow[] rows,
+                              DiffUtil.DiffResult diff) {
+        if (loadGeneration != generation) {
+            return;
+        }
+        loadingPages.remove(page);
+        if (page == 0 && !liveFirstPageShown) {
+            liveFirstPageShown = true;
+            // Once the rows are bound, which is after the callbacks below
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFirstPageShown(true);
+                }
+            });
+        }
+
+        if (page < pageEnds.size()) {
+            ProductRow oldEnd = pageEnds.get(page);
+            ProductRow newEnd = rows.length == PAGE_SIZE ? rows[PAGE_SIZE - 1] : null;
+            if (newEnd == null || newEnd.id != oldEnd.id || !TextUtils.equals(getSortValue(newEnd), getSortValue(oldEnd))) {
+                // Rows were added or removed in this page, the pages after it start somewhere else now
+                generation++;
+                loadingPages.clear();
+                while (pageEnds.size() > page) {
+                    pageEnds.remove(pageEnds.size() - 1);
+                }
+                Iterator<Integer> iterator = loadedPages.keySet().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next() > page) {
+                        iterator.remove();
+                    }
+                }
+                endReached = false;
+                addPage(page, rows);
+                callback.onDataSetChanged();
+                return;
+            }
+        }
+
+        int oldRowCount = rowCount;
+        boolean known = page < pageEnds.size() || (endReached && page == pageEnds.size());
+        ProductRow[] currentRows = loadedPages.get(page);
+        addPage(page, rows);
+
+        if (!known) {
+            // A new page at the end of the list
+            callback.onRowsInserted(oldRowCount, rowCount - oldRowCount);
+        } else if (diff != null && currentRows == oldRows) {
+            callback.onPageReloaded(page * PAGE_SIZE, rows.length, diff);
+        } else if (currentRows == null && oldRowCount == rowCount) {
+            // The page had been dropped, its rows were shown empty
+            callback.onPageReloaded(page * PAGE_SIZE, rows.length, null);
+        } else {
+            // The page changed again while it was loading
+            callback.onDataSetChanged();
+        }
+    }
+
+    /**
+     * Keep the rows of the given page and update the page ends and the number of rows.
+     */
+    private void addPage(int page, ProductRow[] rows) {
+        loadedPages.put(page, rows);
+        if (page == pageEnds.size()) {
+            if (rows.length == PAGE_SIZE && TextUtils.isEmpty(searchQuery)) {
+                pageEnds.add(rows[PAGE_SIZE - 1]);
+                endReached = false;
+            } else {
+                endReached = true;
+                lastPageSize = rows.length;
+            }
+        }
+        rowCount = endReached
+                ? pageEnds.size() * PAGE_SIZE + lastPageSize
+                : pageEnds.size() * PAGE_SIZE;
+    }
+
+    /**
+     * Returns the value of the sort column of the given row, null when sorting by ID.
+     */
+    private String getSortValue(ProductRow row) {
+        switch (sort) {
+            case ProductEntry.SORT_BY_NAME:
+                return row.name;
+            case ProductEntry.SORT_BY_PRICE:
+                return String.valueOf(row.price);
+            case ProductEntry.SORT_BY_QUANTITY:
+                return String.valueOf(row.quantity);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Compares the old and new rows of a page. Rows are the same product when they have the
+     * same ID, and have the same contents when every shown column is equal.
+     */
+    private static class RowDiff extends DiffUtil.Callback {
+
+        private final ProductRow[] oldRows;
+        private final ProductRow[] newRows;
+
+        RowDiff(ProductRow[] oldRows, ProductRow[] newRows) {
+            this.oldRows = oldRows;
+            this.newRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldRows.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newRows.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldRows[oldItemPosition].id == newRows[newItemPosition].id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            ProductRow oldRow = oldRows[oldItemPosition];
+            ProductRow newRow = newRows[newItemPosition];
+            return oldRow.price == newRow.price && oldRow.quantity == newRow.quantity
+                    && TextUtils.equals(oldRow.name, newRow.name);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.android.storeapp;
+
+/**
+ * The product data shown by a single row of the product list. The texts of the price and the
+ * quantity are built once when the row is loaded, on the background thread, so binding a row to
+ * a view doesn't allocate anything.
+ */
+class ProductRow {
+
+    final long id;
+    final String name;
+    final int price;
+    final int quantity;
+    final String priceText;
+    final String quantityText;
+
+    ProductRow(long id, String name, int price, int quantity) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+        this.priceText = price + " EGP";
+        this.quantityText = String.valueOf(quantity);
+    }
+}
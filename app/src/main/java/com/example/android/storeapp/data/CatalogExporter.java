@@ -0,0 +1,398 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Exports the products to a CSV or JSON lines file.
+ * <p>
+ * The products are read through the provider in windows of {@link #WINDOW_SIZE} rows in ID order,
+ * every window starting after the last ID of the previous one (see
+ * {@link ProductEntry#buildPageUri(String, int, String, long)}), so only one window is ever held in
+ * memory whatever the size of the catalog. Rows are encoded straight into a byte buffer drained to
+ * the file channel.
+ * <p>
+ * After every window the file is synced and a {@link Checkpoint} is reported. An export cancelled
+ * through its {@link CancellationSignal}, or cut short by the process dying, is resumed from its
+ * last checkpoint: the file is cut back to the checkpoint length and the export carries on after
+ * its last ID. When compressed, every window is written as its own gzip member, so the file is a
+ * valid gzip file at every checkpoint.
+ */
+public class CatalogExporter {
+
+    /**
+     * CSV with a header row, that can be imported back by {@link CatalogImporter}
+     */
+    public static final int FORMAT_CSV = 0;
+
+    /**
+     * One JSON object per line
+     */
+    public static final int FORMAT_JSON_LINES = 1;
+
+    /**
+     * Number of products read from the provider at a time
+     */
+    public static final int WINDOW_SIZE = 500;
+
+    /**
+     * Size of the buffer rows are encoded into before being written to the file
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Columns written for every product
+     */
+    private static final String[] COLUMNS = ProductEntry.ALL_COLUMNS;
+
+    /**
+     * Where an export got to. Everything up to {@link #lastId} is in the first {@link #fileLength}
+     * bytes of the file.
+     */
+    public static class Checkpoint {
+
+        public final long lastId;
+        public final long rowsExported;
+        public final long fileLength;
+
+        public Checkpoint(long lastId, long rowsExported, long fileLength) {
+            this.lastId = lastId;
+            this.rowsExported = rowsExported;
+            this.fileLength = fileLength;
+        }
+    }
+
+    /**
+     * Receives the progress of an export, on the exporting thread, after every window.
+     */
+    public interface ProgressListener {
+        void onProgress(Checkpoint checkpoint);
+    }
+
+    /**
+     * Outcome of an export.
+     */
+    public static class Result {
+
+        /**
+         * The last checkpoint, to resume from when the export was cancelled
+         */
+        public final Checkpoint checkpoint;
+        public final boolean cancelled;
+        public final long elapsedMillis;
+
+        Result(Checkpoint checkpoint, boolean cancelled, long elapsedMillis) {
+            this.checkpoint = checkpoint;
+            this.cancelled = cancelled;
+            this.elapsedMillis = elapsedMillis;
+        }
+    }
+
+    private final ContentResolver contentResolver;
+
+    public CatalogExporter(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Export the products to the given file.
+     *
+     * @param format     {@link #FORMAT_CSV} or {@link #FORMAT_JSON_LINES}
+     * @param gzip       whether to compress the file
+     * @param resumeFrom the checkpoint of a previous export of the same file with the same format,
+     *                   or null to start a new file
+     * @param signal     cancels the export at the next window, or null
+     * @param listener   receives the progress, or null
+     * @throws IOException if the file can't be written, or is shorter than the checkpoint
+     */
+    public Result export(File file, int format, boolean gzip, Checkpoint resumeFrom,
+                         CancellationSignal signal, ProgressListener listener) throws IOException {
+        if (format != FORMAT_CSV && format != FORMAT_JSON_LINES) {
+            throw new IllegalArgumentException("Unknown export format " + format);
+        }
+        long start = SystemClock.elapsedRealtime();
+        Checkpoint checkpoint = resumeFrom != null ? resumeFrom : new Checkpoint(0, 0, 0);
+        boolean cancelled = false;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        WindowWriter writer = null;
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() < checkpoint.fileLength) {
+                throw new IOException(file + " is shorter than the checkpoint of the export");
+            }
+            // Drop anything written after the checkpoint, such as half a window
+            channel.truncate(checkpoint.fileLength);
+            channel.position(checkpoint.fileLength);
+            writer = new WindowWriter(channel, gzip);
+            StringBuilder line = new StringBuilder();
+
+            if (resumeFrom == null && format == FORMAT_CSV) {
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    CsvReader.appendField(line, COLUMNS[i]);
+                }
+                writer.beginWindow();
+                writer.write(line.append('\n'));
+                writer.endWindow();
+                checkpoint = new Checkpoint(0, 0, channel.position());
+            }
+
+            while (true) {
+                if (signal != null && signal.isCanceled()) {
+                    cancelled = true;
+                    break;
+                }
+                Cursor cursor;
+                try {
+                    cursor = contentResolver.query(
+                            ProductEntry.buildPageUri(ProductEntry.SORT_BY_ID, WINDOW_SIZE, null, checkpoint.lastId),
+                            COLUMNS, null, null, null, signal);
+                } catch (OperationCanceledException e) {
+                    cancelled = true;
+                    break;
+                }
+                if (cursor == null) {
+                    throw new IOException("Failed to query the products");
+                }
+                int rows;
+                long lastId = checkpoint.lastId;
+                try {
+                    rows = cursor.getCount();
+                    if (rows == 0) {
+                        break;
+                    }
+                    writer.beginWindow();
+                    while (cursor.moveToNext()) {
+                        line.setLength(0);
+                        if (format == FORMAT_CSV) {
+                            appendCsvRow(line, cursor);
+                        } else {
+                            appendJsonRow(line, cursor);
+                        }
+                        writer.write(line.append('\n'));
+                        lastId = cursor.getLong(0);
+                    }
+                    writer.endWindow();
+                } finally {
+                    cursor.close();
+                }
+
+                // Make the window durable before reporting it, so a resume never skips rows
+                channel.force(false);
+                checkpoint = new Checkpoint(lastId, checkpoint.rowsExported + rows, channel.position());
+                if (listener != null) {
+                    listener.onProgress(checkpoint);
+                }
+                if (rows < WINDOW_SIZE) {
+                    // Last window
+                    break;
+                }
+            }
+            if (!cancelled) {
+                channel.force(true);
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+            randomAccessFile.close();
+        }
+        return new Result(checkpoint, cancelled, SystemClock.elapsedRealtime() - start);
+    }
+
+    private static void appendCsvRow(StringBuilder line, Cursor cursor) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            CsvReader.appendField(line, cursor.getString(i));
+        }
+    }
+
+    private static void appendJsonRow(StringBuilder line, Cursor cursor) {
+        line.append('{');
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            appendJsonString(line, COLUMNS[i]);
+            line.append(':');
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    line.append("null");
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    line.append(cursor.getLong(i));
+                    break;
+                default:
+                    appendJsonString(line, cursor.getString(i));
+                    break;
+            }
+        }
+        line.append('}');
+    }
+
+    /**
+     * Append the given text to a JSON line as a quoted string.
+     */
+    private static void appendJsonString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+                    break;
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Encodes the rows of a window into a reused buffer, and drains it to the file channel, through
+     * a gzip member of its own when compressing.
+     */
+    private static class WindowWriter {
+
+        /**
+         * Header of every gzip member: magic, deflate, no flags, no time, no extra flags, OS 0
+         */
+        private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CharsetEncoder encoder = UTF_8.newEncoder();
+        // One deflater reset for every member, rather than a GZIPOutputStream and its native
+        // deflater per window, which would only be freed by the finalizer
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final OutputStream channelStream;
+        private final DeflaterOutputStream deflaterStream;
+
+        WindowWriter(FileChannel channel, boolean gzip) {
+            this.channel = channel;
+            if (gzip) {
+                deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                channelStream = Channels.newOutputStream(channel);
+                deflaterStream = new DeflaterOutputStream(channelStream, deflater, BUFFER_SIZE);
+            } else {
+                deflater = null;
+                channelStream = null;
+                deflaterStream = null;
+            }
+        }
+
+        void beginWindow() throws IOException {
+            if (deflater != null) {
+                deflater.reset();
+                crc.reset();
+                channelStream.write(GZIP_HEADER);
+            }
+        }
+
+        /**
+         * Encode the given complete line. Lines end with a line break, so a surrogate pair is never
+         * split between two calls.
+         */
+        void write(CharSequence line) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(line);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, false);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isUnderflow()) {
+                    return;
+                } else {
+                    result.throwException();
+                }
+            }
+        }
+
+        void endWindow() throws IOException {
+            drain();
+            if (deflater != null) {
+                // Ends the deflate stream of the member, the channel stream stays open
+                deflaterStream.finish();
+                writeTrailerInt(crc.getValue());
+                writeTrailerInt(deflater.getBytesRead());
+            }
+        }
+
+        /**
+         * Free the native memory of the deflater.
+         */
+        void close() {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            if (deflater != null) {
+                byte[] bytes = buffer.array();
+                int offset = buffer.arrayOffset() + buffer.position();
+                crc.update(bytes, offset, buffer.remaining());
+                deflaterStream.write(bytes, offset, buffer.remaining());
+            } else {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Write the low 32 bits of the given value in little-endian order, as the gzip trailer holds them.
+         */
+        private void writeTrailerInt(long value) throws IOException {
+            channelStream.write(new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16),
+                    (byte) (value >> 24)});
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.domain.ProductValidator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports a supplier catalog from a CSV file into the products table through the provider.
+ * <p>
+ * The first line of the file names the columns, with the same names as the products table
+ * ({@link ProductEntry#COLUMN_PRODUCT_NAME}, {@link ProductEntry#COLUMN_PRODUCT_PRICE}, ...) in
+ * any order and case. Other columns are ignored.
+ * <p>
+ * The file is read one chunk of {@link #CHUNK_SIZE} rows at a time. Chunks are validated in
+ * parallel with the rules of {@link ProductValidator}, and the valid rows of every chunk are
+ * written in order with one {@link ContentResolver#bulkInsert} each, so a single transaction
+ * per chunk. At most {@link #maxChunksInFlight} chunks are held at once, so memory stays the same
+ * whatever the size of the file. Rows breaking a rule are written to the reject file with their
+ * line number and the reason.
+ */
+public class CatalogImporter {
+
+    /**
+     * Number of rows validated together and written in one transaction
+     */
+    public static final int CHUNK_SIZE = 1000;
+
+    /**
+     * Receives the progress of an import, on the importing thread, after every chunk.
+     */
+    public interface ProgressListener {
+        void onProgress(long rowsRead, long rowsImported, long rowsRejected);
+    }
+
+    /**
+     * Counts of a finished import.
+     */
+    public static class Result {
+
+        public final long rowsRead;
+        public final long rowsImported;
+        public final long rowsRejected;
+        public final long elapsedMillis;
+
+        Result(long rowsRead, long rowsImported, long rowsRejected, long elapsedMillis) {
+            this.rowsRead = rowsRead;
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Returns the number of rows read per second.
+         */
+        public long getRowsPerSecond() {
+            return elapsedMillis == 0 ? rowsRead : rowsRead * 1000 / elapsedMillis;
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Byte order mark at the start of a UTF-8 file, once decoded
+     */
+    private static final String BYTE_ORDER_MARK = "\uFEFF";
+
+    /**
+     * Columns of the products table that can be imported
+     */
+    private static final String[] COLUMNS = {ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_SALE_OFFER, ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER, ProductEntry.COLUMN_SUPPLIER_PHONE_NUMBER};
+
+    private final ContentResolver contentResolver;
+    private final int validationThreads;
+    private final int maxChunksInFlight;
+
+    public CatalogImporter(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+        this.validationThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        this.maxChunksInFlight = validationThreads * 2;
+    }
+
+    /**
+     * Import the products of the given CSV file. The stream is closed when the import ends.
+     *
+     * @param in       the CSV file, in UTF-8
+     * @param rejects  receives the rejected rows, as CSV with the line number and the reason
+     *                 before the original fields. Not closed by the import.
+     * @param listener receives the progress, or null
+     * @throws IOException if the file can't be read or its header doesn't have a product column
+     */
+    public Result importCsv(InputStream in, Writer rejects, ProgressListener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        CsvReader reader = new CsvReader(new BufferedReader(new InputStreamReader(in, UTF_8), 64 * 1024));
+        ExecutorService validators = Executors.newFixedThreadPool(validationThreads);
+        ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        Progress progress = new Progress();
+        try {
+            String[] header = reader.readRecord();
+            if (header == null) {
+                return new Result(0, 0, 0, 0);
+            }
+            if (header.length > 0 && header[0].startsWith(BYTE_ORDER_MARK)) {
+                // Spreadsheets often save UTF-8 with a byte order mark, it isn't part of the first column name
+                header[0] = header[0].substring(BYTE_ORDER_MARK.length());
+            }
+            final int[] columnFields = mapColumns(header);
+            writeRejectHeader(rejects, header);
+
+            boolean end = false;
+            while (!end) {
+                // Read the next chunk on this thread, the file is read in order
+                final List<String[]> records = new ArrayList<>(CHUNK_SIZE);
+                final long[] lineNumbers = new long[CHUNK_SIZE];
+                while (records.size() < CHUNK_SIZE) {
+                    String[] record = reader.readRecord();
+                    if (record == null) {
+                        end = true;
+                        break;
+                    }
+                    if (record.length == 1 && record[0].isEmpty()) {
+                        // Blank line
+                        continue;
+                    }
+                    lineNumbers[records.size()] = reader.getRecordLineNumber();
+                    records.add(record);
+                }
+                if (records.isEmpty()) {
+                    break;
+                }
+                inFlight.add(validators.submit(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() {
+                        return validate(records, lineNumbers, columnFields);
+                    }
+                }));
+                // Keep the number of chunks in memory bounded, write the oldest before reading more
+                if (inFlight.size() >= maxChunksInFlight) {
+                    write(await(inFlight.poll()), rejects, progress, listener);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                write(await(inFlight.poll()), rejects, progress, listener);
+            }
+        } finally {
+            for (Future<Chunk> future : inFlight) {
+                future.cancel(true);
+            }
+            validators.shutdownNow();
+            reader.close();
+        }
+        rejects.flush();
+        return new Result(progress.read, progress.imported, progress.rejected,
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Returns, for every column of {@link #COLUMNS}, the index of its field in the records, or -1.
+     */
+    private static int[] mapColumns(String[] header) throws IOException {
+        int[] columnFields = new int[COLUMNS.length];
+        for (int c = 0; c < COLUMNS.length; c++) {
+            columnFields[c] = -1;
+            for (int f = 0; f < header.length; f++) {
+                if (header[f].trim().toLowerCase(Locale.US).equals(COLUMNS[c].toLowerCase(Locale.US))) {
+                    columnFields[c] = f;
+                    break;
+                }
+            }
+        }
+        if (columnFields[0] == -1) {
+            throw new IOException("Catalog requires a " + ProductEntry.COLUMN_PRODUCT_NAME + " column");
+        }
+        return columnFields;
+    }
+
+    /**
+     * Turn the records of a chunk into product values and check them. Runs on a validation thread.
+     */
+    private static Chunk validate(List<String[]> records, long[] lineNumbers, int[] columnFields) {
+        Chunk chunk = new Chunk(records.size());
+        for (int r = 0; r < records.size(); r++) {
+            String[] record = records.get(r);
+            ContentValues values = new ContentValues(COLUMNS.length);
+            try {
+                values.put(ProductEntry.COLUMN_PRODUCT_NAME, text(record, columnFields[0]));
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE,
+                        number(record, columnFields[1], ProductValidator.INVALID_PRICE));
+                values.put(ProductEntry.COLUMN_SALE_OFFER,
+                        number(record, columnFields[2], ProductValidator.INVALID_SALE));
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                        number(record, columnFields[3], ProductValidator.INVALID_QUANTITY));
+                values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, text(record, columnFields[4]));
+                values.put(ProductEntry.COLUMN_SUPPLIER_PHONE_NUMBER, text(record, columnFields[5]));
+
+                // The same rules as a product saved from the editor
+                ProductValues.validate(values, true);
+                chunk.valid.add(values);
+            } catch (IllegalArgumentException e) {
+                chunk.rejectLines.add(lineNumbers[r]);
+                chunk.rejectReasons.add(e.getMessage());
+                chunk.rejectRecords.add(record);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Returns the trimmed text of the given field, or null if it is missing or empty.
+     */
+    private static String text(String[] record, int field) {
+        if (field < 0 || field >= record.length) {
+            return null;
+        }
+        String value = record[field].trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Returns the number in the given field, or null if it is missing or empty.
+     */
+    private static Integer number(String[] record, int field, String message) {
+        String value = text(record, field);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Validation failed", e.getCause());
+        }
+    }
+
+    /**
+     * Write the valid rows of a chunk in one transaction, and its rejected rows to the reject file.
+     */
+    private void write(Chunk chunk, Writer rejects, Progress progress, ProgressListener listener)
+            throws IOException {
+        if (!chunk.valid.isEmpty()) {
+            progress.imported += contentResolver.bulkInsert(ProductEntry.CONTENT_URI,
+                    chunk.valid.toArray(new ContentValues[chunk.valid.size()]));
+        }
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < chunk.rejectLines.size(); i++) {
+            line.setLength(0);
+            line.append(chunk.rejectLines.get(i)).append(',');
+            CsvReader.appendField(line, chunk.rejectReasons.get(i));
+            for (String field : chunk.rejectRecords.get(i)) {
+                line.append(',');
+                CsvReader.appendField(line, field);
+            }
+            rejects.write(line.append('\n').toString());
+        }
+        progress.read += chunk.valid.size() + chunk.rejectLines.size();
+        progress.rejected += chunk.rejectLines.size();
+        if (listener != null) {
+            listener.onProgress(progress.read, progress.imported, progress.rejected);
+        }
+    }
+
+    private static void writeRejectHeader(Writer rejects, String[] header) throws IOException {
+        StringBuilder line = new StringBuilder("line,reason");
+        for (String field : header) {
+            line.append(',');
+            CsvReader.appendField(line, field);
+        }
+        rejects.write(line.append('\n').toString());
+    }
+
+    /**
+     * The rows of a chunk once validated.
+     */
+    private static class Chunk {
+
+        final List<ContentValues> valid;
+        final List<Long> rejectLines = new ArrayList<>();
+        final List<String> rejectReasons = new ArrayList<>();
+        final List<String[]> rejectRecords = new ArrayList<>();
+
+        Chunk(int size) {
+            valid = new ArrayList<>(size);
+        }
+    }
+
+    /**
+     * Running counts of an import.
+     */
+    private static class Progress {
+        long read;
+        long imported;
+        long rejected;
+    }
+}
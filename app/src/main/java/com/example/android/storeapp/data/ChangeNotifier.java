@@ -0,0 +1,209 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the products changed by the provider and notifies them together once the writes stop
+ * for {@link #COALESCE_WINDOW_MS}, one URI per product built by
+ * {@link ProductEntry#buildChangeUri(long, String)}. When too many products changed, or when the
+ * changed products aren't known, a single notification for {@link ProductEntry#CONTENT_URI} is
+ * sent instead and observers reload everything.
+ * <p>
+ * Writes come from any binder thread, so every method is synchronized.
+ */
+final class ChangeNotifier {
+
+    /**
+     * Changes made within this delay of each other are notified together
+     */
+    static final long COALESCE_WINDOW_MS = 50;
+
+    /**
+     * Above this number of changed products, observers are told to reload everything
+     */
+    static final int MAX_ROW_CHANGES = 100;
+
+    private final ContentResolver contentResolver;
+    private final ProviderMetrics metrics;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Pending change of every product, in the order they first changed
+     */
+    private final Map<Long, String> pendingChanges = new LinkedHashMap<>();
+    /**
+     * Whether a notification for the whole table is pending
+     */
+    private boolean tableChanged;
+    /**
+     * Other content URIs to notify, such as the sales ledger
+     */
+    private final Set<Uri> pendingUris = new LinkedHashSet<>();
+    /**
+     * Number of batches being applied, the changes are held until the last one ends
+     */
+    private int openBatches;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ChangeNotifier(ContentResolver contentResolver, ProviderMetrics metrics) {
+        this.contentResolver = contentResolver;
+        this.metrics = metrics;
+    }
+
+    synchronized void rowInserted(long id) {
+        addChange(id, ProductEntry.CHANGE_INSERT);
+    }
+
+    synchronized void rowUpdated(long id) {
+        addChange(id, ProductEntry.CHANGE_UPDATE);
+    }
+
+    synchronized void rowDeleted(long id) {
+        addChange(id, ProductEntry.CHANGE_DELETE);
+    }
+
+    /**
+     * Record that the given products were updated by the same write, they are always notified in
+     * the same flush.
+     */
+    synchronized void rowsUpdated(long[] ids) {
+        for (long id : ids) {
+            addChange(id, ProductEntry.CHANGE_UPDATE);
+        }
+    }
+
+    /**
+     * Record that the data of another content URI changed.
+     */
+    synchronized void uriChanged(Uri uri) {
+        pendingUris.add(uri);
+        schedule();
+    }
+
+    /**
+     * Record that products changed without knowing which ones.
+     */
+    synchronized void tableChanged() {
+        tableChanged = true;
+        pendingChanges.clear();
+        schedule();
+    }
+
+    /**
+     * Hold the notifications until {@link #endBatch()}, so the changes of a batch are sent
+     * together however long it takes, every changed URI once.
+     */
+    synchronized void beginBatch() {
+        openBatches++;
+        handler.removeCallbacks(flush);
+    }
+
+    /**
+     * Send the changes held since {@link #beginBatch()}, once the last batch being applied ended.
+     */
+    synchronized void endBatch() {
+        openBatches--;
+        schedule();
+    }
+
+    private void addChange(long id, String change) {
+        if (tableChanged) {
+            // Everything is reloaded anyway
+            schedule();
+            return;
+        }
+        String merged = merge(pendingChanges.get(id), change);
+        if (merged == null) {
+            pendingChanges.remove(id);
+        } else {
+            pendingChanges.put(id, merged);
+        }
+        if (pendingChanges.size() > MAX_ROW_CHANGES) {
+            tableChanged();
+            return;
+        }
+        schedule();
+    }
+
+    /**
+     * Returns the change seen by observers when a product changed twice in the same window, or
+     * null if there is nothing left to notify.
+     */
+    private static String merge(String previous, String change) {
+        if (previous == null) {
+            return change;
+        }
+        if (previous.equals(ProductEntry.CHANGE_INSERT)) {
+            // Observers have never seen this product, they only need to see it if it's still there
+            return change.equals(ProductEntry.CHANGE_DELETE) ? null : ProductEntry.CHANGE_INSERT;
+        }
+        if (previous.equals(ProductEntry.CHANGE_DELETE) && change.equals(ProductEntry.CHANGE_INSERT)) {
+            // The ID is back, for observers that's the same product with new values
+            return ProductEntry.CHANGE_UPDATE;
+        }
+        return change;
+    }
+
+    /**
+     * Restart the window, so the changes are only sent once the writes stop.
+     */
+    private void schedule() {
+        handler.removeCallbacks(flush);
+        if (openBatches > 0) {
+            // Sent when the batch ends
+            return;
+        }
+        handler.postDelayed(flush, COALESCE_WINDOW_MS);
+    }
+
+    /**
+     * Send the pending notifications now.
+     */
+    void flush() {
+        Uri[] uris;
+        synchronized (this) {
+            if (tableChanged) {
+                uris = new Uri[]{ProductEntry.CONTENT_URI};
+            } else {
+                uris = new Uri[pendingChanges.size()];
+                int i = 0;
+                for (Map.Entry<Long, String> entry : pendingChanges.entrySet()) {
+                    uris[i++] = ProductEntry.buildChangeUri(entry.getKey(), entry.getValue());
+                }
+            }
+            metrics.recordNotifications(tableChanged ? 0 : pendingChanges.size(), tableChanged ? 1 : 0,
+                    pendingUris.size());
+            if (!pendingUris.isEmpty()) {
+                uris = Arrays.copyOf(uris, uris.length + pendingUris.size());
+                int i = uris.length - pendingUris.size();
+                for (Uri uri : pendingUris) {
+                    uris[i++] = uri;
+                }
+            }
+            tableChanged = false;
+            pendingChanges.clear();
+            pendingUris.clear();
+        }
+        // Notify outside the lock, observers may write back to the provider
+        for (Uri uri : uris) {
+            contentResolver.notifyChange(uri, null);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.android.storeapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs write operations on a single writer thread, grouping the operations that arrive within
+ * {@link #windowMillis} of the first one into a single transaction. Callers on many binder threads
+ * then share one commit, instead of paying for a journal sync each.
+ * <p>
+ * The writer only waits for the window while other callers are inside {@link #execute(Operation)},
+ * so a lone caller isn't slowed down by it.
+ * <p>
+ * {@link #execute(Operation)} only returns once the transaction holding the operation has been
+ * committed, so callers see the same durability as with their own transaction. If an operation
+ * throws, the group is rolled back and its operations are run again one transaction each, so only
+ * the caller of the failing operation gets the exception, not the other tills of its group.
+ */
+final class GroupCommitWriter {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = GroupCommitWriter.class.getSimpleName();
+
+    /**
+     * Default time the writer waits for more operations after the first one of a group
+     */
+    static final long DEFAULT_WINDOW_MS = 2;
+
+    /**
+     * Default maximum number of operations in a group
+     */
+    static final int DEFAULT_MAX_GROUP_SIZE = 256;
+
+    /**
+     * A write made inside the group transaction, on the writer thread.
+     */
+    abstract static class Operation<T> {
+
+        /**
+         * Apply the write. Runs inside the group transaction.
+         */
+        abstract T apply(SQLiteDatabase db);
+
+        /**
+         * Called on the writer thread once the group has been committed, before the caller returns.
+         */
+        void onCommitted(T result) {
+        }
+    }
+
+    private final StoreDbHelper dbHelper;
+    private final long windowMillis;
+    private final int maxGroupSize;
+    private final BlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<>();
+    /**
+     * Number of callers waiting in {@link #execute(Operation)}
+     */
+    private final AtomicInteger waitingCallers = new AtomicInteger();
+    private final Thread thread;
+
+    /**
+     * @param windowMillis time to wait for more operations after the first one of a group, 0
+     *                     to only group the operations already waiting
+     * @param maxGroupSize maximum number of operations in a group, 1 to give every operation its
+     *                     own transaction
+     */
+    GroupCommitWriter(StoreDbHelper dbHelper, long windowMillis, int maxGroupSize) {
+        this.dbHelper = dbHelper;
+        this.windowMillis = windowMillis;
+        this.maxGroupSize = maxGroupSize;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runGroups();
+            }
+        }, "StoreGroupCommit");
+        thread.start();
+    }
+
+    /**
+     * Run the given operation in the next group and return its result once the group is committed.
+     */
+    <T> T execute(Operation<T> operation) {
+        Pending<T> pending = new Pending<>(operation);
+        waitingCallers.incrementAndGet();
+        try {
+            queue.add(pending);
+            return pending.await();
+        } finally {
+            waitingCallers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Run the given operation in the next group without waiting for it.
+     */
+    void submit(Operation<?> operation) {
+        queue.add(new Pending<>(operation));
+    }
+
+    /**
+     * Stop the writer thread once the operations already queued have run, and wait for it.
+     */
+    void shutdown() {
+        thread.interrupt();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runGroups() {
+        List<Pending<?>> group = new ArrayList<>(maxGroupSize);
+        while (true) {
+            try {
+                group.add(queue.take());
+                // Give the other callers a short window to join this transaction
+                long deadline = SystemClock.uptimeMillis() + windowMillis;
+                while (group.size() < maxGroupSize) {
+                    if (queue.drainTo(group, maxGroupSize - group.size()) > 0) {
+                        continue;
+                    }
+                    if (group.size() >= waitingCallers.get()) {
+                        // Every caller is already in this group, nobody else is about to join
+                        break;
+                    }
+                    long remaining = deadline - SystemClock.uptimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Pending<?> next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Shut down, finish what was already taken and queued
+                queue.drainTo(group);
+                if (!group.isEmpty()) {
+                    runGroup(group);
+                }
+                return;
+            }
+            runGroup(group);
+            group.clear();
+        }
+    }
+
+    private void runGroup(List<Pending<?>> group) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        RuntimeException error = null;
+        db.beginTransaction();
+        try {
+            for (Pending<?> pending : group) {
+                pending.apply(db);
+            }
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            error = e;
+        } finally {
+            db.endTransaction();
+        }
+        if (error != null && group.size() > 1) {
+            // The whole group was rolled back, find the operations that fail
+            Log.w(LOG_TAG, "Group of " + group.size() + " writes rolled back, running them one by one", error);
+            for (Pending<?> pending : group) {
+                runGroup(Collections.<Pending<?>>singletonList(pending));
+            }
+            return;
+        }
+        if (error != null) {
+            Log.e(LOG_TAG, "Write rolled back", error);
+        }
+        for (Pending<?> pending : group) {
+            pending.finish(error);
+        }
+    }
+
+    /**
+     * An operation waiting for its group to be committed.
+     */
+    private static class Pending<T> {
+
+        private final Operation<T> operation;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private T result;
+        private RuntimeException error;
+
+        Pending(Operation<T> operation) {
+            this.operation = operation;
+        }
+
+        void apply(SQLiteDatabase db) {
+            result = operation.apply(db);
+        }
+
+        void finish(RuntimeException groupError) {
+            error = groupError;
+            if (error == null) {
+                try {
+                    operation.onCommitted(result);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Commit callback failed", e);
+                }
+            }
+            done.countDown();
+        }
+
+        T await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // The write is already queued, wait for its outcome anyway
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null) {
+                throw error;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.storeapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A single step in the schema history of the store database, applied by {@link StoreMigrations}
+ * when the database is upgraded to {@link #version}.
+ * <p>
+ * A step has two parts. {@link #migrate(SQLiteDatabase)} changes the schema and runs inside the
+ * upgrade transaction, so it must be quick (creating tables, columns or triggers). Anything that
+ * reads the existing rows, such as building an index on the products or computing a summary, goes
+ * in the backfill.
+ * {@link #backfill(SQLiteDatabase, long, int)} fills in existing rows after the database has been
+ * opened, one chunk at a time, each chunk in its own transaction, so it never blocks the
+ * first query and picks up where it stopped if the app is killed.
+ */
+abstract class Migration {
+
+    /**
+     * Returned by {@link #backfill(SQLiteDatabase, long, int)} when there are no rows left.
+     */
+    static final long BACKFILL_DONE = -1;
+
+    /**
+     * The database version this step upgrades to.
+     */
+    final int version;
+
+    Migration(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Apply the schema changes of this step. Runs inside the upgrade transaction.
+     */
+    abstract void migrate(SQLiteDatabase db);
+
+    /**
+     * Whether this step has rows to fill in after the schema change.
+     */
+    boolean hasBackfill() {
+        return false;
+    }
+
+    /**
+     * Fill in at most chunkSize rows whose key is greater than lastId. Runs inside a transaction
+     * that also records the returned key, so a chunk is either fully applied or not at all.
+     *
+     * @param lastId    the last key processed by the previous chunk, 0 for the first chunk
+     * @param chunkSize the maximum number of rows to process
+     * @return the last key processed by this chunk, or {@link #BACKFILL_DONE} if there are no
+     * rows left
+     */
+    long backfill(SQLiteDatabase db, long lastId, int chunkSize) {
+        return BACKFILL_DONE;
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.android.storeapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.CancellationSignal;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+/**
+ * The query of a list of products: the whole list or a part of it (on sale, low stock, from a
+ * supplier), in one of the sort orders allowed for that list, one page at a time.
+ * <p>
+ * Every list and sort order has a covering index, created by {@link #createIndex(SQLiteDatabase, int)}:
+ * the index starts with the column the list is filtered on, then the sort column and the ID, then
+ * the other {@link ProductEntry#LIST_COLUMNS}. The rows of a page are read in order from the index
+ * alone, without sorting and without looking up the table. Only the sort orders that have such an
+ * index are allowed, so a list can't fall back to scanning and sorting the whole table.
+ * <p>
+ * On a database upgraded from before the lists, the indexes are built by the background step of
+ * the migration. Until an index is there, its lists are still right, only slower.
+ * <p>
+ * A page starts after the last row of the previous page (see
+ * {@link ProductEntry#buildPageUri(Uri, String, int, String, long)}), with a range on the sort
+ * column the index can seek to, so every page costs the same whatever its position.
+ */
+final class ProductListQuery {
+
+    /**
+     * The lists of products
+     */
+    static final int LIST_ALL = 0;
+    static final int LIST_ON_SALE = 1;
+    static final int LIST_LOW_STOCK = 2;
+    static final int LIST_BY_SUPPLIER = 3;
+
+    /**
+     * Number of rows in a page of the whole list when the URI doesn't have a limit
+     */
+    static final int PAGE_DEFAULT_LIMIT = 50;
+
+    /**
+     * Sort orders allowed for every list, the first one is used when the URI doesn't have one
+     */
+    private static final String[][] SORT_ORDERS = {
+            {ProductEntry.SORT_BY_ID, ProductEntry.SORT_BY_NAME, ProductEntry.SORT_BY_PRICE,
+                    ProductEntry.SORT_BY_QUANTITY},
+            {ProductEntry.SORT_BY_NAME},
+            {ProductEntry.SORT_BY_QUANTITY},
+            {ProductEntry.SORT_BY_NAME},
+    };
+
+    /**
+     * Covering indexes of the lists
+     */
+    static final String INDEX_NAME = "products_name_list";
+    static final String INDEX_PRICE = "products_price_list";
+    static final String INDEX_QUANTITY = "products_quantity_list";
+    static final String INDEX_ON_SALE_NAME = "products_on_sale_name_list";
+    static final String INDEX_SUPPLIER_NAME = "products_supplier_name_list";
+
+    /**
+     * Index serving every sort order of every list, null when the table itself is in that order
+     */
+    private static final String[][] INDEXES = {
+            {null, INDEX_NAME, INDEX_PRICE, INDEX_QUANTITY},
+            {INDEX_ON_SALE_NAME},
+            // The low stock list is a range of the quantity index of the whole list
+            {INDEX_QUANTITY},
+            {INDEX_SUPPLIER_NAME},
+    };
+
+    final String selection;
+    final String[] selectionArgs;
+    final String orderBy;
+    /**
+     * Maximum number of rows, or null for every row
+     */
+    final String limit;
+    /**
+     * Index the rows are read from, or null when they are read from the table
+     */
+    final String index;
+
+    private ProductListQuery(String selection, String[] selectionArgs, String orderBy, String limit, String index) {
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+        this.orderBy = orderBy;
+        this.limit = limit;
+        this.index = index;
+    }
+
+    /**
+     * Number of covering indexes, numbered from 0 for {@link #createIndex(SQLiteDatabase, int)}
+     */
+    static final int INDEX_COUNT = 5;
+
+    /**
+     * Create the covering index with the given number, unless it is already there. Building an
+     * index reads every product, so the indexes are built one at a time.
+     */
+    static void createIndex(SQLiteDatabase db, int number) {
+        switch (number) {
+            case 0:
+                createIndex(db, INDEX_NAME, ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry._ID,
+                        ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                break;
+            case 1:
+                createIndex(db, INDEX_PRICE, ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry._ID,
+                        ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                break;
+            case 2:
+                createIndex(db, INDEX_QUANTITY, ProductEntry.COLUMN_PRODUCT_QUANTITY, ProductEntry._ID,
+                        ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_PRICE);
+                break;
+            case 3:
+                createIndex(db, INDEX_ON_SALE_NAME, ProductEntry.COLUMN_SALE_OFFER, ProductEntry.COLUMN_PRODUCT_NAME,
+                        ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                break;
+            case 4:
+                createIndex(db, INDEX_SUPPLIER_NAME, ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+                        ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_PRICE,
+                        ProductEntry.COLUMN_PRODUCT_QUANTITY);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown index " + number);
+        }
+    }
+
+    private static void createIndex(SQLiteDatabase db, String name, String... columns) {
+        StringBuilder sql = new StringBuilder("CREATE INDEX IF NOT EXISTS ").append(name).append(" ON ")
+                .append(ProductEntry.TABLE_NAME).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]);
+        }
+        db.execSQL(sql.append(");").toString());
+    }
+
+    /**
+     * Returns the query of the given list for the given URI, with the sort and page query
+     * parameters of the URI and the caller's selection.
+     *
+     * @param defaultLimit the number of rows when the URI doesn't have a limit, 0 for every row
+     * @throws IllegalArgumentException if a query parameter isn't valid, or the sort order isn't
+     *                                  allowed for the list
+     */
+    static ProductListQuery fromUri(int list, Uri uri, String selection, String[] selectionArgs,
+                                    String sortOrder, int defaultLimit) {
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("A list has its own sort order " + uri);
+        }
+        String sort = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SORT);
+        int sortIndex = sort == null ? 0 : indexOf(SORT_ORDERS[list], sort);
+        if (sortIndex == -1) {
+            throw new IllegalArgumentException("Unknown sort order " + sort + " for " + uri);
+        }
+        String sortColumn = getSortColumn(SORT_ORDERS[list][sortIndex]);
+
+        // The part of the products in the list
+        switch (list) {
+            case LIST_ON_SALE:
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        ProductEntry.COLUMN_SALE_OFFER + " = " + ProductEntry.HAS_SALE);
+                break;
+            case LIST_LOW_STOCK:
+                selection = DatabaseUtils.concatenateWhere(selection, ProductEntry.COLUMN_PRODUCT_QUANTITY + " <= ?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{String.valueOf(parseThreshold(uri))});
+                break;
+            case LIST_BY_SUPPLIER:
+                selection = DatabaseUtils.concatenateWhere(selection, ProductEntry.COLUMN_PRODUCT_SUPPLIER + " = ?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{uri.getLastPathSegment()});
+                break;
+        }
+
+        // The rows after the last row of the previous page
+        String afterId = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER_ID);
+        if (afterId != null) {
+            try {
+                Long.parseLong(afterId);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Page requires a valid after ID " + uri);
+            }
+            String keyset;
+            String[] keysetArgs;
+            if (sortColumn.equals(ProductEntry._ID)) {
+                keyset = ProductEntry._ID + " > ?";
+                keysetArgs = new String[]{afterId};
+            } else {
+                // Rows after the previous one in (sort column, ID) order. The first range lets
+                // the index seek to the previous row instead of reading the rows before it.
+                String after = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_AFTER);
+                if (after == null) {
+                    throw new IllegalArgumentException("Page requires the sort value of the previous row " + uri);
+                }
+                keyset = sortColumn + " >= ? AND (" + sortColumn + " > ? OR " + ProductEntry._ID + " > ?)";
+                keysetArgs = new String[]{after, after, afterId};
+            }
+            selection = DatabaseUtils.concatenateWhere(selection, keyset);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, keysetArgs);
+        }
+
+        String orderBy = sortColumn.equals(ProductEntry._ID) ? ProductEntry._ID : sortColumn + ", " + ProductEntry._ID;
+        int limit = parseLimit(uri, defaultLimit);
+        return new ProductListQuery(selection, selectionArgs, orderBy, limit > 0 ? String.valueOf(limit) : null,
+                INDEXES[list][sortIndex]);
+    }
+
+    /**
+     * Run the query with the given columns.
+     */
+    Cursor query(SQLiteDatabase db, String[] projection, CancellationSignal cancellationSignal) {
+        return db.query(false, ProductEntry.TABLE_NAME, projection, selection, selectionArgs, null, null,
+                orderBy, limit, cancellationSignal);
+    }
+
+    /**
+     * Returns the SQL run by {@link #query}, to check its plan.
+     */
+    String toSql(String[] projection) {
+        return SQLiteQueryBuilder.buildQueryString(false, ProductEntry.TABLE_NAME, projection, selection, null,
+                null, orderBy, limit);
+    }
+
+    /**
+     * Returns the limit query parameter of the given URI, or the default limit if it isn't provided.
+     */
+    static int parseLimit(Uri uri, int defaultLimit) {
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            return defaultLimit;
+        }
+        try {
+            int result = Integer.parseInt(limit);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the exception below
+        }
+        throw new IllegalArgumentException("Query requires a valid limit " + uri);
+    }
+
+    /**
+     * Returns the threshold query parameter of a low stock URI, or the default threshold if it
+     * isn't provided.
+     */
+    private static int parseThreshold(Uri uri) {
+        String threshold = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_THRESHOLD);
+        if (threshold == null) {
+            return ProductEntry.DEFAULT_LOW_STOCK_THRESHOLD;
+        }
+        try {
+            int result = Integer.parseInt(threshold);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the exception below
+        }
+        throw new IllegalArgumentException("Low stock requires a valid threshold " + uri);
+    }
+
+    /**
+     * Returns the column of the given sort order.
+     */
+    private static String getSortColumn(String sort) {
+        switch (sort) {
+            case ProductEntry.SORT_BY_NAME:
+                return ProductEntry.COLUMN_PRODUCT_NAME;
+            case ProductEntry.SORT_BY_PRICE:
+                return ProductEntry.COLUMN_PRODUCT_PRICE;
+            case ProductEntry.SORT_BY_QUANTITY:
+                return ProductEntry.COLUMN_PRODUCT_QUANTITY;
+            default:
+                return ProductEntry._ID;
+        }
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,17 +1,43 @@
 package com.example.android.storeapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.storeapp.R;
+import com.example.android.storeapp.data.StoreContract.MetricsEntry;
 import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.data.StoreContract.SalesEntry;
+import com.example.android.storeapp.data.StoreContract.SalesSnapshotEntry;
+import com.example.android.storeapp.data.StoreContract.SlowQueryEntry;
+import com.example.android.storeapp.data.StoreContract.StatsEntry;
+import com.example.android.storeapp.domain.ProductValidator;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link ContentProvider} for the store app.
@@ -30,6 +56,40 @@ public class ProductProvider extends ContentProvider {
      * URI matcher code for the content URI for a single product in the products table
      */
     private static final int PRODUCT_ID = 101;
+    /**
+     * URI matcher code for the content URI to sell units of a single product
+     */
+    private static final int PRODUCT_SELL = 102;
+    /**
+     * URI matcher code for the content URI to search the products
+     */
+    private static final int PRODUCT_SEARCH = 103;
+    /**
+     * URI matcher code for the content URI of the inventory statistics
+     */
+    private static final int PRODUCT_STATS = 104;
+    /**
+     * URI matcher codes for the content URIs of the lists of a part of the products
+     */
+    private static final int PRODUCT_ON_SALE = 105;
+    private static final int PRODUCT_LOW_STOCK = 106;
+    private static final int PRODUCT_BY_SUPPLIER = 107;
+    /**
+     * URI matcher code for the content URI of the provider metrics
+     */
+    private static final int PRODUCT_METRICS = 108;
+    /**
+     * URI matcher code for the content URI for the sales ledger
+     */
+    private static final int SALES = 200;
+    /**
+     * URI matcher code for the content URI for the sales snapshots
+     */
+    private static final int SALES_SNAPSHOTS = 201;
+    /**
+     * URI matcher code for the content URI of the slow query log
+     */
+    private static final int DEBUG_SLOW_QUERIES = 300;
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -37,6 +97,19 @@ public class ProductProvider extends ContentProvider {
      */
     private static final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    /**
+     * URI matcher codes recorded in the metrics, and the names of their patterns. The last two
+     * names are for the URIs that don't match and for the methods run by call().
+     */
+    private static final int[] METRICS_MATCHES = {PRODUCTS, PRODUCT_ID, PRODUCT_SELL, PRODUCT_SEARCH,
+            PRODUCT_STATS, PRODUCT_ON_SALE, PRODUCT_LOW_STOCK, PRODUCT_BY_SUPPLIER, PRODUCT_METRICS, SALES,
+            SALES_SNAPSHOTS, DEBUG_SLOW_QUERIES};
+    private static final String[] METRICS_URI_NAMES = {"products", "products/#", "products/#/sell",
+            "products/search", "products/stats", "products/on_sale", "products/low_stock",
+            "products/by_supplier/*", "products/metrics", "sales", "sales/snapshots", "debug/slow_queries", "unknown",
+            "methods"};
+    private static final int METRICS_SLOT_METHODS = METRICS_URI_NAMES.length - 1;
+
     // Static initializer. This is run the first time anything is called from this class.
     static {
         // The calls to addURI() go here, for all of the content URI patterns that the provider
@@ -45,10 +118,59 @@ public class ProductProvider extends ContentProvider {
 
         uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_PRODUCTS, PRODUCTS);
         uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+        uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_PRODUCTS + "/#/" +
+                StoreContract.PATH_SELL, PRODUCT_SELL);
+        uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_PRODUCTS + "/" +
+                StoreContract.PATH_SEARCH, PRODUCT_SEARCH);
+        uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_PRODUCTS + "/" +
+                StoreContract.PATH_STATS, PRODUCT_STATS);
+        uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_PRODUCTS + "/" +
+                StoreContract.PATH_ON_SALE, PRODUCT_ON_SALE);
+        uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_PRODUCTS + "/" +
+                StoreContract.PATH_LOW_STOCK, PRODUCT_LOW_STOCK);
+        uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_PRODUCTS + "/" +
+                StoreContract.PATH_BY_SUPPLIER + "/*", PRODUCT_BY_SUPPLIER);
+        uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_PRODUCTS + "/" +
+                StoreContract.PATH_METRICS, PRODUCT_METRICS);
+        uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_SALES, SALES);
+        uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_SALES + "/" +
+                StoreContract.PATH_SNAPSHOTS, SALES_SNAPSHOTS);
+        uriMatcher.addURI(StoreContract.CONTENT_AUTHORITY, StoreContract.PATH_DEBUG + "/" +
+                StoreContract.PATH_SLOW_QUERIES, DEBUG_SLOW_QUERIES);
     }
 
     // Database helper object
     private StoreDbHelper storeDbHelper;
+    // Sends the changed products to the observers, a few at a time
+    private ChangeNotifier changeNotifier;
+    // Small results of the product and page queries, dropped on every write
+    private QueryCache queryCache;
+    // Runs the sales, grouping the ones made at the same time into one transaction
+    private GroupCommitWriter groupCommitWriter;
+    // Statements of a sale, only used on the group commit thread
+    private SalesLedger salesLedger;
+    // Statements of a sale made inside a batch, only used by the thread holding the write
+    // transaction, one at a time
+    private SalesLedger batchSalesLedger;
+    // Sales recorded since the ledger was last compacted, only used on the group commit thread
+    private int salesSinceCompaction;
+    // Compiled statements of the single product operations, see getStatements()
+    private volatile ProductStatements productStatements;
+    // Counters and latencies of the provider operations
+    private ProviderMetrics metrics;
+    // The last calls slower than the threshold, with their query plan
+    private SlowQueryLog slowQueryLog;
+    // Opens the database, loads the first page and runs the pending migrations, see onCreate()
+    private Thread startupThread;
+    // Gives the pages freed by deletes back to the file system, one vacuum at a time
+    private ThreadPoolExecutor vacuumExecutor;
+    // Rows, chunks and longest chunk of the last chunked delete, for the dump
+    private volatile String lastChunkedDelete;
+
+    /**
+     * Number of products deleted by each transaction of a delete with a selection
+     */
+    static final int DELETE_CHUNK_SIZE = 1000;
 
     /**
      * Initialize the provider and the database helper object.
@@ -57,32 +179,273 @@ public class ProductProvider extends ContentProvider {
     public boolean onCreate() {
         // To access the database, we instantiate a StoreDbHelper object
         // and pass the context
-        storeDbHelper = new StoreDbHelper(getContext());
+        storeDbHelper = newDbHelper(getContext());
+        metrics = newMetrics(METRICS_URI_NAMES);
+        changeNotifier = new ChangeNotifier(getContext().getContentResolver(), metrics);
+        slowQueryLog = newSlowQueryLog(storeDbHelper);
+        queryCache = newQueryCache();
+        groupCommitWriter = newGroupCommitWriter(storeDbHelper);
+        // A vacuum requested while one is waiting to run is dropped, the waiting one does it all
+        vacuumExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1), new ThreadPoolExecutor.DiscardPolicy());
+        // onCreate() runs on the main thread before the first activity, so nothing here touches
+        // the disk. The database is opened in the background while the activity inflates.
+        startupThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prewarm();
+                // Finish any migration step that still has rows to fill in, once the first
+                // page is there so the backfill doesn't hold the write lock in front of it
+                storeDbHelper.runPendingMigrations();
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                // Give back what was freed since the last run
+                vacuumInBackground();
+            }
+        }, "StoreStartup");
+        startupThread.start();
         return true;
     }
 
+    /**
+     * Wait until the startup thread has prewarmed the database and run the pending migrations
+     * (only called from tests, so they start from a quiet provider).
+     */
+    void awaitStartup() {
+        boolean interrupted = false;
+        while (startupThread.isAlive()) {
+            try {
+                startupThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Open the database, creating or upgrading it if needed, compile the statements of the single
+     * product operations and load the first page of the product list into the query cache, so the
+     * first query of the list doesn't wait for any of that. Runs on the startup thread.
+     * <p>
+     * The page is queried the way the list does, but not through {@link #query}, so the prewarm
+     * isn't counted in the metrics or the slow query log.
+     */
+    void prewarm() {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            getStatements();
+            Uri firstPageUri = ProductEntry.buildPageUri(ProductEntry.SORT_BY_ID,
+                    ProductListQuery.PAGE_DEFAULT_LIMIT, null, 0);
+            queryMatch(PRODUCTS, firstPageUri, ProductEntry.LIST_COLUMNS, null, null, null, null).close();
+        } catch (RuntimeException e) {
+            // The first query opens the database again and reports the error
+            Log.e(LOG_TAG, "Failed to prewarm the database", e);
+            return;
+        }
+        Log.i(LOG_TAG, "Database prewarmed in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    /**
+     * Returns the database helper used by this provider, with the concurrency settings
+     * from the app resources.
+     */
+    StoreDbHelper newDbHelper(Context context) {
+        return new StoreDbHelper(context);
+    }
+
+    /**
+     * Returns the cache of the query results used by this provider.
+     */
+    QueryCache newQueryCache() {
+        return new QueryCache(QueryCache.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Returns the metrics of this provider, for the given URI pattern names.
+     */
+    ProviderMetrics newMetrics(String[] uriNames) {
+        return new ProviderMetrics(true, uriNames);
+    }
+
+    /**
+     * Returns the slow query log of this provider, with the threshold from the app resources.
+     */
+    SlowQueryLog newSlowQueryLog(StoreDbHelper dbHelper) {
+        return new SlowQueryLog(dbHelper, getContext().getResources().getInteger(R.integer.store_slow_query_threshold_ms),
+                SlowQueryLog.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns the writer running the sales of this provider.
+     */
+    GroupCommitWriter newGroupCommitWriter(StoreDbHelper dbHelper) {
+        return new GroupCommitWriter(dbHelper, GroupCommitWriter.DEFAULT_WINDOW_MS,
+                GroupCommitWriter.DEFAULT_MAX_GROUP_SIZE);
+    }
+
+    /**
+     * Close the database helper when the provider is shut down (only called from tests).
+     */
+    @Override
+    public void shutdown() {
+        // Stop the background work between two steps and wait for it, before the helper is closed
+        startupThread.interrupt();
+        awaitStartup();
+        vacuumExecutor.shutdownNow();
+        boolean interrupted = false;
+        while (!vacuumExecutor.isTerminated()) {
+            try {
+                vacuumExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        groupCommitWriter.shutdown();
+        slowQueryLog.shutdown();
+        if (salesLedger != null) {
+            salesLedger.close();
+        }
+        if (batchSalesLedger != null) {
+            batchSalesLedger.close();
+        }
+        synchronized (this) {
+            if (productStatements != null) {
+                productStatements.close();
+                productStatements = null;
+            }
+        }
+        storeDbHelper.close();
+    }
+
+    /**
+     * Returns the compiled statements of the single product operations, compiled the first time
+     * they are needed and again if the database was reopened.
+     * <p>
+     * The statements are compiled without holding the provider lock: compiling waits for a
+     * database connection, and a thread holding the connection in a transaction (a batch, the
+     * group commit writer) may be about to take the provider lock, so holding both would deadlock.
+     * Only the publication of the compiled statements is locked. Two threads may compile at the
+     * same time, in which case the statements of the second one are closed.
+     */
+    private ProductStatements getStatements() {
+        SQLiteDatabase database = storeDbHelper.getWritableDatabase();
+        ProductStatements statements = productStatements;
+        if (statements != null && statements.isFor(database)) {
+            return statements;
+        }
+
+        ProductStatements compiled = new ProductStatements(database);
+        ProductStatements unused;
+        synchronized (this) {
+            statements = productStatements;
+            if (statements != null && statements.isFor(database)) {
+                // Another thread published statements for this database first
+                unused = compiled;
+            } else {
+                // The statements of a database that was closed, if any
+                unused = statements;
+                productStatements = compiled;
+                statements = compiled;
+            }
+        }
+        if (unused != null) {
+            unused.close();
+        }
+        return statements;
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Perform the query for the given URI, and stop it early if the cancellation signal is triggered
+     * (for instance when a loader is restarted before its previous query returned).
+     */
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder,
+                        @Nullable CancellationSignal cancellationSignal) {
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = uriMatcher.match(uri);
+
+        long start = System.nanoTime();
+        long rowCount = -1;
+        try {
+            Cursor cursor = queryMatch(match, uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+            // The rows are added once the caller closes the cursor, see countRowsOnClose()
+            rowCount = 0;
+            return metrics.countRowsOnClose(cursor, getMetricsSlot(match));
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.record(ProviderMetrics.QUERY, getMetricsSlot(match), elapsed, rowCount);
+            if (slowQueryLog.isSlow(elapsed)) {
+                logSlowQuery(match, uri, projection, selection, selectionArgs, sortOrder, elapsed);
+            }
+        }
+    }
+
+    private Cursor queryMatch(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                              String sortOrder, CancellationSignal cancellationSignal) {
+        // The same on a cached result and on a fresh one, so a cached list still hears its changes
+        Uri notificationUri = getNotificationUri(match, uri);
+
+        // Products and pages are served from the cache when they haven't changed since the
+        // same query last ran. Search results also change while the index is backfilled, so
+        // they are never cached.
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (isCacheable(match, uri)) {
+            cacheKey = QueryCache.key(uri, projection, selection, selectionArgs, sortOrder);
+            Cursor cached = queryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(), notificationUri);
+                return cached;
+            }
+            // Read before the query, so a write that races with it makes the result stale
+            cacheGeneration = queryCache.getGeneration();
+        }
+
         // Get readable database
         SQLiteDatabase database = storeDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = uriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+                if (uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SORT) != null) {
+                    // The URI asks for a single page of products, see ProductEntry.buildPageUri()
+                    cursor = ProductListQuery.fromUri(ProductListQuery.LIST_ALL, uri, selection, selectionArgs,
+                            sortOrder, ProductListQuery.PAGE_DEFAULT_LIMIT).query(database, projection,
+                            cancellationSignal);
+                    break;
+                }
                 // For the PRODUCTS code, query the products table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the products table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                cursor = database.query(false, ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
                 break;
             case PRODUCT_ID:
+                if (ProductStatements.canQuery(projection, sortOrder)) {
+                    // The whole row, the way the editor reads it, on the compiled query
+                    cursor = getStatements().query(ContentUris.parseId(uri), cancellationSignal);
+                    break;
+                }
                 // For the PRODUCT_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.storeapp/products/3",
                 // the selection will be "_id=?" and the selection argument will be a
@@ -96,71 +459,276 @@ public class ProductProvider extends ContentProvider {
 
                 // This will perform a query on the products table where the _id equals the row number from the uri
                 // to return a Cursor containing that row of the table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = database.query(false, ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
+                break;
+            case PRODUCT_ON_SALE:
+            case PRODUCT_LOW_STOCK:
+            case PRODUCT_BY_SUPPLIER:
+                // A part of the products, every row of it unless the URI asks for a single page
+                cursor = ProductListQuery.fromUri(getList(match), uri, selection, selectionArgs, sortOrder, 0)
+                        .query(database, projection, cancellationSignal);
+                break;
+            case PRODUCT_SEARCH:
+                // For the PRODUCT_SEARCH code, the text to search and the maximum number of results are
+                // query parameters. Selection and sort order are ignored, results are ranked by the index.
+                cursor = searchProducts(database, uri, projection, cancellationSignal);
+                break;
+            case PRODUCT_STATS:
+                // For the PRODUCT_STATS code, read the summary row kept up to date by the triggers.
+                // Selection and sort order are ignored, there is only one row.
+                cursor = ProductStats.query(database, projection);
+                break;
+            case PRODUCT_METRICS:
+                // For the PRODUCT_METRICS code, a snapshot of the counters. Selection and sort
+                // order are ignored.
+                cursor = metrics.toCursor();
+                break;
+            case DEBUG_SLOW_QUERIES:
+                // For the DEBUG_SLOW_QUERIES code, a snapshot of the log. Selection and sort
+                // order are ignored.
+                cursor = slowQueryLog.toCursor();
+                break;
+            case SALES:
+                cursor = database.query(false, SalesEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
+                break;
+            case SALES_SNAPSHOTS:
+                cursor = database.query(false, SalesSnapshotEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, null, cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
+        if (cacheKey != null) {
+            queryCache.put(cacheKey, cacheGeneration, cursor);
+        }
+
         // Set notification uri on the cursor.
         // So we know what content uri the cursor was created for.
         // If the data at this uri changes, then we need to update the cursor
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return cursor;
     }
 
     /**
-     * Insert new data into the provider with the given ContentValues.
+     * Returns whether or not the result of a query can be cached, decided from the URI alone so
+     * other queries never have their rows counted: a single product, or a page of a list that
+     * has at most {@link QueryCache#MAX_CACHED_ROWS} rows.
+     *
+     * @throws IllegalArgumentException if the limit of the URI isn't valid
      */
-    @Nullable
-    @Override
-    public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
-        final int match = uriMatcher.match(uri);
+    private static boolean isCacheable(int match, Uri uri) {
         switch (match) {
+            case PRODUCT_ID:
+                return true;
             case PRODUCTS:
-                return insertProduct(uri, contentValues);
+                // Without a sort order, every row the selection picks
+                return uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SORT) != null
+                        && ProductListQuery.parseLimit(uri, ProductListQuery.PAGE_DEFAULT_LIMIT)
+                        <= QueryCache.MAX_CACHED_ROWS;
+            case PRODUCT_ON_SALE:
+            case PRODUCT_LOW_STOCK:
+            case PRODUCT_BY_SUPPLIER:
+                // Without a limit, the whole list
+                int limit = ProductListQuery.parseLimit(uri, 0);
+                return limit > 0 && limit <= QueryCache.MAX_CACHED_ROWS;
             default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+                return false;
         }
     }
 
     /**
-     * Insert a product into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Returns the URI the cursor of a query is notified on, the URI of the query unless the
+     * result changes with more than its own rows.
      */
-    private Uri insertProduct(Uri uri, ContentValues values) {
+    private static Uri getNotificationUri(int match, Uri uri) {
+        switch (match) {
+            case PRODUCT_ON_SALE:
+            case PRODUCT_LOW_STOCK:
+            case PRODUCT_BY_SUPPLIER:
+                // A part of the products changes with any product, not only with its URI
+            case PRODUCT_SEARCH:
+                // The results of a search change with any product, not only with the search URI
+            case PRODUCT_STATS:
+                // The statistics change with any product
+                return ProductEntry.CONTENT_URI;
+            case SALES_SNAPSHOTS:
+                // Snapshots change when the ledger is compacted
+                return SalesEntry.CONTENT_URI;
+            default:
+                return uri;
+        }
+    }
 
-        // Check that the name is not null
-        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Product requires a name");
+    /**
+     * Log a slow query with the SQL the provider ran for it, rebuilt from the call.
+     */
+    private void logSlowQuery(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                              String sortOrder, long elapsed) {
+        String sql = null;
+        try {
+            switch (match) {
+                case PRODUCTS:
+                    if (uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_SORT) == null) {
+                        sql = SQLiteQueryBuilder.buildQueryString(false, ProductEntry.TABLE_NAME, projection,
+                                selection, null, null, sortOrder, null);
+                        break;
+                    }
+                    // Otherwise a page of the whole list, like the lists below
+                case PRODUCT_ON_SALE:
+                case PRODUCT_LOW_STOCK:
+                case PRODUCT_BY_SUPPLIER:
+                    ProductListQuery query = ProductListQuery.fromUri(getList(match), uri, selection, selectionArgs,
+                            sortOrder, match == PRODUCTS ? ProductListQuery.PAGE_DEFAULT_LIMIT : 0);
+                    sql = query.toSql(projection);
+                    selectionArgs = query.selectionArgs;
+                    break;
+                case PRODUCT_ID:
+                    sql = SQLiteQueryBuilder.buildQueryString(false, ProductEntry.TABLE_NAME, projection,
+                            ProductEntry._ID + "=?", null, null, sortOrder, null);
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    break;
+                case SALES:
+                    sql = SQLiteQueryBuilder.buildQueryString(false, SalesEntry.TABLE_NAME, projection, selection,
+                            null, null, sortOrder, null);
+                    break;
+                case SALES_SNAPSHOTS:
+                    sql = SQLiteQueryBuilder.buildQueryString(false, SalesSnapshotEntry.TABLE_NAME, projection,
+                            selection, null, null, sortOrder, null);
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            // The query failed on its URI, there is no SQL to explain
         }
+        slowQueryLog.add(ProviderMetrics.getOperationName(ProviderMetrics.QUERY), uri, sql, selectionArgs, elapsed);
+    }
 
-        // If the price is provided, check that it's greater than or equal to 0 kg
-        Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
-        if (price != null && price < 0) {
-            throw new IllegalArgumentException("product requires valid price");
+    /**
+     * Log a slow update or delete with the SQL the provider ran for it. Sales and the compiled
+     * statements of a single product run the same plan as the SQL built here.
+     */
+    private void logSlowWrite(int operation, int match, Uri uri, ContentValues values, String selection,
+                              String[] selectionArgs, long elapsed) {
+        String sql = null;
+        if (match == PRODUCTS || match == PRODUCT_ID) {
+            if (match == PRODUCT_ID) {
+                selection = ProductEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+            }
+            StringBuilder builder = new StringBuilder();
+            if (operation == ProviderMetrics.DELETE) {
+                builder.append("DELETE FROM ").append(ProductEntry.TABLE_NAME);
+            } else if (values != null && values.size() > 0) {
+                builder.append("UPDATE ").append(ProductEntry.TABLE_NAME).append(" SET ");
+                int i = 0;
+                for (String column : values.keySet()) {
+                    builder.append(i++ > 0 ? ", " : "").append(column).append(" = ?");
+                }
+            }
+            if (builder.length() > 0) {
+                if (!TextUtils.isEmpty(selection)) {
+                    builder.append(" WHERE ").append(selection);
+                }
+                sql = builder.toString();
+            }
         }
+        slowQueryLog.add(ProviderMetrics.getOperationName(operation), uri, sql, selectionArgs, elapsed);
+    }
 
-        // Check the sale is not null and equals one of those values {@link #NO_SALE},
-        // or {@link #HAS_SALE}.
-        Integer sale = values.getAsInteger(ProductEntry.COLUMN_SALE_OFFER);
-        if (sale == null || !ProductEntry.isValidSale(sale)) {
-            throw new IllegalArgumentException("Product requires valid sale offer");
+    /**
+     * Returns the slot of the given URI matcher code in the metrics.
+     */
+    private static int getMetricsSlot(int match) {
+        for (int i = 0; i < METRICS_MATCHES.length; i++) {
+            if (METRICS_MATCHES[i] == match) {
+                return i;
+            }
         }
+        return METRICS_MATCHES.length;
+    }
 
-        // If the quantity is provided, check that it's greater than or equal to 0 kg
-        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-        if (quantity != null && quantity < 0) {
-            throw new IllegalArgumentException("product requires valid quantity");
+    /**
+     * Returns the list of products of the given URI matcher code.
+     */
+    private static int getList(int match) {
+        switch (match) {
+            case PRODUCT_ON_SALE:
+                return ProductListQuery.LIST_ON_SALE;
+            case PRODUCT_LOW_STOCK:
+                return ProductListQuery.LIST_LOW_STOCK;
+            case PRODUCT_BY_SUPPLIER:
+                return ProductListQuery.LIST_BY_SUPPLIER;
+            default:
+                return ProductListQuery.LIST_ALL;
         }
+    }
 
-        // Get writable database
-        SQLiteDatabase database = storeDbHelper.getWritableDatabase();
+    /**
+     * Search the products for the text in the given search URI.
+     */
+    private Cursor searchProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                  CancellationSignal cancellationSignal) {
+        String text = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_QUERY);
+        int limit = ProductListQuery.parseLimit(uri, ProductSearchIndex.DEFAULT_LIMIT);
+
+        Cursor cursor = null;
+        if (text != null) {
+            cursor = ProductSearchIndex.search(database, projection, text, limit, cancellationSignal);
+        }
+        if (cursor == null) {
+            // Nothing to search for, so nothing matches
+            cursor = new MatrixCursor(projection != null ? projection : ProductEntry.ALL_COLUMNS);
+        }
+        return cursor;
+    }
+
+    /**
+     * Insert new data into the provider with the given ContentValues.
+     */
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
+        final int match = uriMatcher.match(uri);
+        long start = System.nanoTime();
+        long rowCount = -1;
+        try {
+            switch (match) {
+                case PRODUCTS:
+                    Uri productUri = insertProduct(uri, contentValues);
+                    rowCount = productUri == null ? 0 : 1;
+                    return productUri;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.record(ProviderMetrics.INSERT, getMetricsSlot(match), elapsed, rowCount);
+            if (slowQueryLog.isSlow(elapsed)) {
+                // Inserts have no plan, a slow one waited for the database or for the commit
+                slowQueryLog.add(ProviderMetrics.getOperationName(ProviderMetrics.INSERT), uri, null, null, elapsed);
+            }
+        }
+    }
+
+    /**
+     * Insert a product into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertProduct(Uri uri, ContentValues values) {
 
-        // Insert the new product with the given values
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
+        // Check the values against the product rules
+        ProductValues.validate(values, true);
+
+        // Insert the new product with the given values, on the compiled insert when they are
+        // the columns of a product
+        long id;
+        if (ProductStatements.canInsert(values)) {
+            id = getStatements().insert(values);
+        } else {
+            id = storeDbHelper.getWritableDatabase().insert(ProductEntry.TABLE_NAME, null, values);
+        }
 
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
@@ -168,72 +736,278 @@ public class ProductProvider extends ContentProvider {
             return null;
         }
 
-        // Notify all the listeners that the data has changed for the product content uri
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify all the listeners that this product was added
+        queryCache.invalidate();
+        changeNotifier.rowInserted(id);
         // Once we know the ID of the new row in the table,
         // return the new URI with the ID appended to the end of it
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Insert a set of products into the database in a single transaction. Every row is validated
+     * before it is written, and if any row is invalid nothing is inserted. Listeners are notified
+     * once, after the whole set has been committed, instead of once per row.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final int match = uriMatcher.match(uri);
+        long start = System.nanoTime();
+        long rowCount = -1;
+        try {
+            switch (match) {
+                case PRODUCTS:
+                    int rowsInserted = bulkInsertProducts(uri, values);
+                    rowCount = rowsInserted;
+                    return rowsInserted;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.record(ProviderMetrics.BULK_INSERT, getMetricsSlot(match), elapsed, rowCount);
+            if (slowQueryLog.isSlow(elapsed)) {
+                // Inserts have no plan, a slow one waited for the database or for the commit
+                slowQueryLog.add(ProviderMetrics.getOperationName(ProviderMetrics.BULK_INSERT), uri, null, null, elapsed);
+            }
+        }
+    }
+
+    private int bulkInsertProducts(Uri uri, ContentValues[] values) {
+
+        // Get writable database
+        SQLiteDatabase database = storeDbHelper.getWritableDatabase();
+
+        // Insert every row of the columns of a product on the same compiled statement
+        ProductStatements statements = getStatements();
+        int rowsInserted = 0;
+        // IDs of the new rows, notified once the batch is committed
+        long[] ids = new long[values.length];
+
+        database.beginTransaction();
+        try {
+            for (ContentValues row : values) {
+                long id;
+                if (ProductStatements.canInsert(row)) {
+                    // The columns are checked while they are bound, from the raw values so no boxed
+                    // copies are made for every row
+                    id = statements.insert(row);
+                } else {
+                    // Another column, such as the ID, goes through the plain insert like in insert(),
+                    // which writes it or fails on an unknown one rather than dropping it
+                    ProductValues.validate(row, true);
+                    id = database.insert(ProductEntry.TABLE_NAME, null, row);
+                }
+                if (id == -1) {
+                    // Stop here and roll back, a partial catalog load is worse than none
+                    Log.e(LOG_TAG, "Failed to insert row " + rowsInserted + " for " + uri);
+                    return 0;
+                }
+                ids[rowsInserted++] = id;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // Notify all the listeners once that the data has changed, a large batch is a reload anyway
+        if (rowsInserted != 0) {
+            queryCache.invalidate();
+        }
+        if (rowsInserted > ChangeNotifier.MAX_ROW_CHANGES) {
+            changeNotifier.tableChanged();
+        } else {
+            for (int i = 0; i < rowsInserted; i++) {
+                changeNotifier.rowInserted(ids[i]);
+            }
+        }
+        return rowsInserted;
+    }
+
     /**
      * Updates the data at the given selection and selection arguments, with the new ContentValues.
      */
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues contentValues, @Nullable String selection, @Nullable String[] selectionArgs) {
         final int match = uriMatcher.match(uri);
+        long start = System.nanoTime();
+        long rowCount = -1;
+        try {
+            int result = updateMatch(match, uri, contentValues, selection, selectionArgs);
+            // A sale returns the remaining stock, it writes one row
+            rowCount = match == PRODUCT_SELL ? (result == ProductEntry.SELL_REJECTED ? 0 : 1) : result;
+            return result;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.record(ProviderMetrics.UPDATE, getMetricsSlot(match), elapsed, rowCount);
+            if (slowQueryLog.isSlow(elapsed)) {
+                logSlowWrite(ProviderMetrics.UPDATE, match, uri, contentValues, selection, selectionArgs, elapsed);
+            }
+        }
+    }
+
+    private int updateMatch(int match, Uri uri, ContentValues contentValues, String selection,
+                            String[] selectionArgs) {
         switch (match) {
             case PRODUCTS:
                 return updateProduct(uri, contentValues, selection, selectionArgs);
             case PRODUCT_ID:
+                if (contentValues != null && (ProductStatements.isQuantity(contentValues)
+                        || ProductStatements.isRow(contentValues))) {
+                    return updateProductById(ContentUris.parseId(uri), contentValues);
+                }
                 // For the PRODUCT_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
                 return updateProduct(uri, contentValues, selection, selectionArgs);
+            case PRODUCT_SELL:
+                // For the PRODUCT_SELL code the product ID is the second path segment, and the number
+                // of units to sell is the SELL_COUNT value or an optional query parameter.
+                return sellProduct(Long.parseLong(uri.getPathSegments().get(1)),
+                        parseSellCount(uri, contentValues));
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
     }
 
-    private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    /**
+     * Returns the number of units to sell from the values of the update, else from the given sell
+     * URI, one if neither provides it.
+     */
+    private static int parseSellCount(Uri uri, ContentValues values) {
+        String count = values != null ? values.getAsString(ProductEntry.SELL_COUNT) : null;
+        if (count == null) {
+            count = uri.getQueryParameter(ProductEntry.QUERY_PARAMETER_COUNT);
+        }
+        if (count == null) {
+            return 1;
+        }
+        try {
+            int result = Integer.parseInt(count);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the exception below
+        }
+        throw new IllegalArgumentException("Sale requires a valid count " + uri);
+    }
 
-        // If the {@link PetEntry#COLUMN_PRODUCT_NAME} key is present,
-        // Check that the name is not null
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
-            String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Product requires a name");
+    /**
+     * Returns the sale statements of the group commit thread, compiled again when the helper has
+     * reopened the database since. Only called on the group commit thread.
+     */
+    private SalesLedger getSalesLedger(SQLiteDatabase db) {
+        if (salesLedger == null || !salesLedger.isFor(db)) {
+            if (salesLedger != null) {
+                salesLedger.close();
             }
+            salesLedger = new SalesLedger(db);
         }
+        return salesLedger;
+    }
 
-        // If the {@link PetEntry#COLUMN_PRODUCT_PRICE} key is present,
-        // And If the price is provided, check that it's greater than or equal to 0 kg
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
-            Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
-            if (price != null && price < 0) {
-                throw new IllegalArgumentException("product requires valid price");
+    /**
+     * Sell the given number of units of a product with a single conditional update, record the sale
+     * in the ledger, and return the remaining stock. Return {@link ProductEntry#SELL_REJECTED} if the
+     * product doesn't exist or doesn't have enough units in stock, in which case nothing is changed.
+     * <p>
+     * Sales made at the same time from several threads are committed together by the group commit
+     * writer, and this only returns once the sale is committed.
+     */
+    private int sellProduct(final long id, final int count) {
+        SQLiteDatabase database = storeDbHelper.getWritableDatabase();
+        if (database.inTransaction()) {
+            // Part of a batch: the group commit thread would wait for the transaction of this
+            // thread to end, so the sale runs here and is committed with the batch
+            if (batchSalesLedger == null || !batchSalesLedger.isFor(database)) {
+                if (batchSalesLedger != null) {
+                    batchSalesLedger.close();
+                }
+                batchSalesLedger = new SalesLedger(database);
+            }
+            long remaining = batchSalesLedger.sell(id, count, System.currentTimeMillis());
+            if (remaining != ProductEntry.SELL_REJECTED) {
+                changeNotifier.rowUpdated(id);
+                changeNotifier.uriChanged(SalesEntry.CONTENT_URI);
             }
+            return (int) remaining;
         }
 
-        // If the {@link PetEntry#COLUMN_SALE_OFFER} key is present,
-        // Check the sale is not null and equals one of those values {@link #NO_SALE},
-        // or {@link #HAS_SALE}.
-        if (values.containsKey(ProductEntry.COLUMN_SALE_OFFER)) {
-            Integer sale = values.getAsInteger(ProductEntry.COLUMN_SALE_OFFER);
-            if (sale == null || !ProductEntry.isValidSale(sale)) {
-                throw new IllegalArgumentException("Product requires valid sale offer");
+        long remaining = groupCommitWriter.execute(new GroupCommitWriter.Operation<Long>() {
+            @Override
+            Long apply(SQLiteDatabase db) {
+                // Decrement, record and read back in the same transaction, so the returned stock
+                // is the one left by this sale and not by a later one
+                return getSalesLedger(db).sell(id, count, System.currentTimeMillis());
+            }
+
+            @Override
+            void onCommitted(Long remaining) {
+                if (remaining == ProductEntry.SELL_REJECTED) {
+                    return;
+                }
+                // Notify all the listeners that this product has changed, and only this one
+                queryCache.invalidate();
+                changeNotifier.rowUpdated(id);
+                changeNotifier.uriChanged(SalesEntry.CONTENT_URI);
+
+                if (++salesSinceCompaction >= SalesLedger.COMPACT_EVERY_SALES) {
+                    salesSinceCompaction = 0;
+                    groupCommitWriter.submit(compactSales);
+                }
             }
+        });
+        return (int) remaining;
+    }
+
+    /**
+     * Folds the old sales of the ledger into the snapshots, on the group commit thread.
+     */
+    private final GroupCommitWriter.Operation<Integer> compactSales = new GroupCommitWriter.Operation<Integer>() {
+        @Override
+        Integer apply(SQLiteDatabase db) {
+            return SalesLedger.compact(db);
         }
 
-        // If the {@link PetEntry#COLUMN_PRODUCT_QUANTITY} key is present,
-        // And If the quantity is provided, check that it's greater than or equal to 0 kg
-        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_QUANTITY)) {
-            Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
-            if (quantity != null && quantity < 0) {
-                throw new IllegalArgumentException("product requires valid quantity");
+        @Override
+        void onCommitted(Integer compacted) {
+            if (compacted > 0) {
+                changeNotifier.uriChanged(SalesEntry.CONTENT_URI);
             }
         }
+    };
+
+    /**
+     * Update the quantity or every column of a single product on the compiled statements.
+     */
+    private int updateProductById(long id, ContentValues values) {
+
+        // Check the values against the product rules
+        ProductValues.validate(values, false);
+
+        int rowsUpdated;
+        if (ProductStatements.isQuantity(values)) {
+            rowsUpdated = getStatements().updateQuantity(id,
+                    ProductValidator.parseQuantity(values.get(ProductEntry.COLUMN_PRODUCT_QUANTITY)));
+        } else {
+            rowsUpdated = getStatements().updateRow(id, values);
+        }
+
+        if (rowsUpdated != 0) {
+            // Notify all the listeners that this product has changed
+            queryCache.invalidate();
+            changeNotifier.rowUpdated(id);
+        }
+        return rowsUpdated;
+    }
+
+    private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+
+        // Check the values present against the product rules
+        ProductValues.validate(values, false);
 
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
@@ -249,8 +1023,14 @@ public class ProductProvider extends ContentProvider {
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            // Notify all the listeners that the data has changed for the product content uri
-            getContext().getContentResolver().notifyChange(uri, null);
+            queryCache.invalidate();
+            if (uriMatcher.match(uri) == PRODUCT_ID) {
+                // Notify all the listeners that this product has changed
+                changeNotifier.rowUpdated(ContentUris.parseId(uri));
+            } else {
+                // The updated products aren't known, notify that any product may have changed
+                changeNotifier.tableChanged();
+            }
         }
 
         // Return the number of rows updated
@@ -262,24 +1042,35 @@ public class ProductProvider extends ContentProvider {
      */
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        final int match = uriMatcher.match(uri);
+        long start = System.nanoTime();
+        long rowCount = -1;
+        try {
+            int rowsDeleted = deleteMatch(match, uri, selection, selectionArgs);
+            rowCount = rowsDeleted;
+            return rowsDeleted;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.record(ProviderMetrics.DELETE, getMetricsSlot(match), elapsed, rowCount);
+            if (slowQueryLog.isSlow(elapsed)) {
+                logSlowWrite(ProviderMetrics.DELETE, match, uri, null, selection, selectionArgs, elapsed);
+            }
+        }
+    }
 
-        // Get writable database
-        SQLiteDatabase database = storeDbHelper.getWritableDatabase();
+    private int deleteMatch(int match, Uri uri, String selection, String[] selectionArgs) {
 
         // Track the number of rows that were deleted
         int rowsDeleted;
 
-        final int match = uriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = deleteProducts(selection, selectionArgs);
                 break;
             case PRODUCT_ID:
-                // Delete a single row given by the ID in the URI
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                // Delete a single row given by the ID in the URI, on the compiled delete
+                rowsDeleted = getStatements().delete(ContentUris.parseId(uri));
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
@@ -288,14 +1079,292 @@ public class ProductProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            // Notify all the listeners that the data has changed for the product content uri
-            getContext().getContentResolver().notifyChange(uri, null);
+            queryCache.invalidate();
+            if (match == PRODUCT_ID) {
+                // Notify all the listeners that this product is gone
+                changeNotifier.rowDeleted(ContentUris.parseId(uri));
+            } else {
+                // The deleted products aren't known, notify that any product may have changed
+                changeNotifier.tableChanged();
+            }
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Delete the products matching the given selection, {@link #DELETE_CHUNK_SIZE} at a time with
+     * a transaction per chunk, so the write lock is never held for long and other queries and writes
+     * get in between two chunks. Such a delete isn't atomic, a query between two chunks sees part of
+     * the products deleted. Inside a batch, where the caller asked for a single transaction, the
+     * products are deleted at once.
+     * <p>
+     * The pages freed by the delete are given back to the file system in the background.
+     */
+    private int deleteProducts(String selection, String[] selectionArgs) {
+        SQLiteDatabase database = storeDbHelper.getWritableDatabase();
+        if (database.inTransaction()) {
+            return database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+        }
+
+        String chunkSelection = ProductEntry._ID + " IN (SELECT " + ProductEntry._ID + " FROM " +
+                ProductEntry.TABLE_NAME + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection) +
+                " LIMIT " + DELETE_CHUNK_SIZE + ")";
+        int rowsDeleted = 0;
+        int chunks = 0;
+        long longestChunkNanos = 0;
+        while (true) {
+            long start = System.nanoTime();
+            int chunk = database.delete(ProductEntry.TABLE_NAME, chunkSelection, selectionArgs);
+            longestChunkNanos = Math.max(longestChunkNanos, System.nanoTime() - start);
+            if (chunk == 0) {
+                break;
+            }
+            rowsDeleted += chunk;
+            chunks++;
+            // A query between two chunks must not keep the rows of the chunk before in the cache
+            queryCache.invalidate();
+            if (chunk < DELETE_CHUNK_SIZE) {
+                break;
+            }
+        }
+
+        if (rowsDeleted > 0) {
+            lastChunkedDelete = "rows=" + rowsDeleted + " chunks=" + chunks + " longest_chunk_ms="
+                    + longestChunkNanos / 1000000;
+            Log.i(LOG_TAG, "Deleted products, " + lastChunkedDelete);
+            vacuumInBackground();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Give the free pages of the database back to the file system on the vacuum thread. A
+     * database created before incremental auto-vacuum is switched to it once most of it is free,
+     * see {@link StoreVacuum}.
+     */
+    private void vacuumInBackground() {
+        vacuumExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteDatabase database = storeDbHelper.getWritableDatabase();
+                    StoreVacuum.reclaim(database);
+                } catch (RuntimeException e) {
+                    // The free pages are still there for the next vacuum
+                    Log.e(LOG_TAG, "Vacuum failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a provider method that isn't a query or a write, see {@link StoreContract#METHOD_QUERY_CACHE_STATS}
+     * {@link StoreContract#METHOD_VERIFY_STATS}, {@link StoreContract#METHOD_COMPACT_SALES},
+     * {@link StoreContract#METHOD_BACKUP}, {@link StoreContract#METHOD_RESTORE_BACKUP},
+     * {@link StoreContract#METHOD_SET_SLOW_QUERY_THRESHOLD} and {@link StoreContract#METHOD_CHECKOUT}.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        long start = System.nanoTime();
+        long rowCount = -1;
+        try {
+            Bundle result = callMethod(method, arg, extras);
+            rowCount = 0;
+            return result;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.record(ProviderMetrics.CALL, METRICS_SLOT_METHODS, elapsed, rowCount);
+            if (slowQueryLog.isSlow(elapsed)) {
+                slowQueryLog.add(ProviderMetrics.getOperationName(ProviderMetrics.CALL) + " " + method, null, null,
+                        null, elapsed);
+            }
+        }
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        switch (method) {
+            case StoreContract.METHOD_QUERY_CACHE_STATS:
+                Bundle stats = new Bundle();
+                stats.putLong(StoreContract.KEY_CACHE_HITS, queryCache.getHitCount());
+                stats.putLong(StoreContract.KEY_CACHE_MISSES, queryCache.getMissCount());
+                stats.putInt(StoreContract.KEY_CACHE_BYTES, queryCache.getSizeBytes());
+                return stats;
+            case StoreContract.METHOD_VERIFY_STATS:
+                Bundle result = new Bundle();
+                result.putBoolean(StoreContract.KEY_STATS_CONSISTENT,
+                        ProductStats.verify(storeDbHelper.getWritableDatabase()));
+                return result;
+            case StoreContract.METHOD_COMPACT_SALES:
+                Bundle compacted = new Bundle();
+                compacted.putInt(StoreContract.KEY_COMPACTED_SALES, groupCommitWriter.execute(compactSales));
+                return compacted;
+            case StoreContract.METHOD_BACKUP:
+                return backup();
+            case StoreContract.METHOD_RESTORE_BACKUP:
+                return restoreBackup();
+            case StoreContract.METHOD_SET_SLOW_QUERY_THRESHOLD:
+                try {
+                    slowQueryLog.setThresholdMillis(Long.parseLong(arg));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Threshold requires a number of milliseconds " + arg);
+                }
+                return null;
+            case StoreContract.METHOD_CHECKOUT:
+                return checkout(extras);
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    /**
+     * Sell every line of the basket in the given extras in one transaction, or none of them, see
+     * {@link StoreContract#METHOD_CHECKOUT}. Like a single sale, the checkout runs in the next group
+     * of the group commit writer and only returns once it is committed.
+     */
+    private Bundle checkout(Bundle extras) {
+        final long[] productIds = extras == null ? null : extras.getLongArray(StoreContract.KEY_CHECKOUT_PRODUCT_IDS);
+        final int[] counts = extras == null ? null : extras.getIntArray(StoreContract.KEY_CHECKOUT_COUNTS);
+        if (productIds == null || counts == null || productIds.length != counts.length || productIds.length == 0
+                || productIds.length > StoreContract.MAX_CHECKOUT_LINES) {
+            throw new IllegalArgumentException("Checkout requires between 1 and "
+                    + StoreContract.MAX_CHECKOUT_LINES + " lines of a product ID and a count");
+        }
+        for (int count : counts) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("Checkout requires a valid count on every line");
+            }
+        }
+
+        final long[] remaining = new long[productIds.length];
+        int rejectedLine = groupCommitWriter.execute(new GroupCommitWriter.Operation<Integer>() {
+            @Override
+            Integer apply(SQLiteDatabase db) {
+                return getSalesLedger(db).checkout(productIds, counts, System.currentTimeMillis(), remaining);
+            }
+
+            @Override
+            void onCommitted(Integer rejectedLine) {
+                if (rejectedLine != -1) {
+                    return;
+                }
+                // Every product of the basket goes out in the same notification flush
+                queryCache.invalidate();
+                changeNotifier.rowsUpdated(productIds);
+                changeNotifier.uriChanged(SalesEntry.CONTENT_URI);
+
+                salesSinceCompaction += productIds.length;
+                if (salesSinceCompaction >= SalesLedger.COMPACT_EVERY_SALES) {
+                    salesSinceCompaction = 0;
+                    groupCommitWriter.submit(compactSales);
+                }
+            }
+        });
+
+        Bundle result = new Bundle();
+        result.putInt(StoreContract.KEY_CHECKOUT_REJECTED_LINE, rejectedLine);
+        if (rejectedLine == -1) {
+            result.putLongArray(StoreContract.KEY_CHECKOUT_REMAINING, remaining);
+        }
+        return result;
+    }
+
+    /**
+     * Copy the live database to the backup file, through a connection of its own.
+     */
+    private Bundle backup() {
+        // Make sure the database exists and is up to date before copying it
+        storeDbHelper.getWritableDatabase();
+        StoreBackup.Result backup;
+        try {
+            backup = StoreBackup.backup(getContext().getDatabasePath(storeDbHelper.getDatabaseName()),
+                    getContext().getDatabasePath(StoreBackup.BACKUP_FILE_NAME));
+        } catch (IOException e) {
+            throw new IllegalStateException("Backup failed", e);
+        }
+        Bundle result = new Bundle();
+        result.putLong(StoreContract.KEY_BACKUP_ROWS, backup.rows);
+        return result;
+    }
+
+    /**
+     * Replace every row of the database with the rows of the backup file.
+     */
+    private Bundle restoreBackup() {
+        File backupFile = getContext().getDatabasePath(StoreBackup.BACKUP_FILE_NAME);
+        if (!backupFile.exists()) {
+            throw new IllegalStateException("There is no backup to restore");
+        }
+        long rows = StoreBackup.restore(storeDbHelper.getWritableDatabase(), backupFile);
+
+        // Every product may have changed, and the sales with them
+        queryCache.invalidate();
+        changeNotifier.tableChanged();
+        changeNotifier.uriChanged(SalesEntry.CONTENT_URI);
+
+        Bundle result = new Bundle();
+        result.putLong(StoreContract.KEY_BACKUP_ROWS, rows);
+        return result;
+    }
+
+    /**
+     * Print the provider metrics and the query cache counters, for
+     * {@code adb shell dumpsys activity provider com.example.android.storeapp}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        metrics.dump(writer);
+        writer.println("Query cache: hits=" + queryCache.getHitCount() + " misses=" + queryCache.getMissCount()
+                + " bytes=" + queryCache.getSizeBytes());
+        SQLiteDatabase database = storeDbHelper.getReadableDatabase();
+        writer.println("Store: bytes=" + StoreVacuum.getSizeBytes(database) + " free_pages="
+                + StoreVacuum.getFreePages(database));
+        writer.println("Last chunked delete: " + lastChunkedDelete);
+    }
+
+    /**
+     * Apply the given operations in one transaction: either all of them are committed, or none
+     * if one fails. Used by {@link StoreWriter} to commit the writes queued together at once, and
+     * by sync or admin tools sending long lists of writes.
+     * <p>
+     * An operation can use the results of the operations before it through back-references, such
+     * as the ID of a product inserted earlier in the same batch. A long batch should allow a yield
+     * every few hundred operations with {@link ContentProviderOperation.Builder#withYieldAllowed}:
+     * if another thread waits for the database there, the operations so far are committed and a
+     * new transaction is started, so the batch is only all or nothing between two yield points.
+     * <p>
+     * The change notifications are held until the end of the batch, so every changed product or
+     * URI is notified once, however many operations changed it.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = storeDbHelper.getWritableDatabase();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        changeNotifier.beginBatch();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < results.length; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && database.yieldIfContendedSafely()) {
+                    // A query while the transaction was open may have cached the rows from before it
+                    queryCache.invalidate();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+            return results;
+        } finally {
+            database.endTransaction();
+            // A query between a write and the commit may have cached the rows before the batch
+            queryCache.invalidate();
+            changeNotifier.endBatch();
+        }
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -305,9 +1374,24 @@ public class ProductProvider extends ContentProvider {
         final int match = uriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+            case PRODUCT_SEARCH:
+            case PRODUCT_ON_SALE:
+            case PRODUCT_LOW_STOCK:
+            case PRODUCT_BY_SUPPLIER:
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
+            case PRODUCT_SELL:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_STATS:
+                return StatsEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_METRICS:
+                return MetricsEntry.CONTENT_LIST_TYPE;
+            case DEBUG_SLOW_QUERIES:
+                return SlowQueryEntry.CONTENT_LIST_TYPE;
+            case SALES:
+                return SalesEntry.CONTENT_LIST_TYPE;
+            case SALES_SNAPSHOTS:
+                return SalesSnapshotEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
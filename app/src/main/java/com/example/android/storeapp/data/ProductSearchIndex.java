@@ -0,0 +1,129 @@
+package com.example.android.storeapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import java.util.Locale;
+
+/**
+ * Full-text index over the product and supplier names, stored in an FTS4 table whose docid is
+ * the product _id. Triggers on the products table keep it in sync with every insert, update
+ * and delete.
+ */
+final class ProductSearchIndex {
+
+    /**
+     * Name of the full-text table
+     */
+    static final String TABLE_NAME = "products_fts";
+
+    /**
+     * Maximum number of results returned when the search URI doesn't have a limit
+     */
+    static final int DEFAULT_LIMIT = 50;
+
+    private ProductSearchIndex() {
+    }
+
+    /**
+     * Create the full-text table and the triggers keeping it in sync with the products table.
+     * Existing products are indexed by {@link #backfill(SQLiteDatabase, long, int)}.
+     */
+    static void create(SQLiteDatabase db) {
+        // Prefix indexes for 2 and 3 characters keep the first keystrokes of a search fast
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_NAME + " USING fts4(" + ProductEntry.COLUMN_PRODUCT_NAME +
+                ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER + ", prefix=\"2,3\");");
+
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                " BEGIN INSERT INTO " + TABLE_NAME + " (docid, " + ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER + ") VALUES (new." + ProductEntry._ID + ", new." +
+                ProductEntry.COLUMN_PRODUCT_NAME + ", new." + ProductEntry.COLUMN_PRODUCT_SUPPLIER + "); END;");
+
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_update AFTER UPDATE OF " + ProductEntry.COLUMN_PRODUCT_NAME +
+                ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER + " ON " + ProductEntry.TABLE_NAME + " BEGIN UPDATE " +
+                TABLE_NAME + " SET " + ProductEntry.COLUMN_PRODUCT_NAME + " = new." + ProductEntry.COLUMN_PRODUCT_NAME +
+                ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER + " = new." + ProductEntry.COLUMN_PRODUCT_SUPPLIER +
+                " WHERE docid = old." + ProductEntry._ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                " BEGIN DELETE FROM " + TABLE_NAME + " WHERE docid = old." + ProductEntry._ID + "; END;");
+    }
+
+    /**
+     * Index the next chunk of existing products. Rows already indexed by the triggers are skipped.
+     */
+    static long backfill(SQLiteDatabase db, long lastId, int chunkSize) {
+        String[] args = {String.valueOf(lastId), String.valueOf(chunkSize)};
+        Cursor cursor = db.rawQuery("SELECT MAX(" + ProductEntry._ID + ") FROM (SELECT " + ProductEntry._ID +
+                " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " > ? ORDER BY " +
+                ProductEntry._ID + " LIMIT ?)", args);
+        long chunkEnd;
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return Migration.BACKFILL_DONE;
+            }
+            chunkEnd = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        db.execSQL("INSERT INTO " + TABLE_NAME + " (docid, " + ProductEntry.COLUMN_PRODUCT_NAME + ", " +
+                        ProductEntry.COLUMN_PRODUCT_SUPPLIER + ") SELECT " + ProductEntry._ID + ", " +
+                        ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER + " FROM " +
+                        ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " > ? AND " + ProductEntry._ID +
+                        " <= ? AND NOT EXISTS (SELECT 1 FROM " + TABLE_NAME + " WHERE docid = " +
+                        ProductEntry.TABLE_NAME + "." + ProductEntry._ID + ")",
+                new Object[]{lastId, chunkEnd});
+        return chunkEnd;
+    }
+
+    /**
+     * Search the products whose name or supplier has words starting with every word of the
+     * given text. Products matching on their name come first, then the ones matching only on
+     * their supplier, each group ordered by name.
+     *
+     * @return the matching products, or null if the text doesn't contain any word
+     */
+    static Cursor search(SQLiteDatabase db, String[] projection, String text, int limit,
+                         CancellationSignal cancellationSignal) {
+        // Not the default locale: in Turkish "I" would become a dotless i, which the simple
+        // tokenizer never puts in the index
+        String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        StringBuilder anyColumn = new StringBuilder();
+        StringBuilder nameColumn = new StringBuilder();
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            // Only letters and digits are kept, so the user can't inject FTS query syntax
+            anyColumn.append(word).append("* ");
+            nameColumn.append(ProductEntry.COLUMN_PRODUCT_NAME).append(':').append(word).append("* ");
+        }
+        if (anyColumn.length() == 0) {
+            return null;
+        }
+
+        StringBuilder columns = new StringBuilder();
+        if (projection == null) {
+            columns.append("p.*");
+        } else {
+            for (int i = 0; i < projection.length; i++) {
+                if (i > 0) {
+                    columns.append(", ");
+                }
+                columns.append("p.").append(projection[i]);
+            }
+        }
+
+        String sql = "SELECT " + columns + " FROM " + ProductEntry.TABLE_NAME + " p JOIN (SELECT docid, MIN(rank) AS rank" +
+                " FROM (SELECT docid, 0 AS rank FROM " + TABLE_NAME + " WHERE " + TABLE_NAME + " MATCH ?" +
+                " UNION ALL SELECT docid, 1 AS rank FROM " + TABLE_NAME + " WHERE " + TABLE_NAME + " MATCH ?)" +
+                " GROUP BY docid) r ON p." + ProductEntry._ID + " = r.docid ORDER BY r.rank, p." +
+                ProductEntry.COLUMN_PRODUCT_NAME + " LIMIT " + limit;
+        return db.rawQuery(sql, new String[]{nameColumn.toString().trim(), anyColumn.toString().trim()},
+                cancellationSignal);
+    }
+}
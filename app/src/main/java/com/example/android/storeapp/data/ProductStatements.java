@@ -0,0 +1,208 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.domain.ProductValidator;
+
+import java.util.Arrays;
+
+/**
+ * The compiled statements of the most frequent single product operations of the provider: read,
+ * insert, update of the quantity, update of the whole row and delete, by ID.
+ * <p>
+ * The statements are compiled once per database and the values are bound to them, instead of
+ * building the SQL, a selection arguments array and a {@link ContentValues} copy for every call.
+ * A statement holds its bound values until it runs, so every statement is locked while it is
+ * bound and run and an instance can be used from any thread. Writes run one at a time on the
+ * database anyway, so the lock doesn't make them wait any longer.
+ * <p>
+ * A read returns a cursor, which a statement can't, so it runs a fixed SQL text instead, that
+ * every database connection compiles once and keeps in its statement cache.
+ */
+final class ProductStatements {
+
+    /**
+     * Columns of a product row besides the ID, in the order they are bound
+     */
+    private static final String[] ROW_COLUMNS = Arrays.copyOfRange(ProductEntry.ALL_COLUMNS, 1,
+            ProductEntry.ALL_COLUMNS.length);
+
+    private static final String SQL_QUERY_BY_ID = "SELECT " + joinColumns(ProductEntry.ALL_COLUMNS, "") +
+            " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+    private static final String SQL_INSERT = "INSERT INTO " + ProductEntry.TABLE_NAME + " (" +
+            joinColumns(ROW_COLUMNS, "") + ") VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String SQL_UPDATE_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+            ProductEntry.COLUMN_PRODUCT_QUANTITY + " = ? WHERE " + ProductEntry._ID + " = ?";
+    private static final String SQL_UPDATE_ROW = "UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+            joinColumns(ROW_COLUMNS, " = ?") + " WHERE " + ProductEntry._ID + " = ?";
+    private static final String SQL_DELETE = "DELETE FROM " + ProductEntry.TABLE_NAME + " WHERE " +
+            ProductEntry._ID + " = ?";
+
+    private final SQLiteDatabase db;
+    private final SQLiteStatement insert;
+    private final SQLiteStatement updateQuantity;
+    private final SQLiteStatement updateRow;
+    private final SQLiteStatement delete;
+
+    ProductStatements(SQLiteDatabase db) {
+        this.db = db;
+        insert = db.compileStatement(SQL_INSERT);
+        updateQuantity = db.compileStatement(SQL_UPDATE_QUANTITY);
+        updateRow = db.compileStatement(SQL_UPDATE_ROW);
+        delete = db.compileStatement(SQL_DELETE);
+    }
+
+    /**
+     * Returns whether or not the statements were compiled for the given database.
+     */
+    boolean isFor(SQLiteDatabase database) {
+        return db == database;
+    }
+
+    /**
+     * Returns whether or not a query with the given arguments can run on {@link #query}, which
+     * reads every column.
+     */
+    static boolean canQuery(String[] projection, String sortOrder) {
+        return sortOrder == null && (projection == null || Arrays.equals(projection, ProductEntry.ALL_COLUMNS));
+    }
+
+    /**
+     * Returns whether or not the given values, which passed the product rules of an insert, can be
+     * inserted with {@link #insert}: the columns of a product and nothing else.
+     */
+    static boolean canInsert(ContentValues values) {
+        return countRowColumns(values) == values.size();
+    }
+
+    /**
+     * Returns whether or not the given values are every column of a product, as saved by the editor.
+     */
+    static boolean isRow(ContentValues values) {
+        return values.size() == ROW_COLUMNS.length && countRowColumns(values) == ROW_COLUMNS.length;
+    }
+
+    /**
+     * Returns whether or not the given values only change the quantity.
+     */
+    static boolean isQuantity(ContentValues values) {
+        return values.size() == 1 && values.get(ProductEntry.COLUMN_PRODUCT_QUANTITY) != null;
+    }
+
+    /**
+     * Read every column of the given product.
+     */
+    Cursor query(long id, CancellationSignal cancellationSignal) {
+        return db.rawQuery(SQL_QUERY_BY_ID, new String[]{Long.toString(id)}, cancellationSignal);
+    }
+
+    /**
+     * Insert a product with values that passed the product rules and {@link #canInsert}, and
+     * return its ID.
+     */
+    long insert(ContentValues values) {
+        synchronized (insert) {
+            try {
+                bindRow(insert, values);
+                return insert.executeInsert();
+            } finally {
+                insert.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Set the quantity of the given product, and return the number of rows changed.
+     */
+    int updateQuantity(long id, long quantity) {
+        synchronized (updateQuantity) {
+            updateQuantity.bindLong(1, quantity);
+            updateQuantity.bindLong(2, id);
+            return updateQuantity.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Replace every column of the given product with values that passed the product rules and
+     * {@link #isRow}, and return the number of rows changed.
+     */
+    int updateRow(long id, ContentValues values) {
+        synchronized (updateRow) {
+            try {
+                bindRow(updateRow, values);
+                updateRow.bindLong(ROW_COLUMNS.length + 1, id);
+                return updateRow.executeUpdateDelete();
+            } finally {
+                updateRow.clearBindings();
+            }
+        }
+    }
+
+    /**
+     * Delete the given product, and return the number of rows deleted.
+     */
+    int delete(long id) {
+        synchronized (delete) {
+            delete.bindLong(1, id);
+            return delete.executeUpdateDelete();
+        }
+    }
+
+    void close() {
+        insert.close();
+        updateQuantity.close();
+        updateRow.close();
+        delete.close();
+    }
+
+    /**
+     * Bind the product columns of the given values, numbers from their raw values so no boxed copy
+     * is made. The values are checked while they are bound, with the rules of
+     * {@link ProductValues#validate}, so a bulk insert refuses the same rows as a single insert.
+     */
+    private static void bindRow(SQLiteStatement statement, ContentValues values) {
+        statement.bindString(1, ProductValidator.parseName(values.get(ProductEntry.COLUMN_PRODUCT_NAME)));
+        statement.bindLong(2, ProductValidator.parsePrice(values.get(ProductEntry.COLUMN_PRODUCT_PRICE)));
+        statement.bindLong(3, ProductValidator.parseSale(values.get(ProductEntry.COLUMN_SALE_OFFER)));
+        statement.bindLong(4, ProductValidator.parseQuantity(values.get(ProductEntry.COLUMN_PRODUCT_QUANTITY)));
+        bindStringOrNull(statement, 5, values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER));
+        bindStringOrNull(statement, 6, values.getAsString(ProductEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+    }
+
+    /**
+     * Binds the given string to the statement, or null if there is no value.
+     */
+    static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static int countRowColumns(ContentValues values) {
+        int count = 0;
+        for (String column : ROW_COLUMNS) {
+            if (values.containsKey(column)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String joinColumns(String[] columns, String suffix) {
+        StringBuilder sql = new StringBuilder();
+        for (String column : columns) {
+            if (sql.length() > 0) {
+                sql.append(", ");
+            }
+            sql.append(column).append(suffix);
+        }
+        return sql.toString();
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.android.storeapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.data.StoreContract.StatsEntry;
+
+import java.util.Arrays;
+
+/**
+ * Summary row of the inventory, kept up to date by triggers on the products table so the
+ * statistics are read in constant time instead of scanning every product.
+ * <p>
+ * The row is first computed by {@link #seed(SQLiteDatabase)}, from the background step of the
+ * migration. Until then the triggers have no row to update and {@link #query} computes the
+ * statistics from the products.
+ */
+final class ProductStats {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ProductStats.class.getSimpleName();
+
+    /**
+     * Name of the summary table, it only ever has the row with {@link #ROW_ID}
+     */
+    static final String TABLE_NAME = "product_stats";
+    static final long ROW_ID = 1;
+
+    /**
+     * Computes every statistic from the products table, in the order of the summary table columns
+     * after the ID.
+     */
+    private static final String SQL_RECOMPUTE = "SELECT COUNT(*) AS " + StatsEntry.COLUMN_PRODUCT_COUNT +
+            ", IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0) AS " + StatsEntry.COLUMN_TOTAL_UNITS +
+            ", IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_PRICE + " * " + ProductEntry.COLUMN_PRODUCT_QUANTITY +
+            "), 0) AS " + StatsEntry.COLUMN_TOTAL_VALUE + ", IFNULL(SUM(" + ProductEntry.COLUMN_SALE_OFFER + " = " +
+            ProductEntry.HAS_SALE + "), 0) AS " + StatsEntry.COLUMN_ON_SALE_COUNT + ", IFNULL(SUM(" +
+            ProductEntry.COLUMN_PRODUCT_QUANTITY + " = 0), 0) AS " + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT +
+            " FROM " + ProductEntry.TABLE_NAME;
+
+    private ProductStats() {
+    }
+
+    /**
+     * Create the empty summary table and the triggers keeping it up to date. The row is computed
+     * later by {@link #seed(SQLiteDatabase)}, as it scans every product.
+     */
+    static void create(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + StatsEntry._ID + " INTEGER PRIMARY KEY, " +
+                StatsEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL, " + StatsEntry.COLUMN_TOTAL_UNITS +
+                " INTEGER NOT NULL, " + StatsEntry.COLUMN_TOTAL_VALUE + " INTEGER NOT NULL, " +
+                StatsEntry.COLUMN_ON_SALE_COUNT + " INTEGER NOT NULL, " + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT +
+                " INTEGER NOT NULL);");
+
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME +
+                " BEGIN UPDATE " + TABLE_NAME + " SET " + StatsEntry.COLUMN_PRODUCT_COUNT + " = " +
+                StatsEntry.COLUMN_PRODUCT_COUNT + " + 1, " + delta("new", "+") + " WHERE " + StatsEntry._ID + " = " +
+                ROW_ID + "; END;");
+
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME +
+                " BEGIN UPDATE " + TABLE_NAME + " SET " + StatsEntry.COLUMN_PRODUCT_COUNT + " = " +
+                StatsEntry.COLUMN_PRODUCT_COUNT + " - 1, " + delta("old", "-") + " WHERE " + StatsEntry._ID + " = " +
+                ROW_ID + "; END;");
+
+        // An update takes the old values out and puts the new ones in, in a single statement
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_update AFTER UPDATE OF " + ProductEntry.COLUMN_PRODUCT_PRICE +
+                ", " + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_SALE_OFFER + " ON " +
+                ProductEntry.TABLE_NAME + " BEGIN UPDATE " + TABLE_NAME + " SET " +
+                StatsEntry.COLUMN_TOTAL_UNITS + " = " + StatsEntry.COLUMN_TOTAL_UNITS + " - old." +
+                ProductEntry.COLUMN_PRODUCT_QUANTITY + " + new." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                StatsEntry.COLUMN_TOTAL_VALUE + " = " + StatsEntry.COLUMN_TOTAL_VALUE + " - old." +
+                ProductEntry.COLUMN_PRODUCT_PRICE + " * old." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + new." +
+                ProductEntry.COLUMN_PRODUCT_PRICE + " * new." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                StatsEntry.COLUMN_ON_SALE_COUNT + " = " + StatsEntry.COLUMN_ON_SALE_COUNT + " - (old." +
+                ProductEntry.COLUMN_SALE_OFFER + " = " + ProductEntry.HAS_SALE + ") + (new." +
+                ProductEntry.COLUMN_SALE_OFFER + " = " + ProductEntry.HAS_SALE + "), " +
+                StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " = " + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " - (old." +
+                ProductEntry.COLUMN_PRODUCT_QUANTITY + " = 0) + (new." + ProductEntry.COLUMN_PRODUCT_QUANTITY +
+                " = 0) WHERE " + StatsEntry._ID + " = " + ROW_ID + "; END;");
+    }
+
+    /**
+     * Returns the assignments adding or removing the values of the given trigger row.
+     */
+    private static String delta(String row, String sign) {
+        return StatsEntry.COLUMN_TOTAL_UNITS + " = " + StatsEntry.COLUMN_TOTAL_UNITS + " " + sign + " " + row + "." +
+                ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                StatsEntry.COLUMN_TOTAL_VALUE + " = " + StatsEntry.COLUMN_TOTAL_VALUE + " " + sign + " " + row + "." +
+                ProductEntry.COLUMN_PRODUCT_PRICE + " * " + row + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " +
+                StatsEntry.COLUMN_ON_SALE_COUNT + " = " + StatsEntry.COLUMN_ON_SALE_COUNT + " " + sign + " (" + row +
+                "." + ProductEntry.COLUMN_SALE_OFFER + " = " + ProductEntry.HAS_SALE + "), " +
+                StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " = " + StatsEntry.COLUMN_OUT_OF_STOCK_COUNT + " " + sign +
+                " (" + row + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = 0)";
+    }
+
+    /**
+     * Compute the summary row from the products with a single aggregate scan, replacing the row if
+     * there is one. Run in a transaction, so no write is counted twice or missed: the writes
+     * committed before are in the scan, the ones after go through the triggers.
+     */
+    static void seed(SQLiteDatabase db) {
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE_NAME + " SELECT " + ROW_ID + ", * FROM (" + SQL_RECOMPUTE + ")");
+    }
+
+    /**
+     * Returns the summary row with the given columns. Before the row is seeded, the statistics are
+     * computed from the products instead.
+     */
+    static Cursor query(SQLiteDatabase db, String[] projection) {
+        Cursor cursor = db.query(TABLE_NAME, projection, StatsEntry._ID + " = " + ROW_ID, null, null, null, null);
+        if (cursor.getCount() > 0) {
+            return cursor;
+        }
+        cursor.close();
+        return db.query("(SELECT " + ROW_ID + " AS " + StatsEntry._ID + ", * FROM (" + SQL_RECOMPUTE + "))",
+                projection, null, null, null, null, null);
+    }
+
+    /**
+     * Compare the summary row with a full recompute from the products, in a single transaction so
+     * no write can come in between. If they differ, the summary row is replaced by the recompute.
+     * A row not seeded yet is seeded, and isn't reported as out of sync.
+     *
+     * @return whether the summary row matched the recompute
+     */
+    static boolean verify(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            long[] expected = readLongs(db.rawQuery(SQL_RECOMPUTE, null));
+            // The table itself, query() would fall back to the recompute and compare it with itself
+            long[] actual = readLongs(db.query(TABLE_NAME, new String[]{StatsEntry.COLUMN_PRODUCT_COUNT,
+                    StatsEntry.COLUMN_TOTAL_UNITS, StatsEntry.COLUMN_TOTAL_VALUE, StatsEntry.COLUMN_ON_SALE_COUNT,
+                    StatsEntry.COLUMN_OUT_OF_STOCK_COUNT}, StatsEntry._ID + " = " + ROW_ID, null, null, null, null));
+            if (actual == null) {
+                seed(db);
+                db.setTransactionSuccessful();
+                return true;
+            }
+            boolean consistent = Arrays.equals(expected, actual);
+            if (!consistent) {
+                Log.e(LOG_TAG, "Inventory statistics out of sync, expected " + Arrays.toString(expected) +
+                        " but found " + Arrays.toString(actual));
+                seed(db);
+            }
+            db.setTransactionSuccessful();
+            return consistent;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns every column of the first row of the given cursor as a long, and closes it.
+     */
+    private static long[] readLongs(Cursor cursor) {
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            long[] values = new long[cursor.getColumnCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = cursor.getLong(i);
+            }
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+}
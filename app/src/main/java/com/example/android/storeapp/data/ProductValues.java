@@ -0,0 +1,98 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.domain.Product;
+import com.example.android.storeapp.domain.ProductCodec;
+import com.example.android.storeapp.domain.ProductValidator;
+
+/**
+ * Binds the {@link Product} rules and mapping of the domain module to the products table: checks
+ * {@link ContentValues} with the {@link ProductValidator} rules, and turns a {@link Product} into
+ * {@link ContentValues} and a {@link Cursor} row into a {@link Product} with the {@link ProductCodec}.
+ */
+public final class ProductValues {
+
+    /**
+     * Column names of the products table, numbered like the {@link ProductCodec} columns
+     */
+    private static final String[] COLUMNS = ProductEntry.ALL_COLUMNS;
+
+    static {
+        if (COLUMNS.length != ProductCodec.COLUMN_COUNT) {
+            throw new AssertionError("Products table and codec columns differ");
+        }
+    }
+
+    private ProductValues() {
+    }
+
+    /**
+     * Check the values of a product against the product rules. A new product must have a name, a
+     * price, a sale offer and a quantity, as the table has no default for the price and the
+     * quantity. On an update only the columns present are checked, and a price or quantity set to
+     * null is left to the table to refuse.
+     * <p>
+     * The same rule holds for a single insert and a bulk insert. The raw values are checked as they
+     * are, so no boxed copy is made.
+     */
+    static void validate(ContentValues values, boolean insert) {
+        if (insert || values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
+            ProductValidator.parseName(values.get(ProductEntry.COLUMN_PRODUCT_NAME));
+        }
+        Object price = values.get(ProductEntry.COLUMN_PRODUCT_PRICE);
+        if (insert || price != null) {
+            ProductValidator.parsePrice(price);
+        }
+        if (insert || values.containsKey(ProductEntry.COLUMN_SALE_OFFER)) {
+            ProductValidator.parseSale(values.get(ProductEntry.COLUMN_SALE_OFFER));
+        }
+        Object quantity = values.get(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        if (insert || quantity != null) {
+            ProductValidator.parseQuantity(quantity);
+        }
+    }
+
+    /**
+     * Returns the values to insert or update the given product with. The ID is left out.
+     */
+    public static ContentValues toContentValues(Product product) {
+        final ContentValues values = new ContentValues(COLUMNS.length);
+        ProductCodec.write(product, new ProductCodec.Sink() {
+            @Override
+            public void putLong(int column, long value) {
+                values.put(COLUMNS[column], value);
+            }
+
+            @Override
+            public void putString(int column, String value) {
+                values.put(COLUMNS[column], value);
+            }
+        }, false);
+        return values;
+    }
+
+    /**
+     * Returns the product in the current row of the given cursor. Columns left out of the
+     * projection are read as null or 0.
+     */
+    public static Product fromCursor(final Cursor cursor) {
+        final int[] indexes = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            indexes[i] = cursor.getColumnIndex(COLUMNS[i]);
+        }
+        return ProductCodec.read(new ProductCodec.Source() {
+            @Override
+            public long getLong(int column) {
+                return indexes[column] != -1 ? cursor.getLong(indexes[column]) : 0;
+            }
+
+            @Override
+            public String getString(int column) {
+                return indexes[column] != -1 ? cursor.getString(indexes[column]) : null;
+            }
+        });
+    }
+}
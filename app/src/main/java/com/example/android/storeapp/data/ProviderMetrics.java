@@ -0,0 +1,314 @@
+package com.example.android.storeapp.data;
+
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.MatrixCursor;
+
+import com.example.android.storeapp.data.StoreContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the provider operations, one set per URI pattern and
+ * operation, plus the number of change notifications sent. Read through
+ * {@link MetricsEntry#CONTENT_URI} or printed by {@link ProductProvider#dump}.
+ * <p>
+ * Calls come from any binder thread, so every counter is an atomic array slot and recording a
+ * call never takes a lock. A histogram has fixed buckets, {@link #BUCKET_BOUNDS_MICROS}, so it
+ * takes the same memory however many calls it holds, and its percentiles are the upper bound of
+ * the bucket they fall in.
+ */
+final class ProviderMetrics {
+
+    /**
+     * Operations of the provider
+     */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int CALL = 5;
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulk_insert", "update", "delete", "call"};
+
+    /**
+     * Upper bounds of the latency buckets, in microseconds. A last bucket holds the slower calls.
+     */
+    static final long[] BUCKET_BOUNDS_MICROS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000,
+            250000, 500000, 1000000};
+    private static final int BUCKET_COUNT = BUCKET_BOUNDS_MICROS.length + 1;
+
+    private final boolean enabled;
+    /**
+     * Names of the URI patterns, the slot passed to {@link #record} is an index in them
+     */
+    private final String[] uriNames;
+
+    private final AtomicLongArray counts;
+    private final AtomicLongArray errors;
+    private final AtomicLongArray rows;
+    private final AtomicLongArray totalNanos;
+    private final AtomicLongArray maxNanos;
+    private final AtomicLongArray histograms;
+
+    private final AtomicLong rowNotifications = new AtomicLong();
+    private final AtomicLong tableNotifications = new AtomicLong();
+    private final AtomicLong otherNotifications = new AtomicLong();
+
+    /**
+     * @param enabled  whether the calls are recorded, when false nothing is timed or counted
+     * @param uriNames names of the URI patterns of the provider
+     */
+    ProviderMetrics(boolean enabled, String[] uriNames) {
+        this.enabled = enabled;
+        this.uriNames = uriNames;
+        int size = enabled ? uriNames.length * OPERATION_NAMES.length : 0;
+        counts = new AtomicLongArray(size);
+        errors = new AtomicLongArray(size);
+        rows = new AtomicLongArray(size);
+        totalNanos = new AtomicLongArray(size);
+        maxNanos = new AtomicLongArray(size);
+        histograms = new AtomicLongArray(size * BUCKET_COUNT);
+    }
+
+    /**
+     * Returns whether or not the calls are recorded.
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the name of the given operation, as shown in {@link MetricsEntry#COLUMN_OPERATION}.
+     */
+    static String getOperationName(int operation) {
+        return OPERATION_NAMES[operation];
+    }
+
+    /**
+     * Record a call that took the given time.
+     *
+     * @param operation one of the operations, such as {@link #QUERY}
+     * @param uriSlot   index of the URI pattern in the names given to the constructor
+     * @param elapsed   duration of the call, in nanoseconds
+     * @param rowCount  rows returned or written by the call, -1 if it threw an exception
+     */
+    void record(int operation, int uriSlot, long elapsed, long rowCount) {
+        if (!enabled) {
+            return;
+        }
+        int index = uriSlot * OPERATION_NAMES.length + operation;
+        counts.incrementAndGet(index);
+        if (rowCount < 0) {
+            errors.incrementAndGet(index);
+        } else {
+            rows.addAndGet(index, rowCount);
+        }
+        totalNanos.addAndGet(index, elapsed);
+        long max = maxNanos.get(index);
+        while (elapsed > max && !maxNanos.compareAndSet(index, max, elapsed)) {
+            max = maxNanos.get(index);
+        }
+        histograms.incrementAndGet(index * BUCKET_COUNT + getBucket(elapsed / 1000));
+    }
+
+    /**
+     * Add rows to a call recorded before its rows were known.
+     */
+    void addRows(int operation, int uriSlot, long rowCount) {
+        if (!enabled) {
+            return;
+        }
+        rows.addAndGet(uriSlot * OPERATION_NAMES.length + operation, rowCount);
+    }
+
+    /**
+     * Returns the given query cursor, wrapped so its rows are added to the query metrics of the
+     * given URI pattern once it is closed. Counting them when the query returns would read every
+     * row there, into the time of the query, even the rows the caller never reads.
+     */
+    Cursor countRowsOnClose(Cursor cursor, int uriSlot) {
+        if (!enabled || cursor == null) {
+            return cursor;
+        }
+        return new RowCountingCursor(cursor, uriSlot);
+    }
+
+    /**
+     * Adds the rows of a query cursor to the metrics when it is closed, if the caller read it. A
+     * cursor the caller read has its rows counted already, so getCount() is free by then.
+     */
+    private class RowCountingCursor extends CrossProcessCursorWrapper {
+
+        private final int uriSlot;
+        private boolean read;
+        private boolean counted;
+
+        RowCountingCursor(Cursor cursor, int uriSlot) {
+            super(cursor);
+            this.uriSlot = uriSlot;
+        }
+
+        @Override
+        public int getCount() {
+            read = true;
+            return super.getCount();
+        }
+
+        @Override
+        public boolean move(int offset) {
+            read = true;
+            return super.move(offset);
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            read = true;
+            return super.moveToPosition(position);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            read = true;
+            return super.moveToFirst();
+        }
+
+        @Override
+        public boolean moveToLast() {
+            read = true;
+            return super.moveToLast();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            read = true;
+            return super.moveToNext();
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            read = true;
+            return super.moveToPrevious();
+        }
+
+        @Override
+        public void fillWindow(int position, CursorWindow window) {
+            read = true;
+            super.fillWindow(position, window);
+        }
+
+        @Override
+        public void close() {
+            if (read && !counted && !isClosed()) {
+                counted = true;
+                addRows(QUERY, uriSlot, super.getCount());
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Record the change notifications sent at once by the {@link ChangeNotifier}.
+     */
+    void recordNotifications(int rowUris, int tableUris, int otherUris) {
+        if (!enabled) {
+            return;
+        }
+        rowNotifications.addAndGet(rowUris);
+        tableNotifications.addAndGet(tableUris);
+        otherNotifications.addAndGet(otherUris);
+    }
+
+    /**
+     * Returns the metrics as rows of {@link MetricsEntry#ALL_COLUMNS}, for the operations that ran
+     * at least once.
+     */
+    Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(MetricsEntry.ALL_COLUMNS);
+        long id = 0;
+        for (int index = 0; index < counts.length(); index++) {
+            long count = counts.get(index);
+            if (count == 0) {
+                continue;
+            }
+            cursor.addRow(new Object[]{++id, uriNames[index / OPERATION_NAMES.length],
+                    OPERATION_NAMES[index % OPERATION_NAMES.length], count, errors.get(index), rows.get(index),
+                    totalNanos.get(index) / 1000, maxNanos.get(index) / 1000, getPercentileMicros(index, 50),
+                    getPercentileMicros(index, 90), getPercentileMicros(index, 99)});
+        }
+        cursor.addRow(notificationRow(++id, MetricsEntry.OPERATION_NOTIFY_ROW, rowNotifications.get()));
+        cursor.addRow(notificationRow(++id, MetricsEntry.OPERATION_NOTIFY_TABLE, tableNotifications.get()));
+        cursor.addRow(notificationRow(++id, MetricsEntry.OPERATION_NOTIFY_OTHER, otherNotifications.get()));
+        return cursor;
+    }
+
+    /**
+     * Print the metrics as a table, one line per row of {@link #toCursor()}.
+     */
+    void dump(PrintWriter writer) {
+        if (!enabled) {
+            writer.println("Provider metrics are disabled");
+            return;
+        }
+        writer.println(String.format(Locale.US, "%-24s %-12s %8s %6s %10s %12s %10s %10s %10s %10s",
+                "uri", "operation", "count", "errors", "rows", "total_us", "max_us", "p50_us", "p90_us", "p99_us"));
+        Cursor cursor = toCursor();
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getString(1).equals(MetricsEntry.URI_NOTIFICATIONS)) {
+                    writer.println(String.format(Locale.US, "%-24s %-12s %8d", cursor.getString(1),
+                            cursor.getString(2), cursor.getLong(3)));
+                    continue;
+                }
+                writer.println(String.format(Locale.US, "%-24s %-12s %8d %6d %10d %12d %10d %10d %10d %10d",
+                        cursor.getString(1), cursor.getString(2), cursor.getLong(3), cursor.getLong(4),
+                        cursor.getLong(5), cursor.getLong(6), cursor.getLong(7), cursor.getLong(8),
+                        cursor.getLong(9), cursor.getLong(10)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Object[] notificationRow(long id, String kind, long count) {
+        return new Object[]{id, MetricsEntry.URI_NOTIFICATIONS, kind, count, 0, 0, 0, 0, 0, 0, 0};
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile of the calls at the given
+     * index, or the longest call when it is in the last bucket.
+     */
+    private long getPercentileMicros(int index, int percentile) {
+        long[] buckets = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = histograms.get(index * BUCKET_COUNT + i);
+            total += buckets[i];
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return BUCKET_BOUNDS_MICROS[i];
+            }
+        }
+        return maxNanos.get(index) / 1000;
+    }
+
+    /**
+     * Returns the bucket of the given latency.
+     */
+    private static int getBucket(long micros) {
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            if (micros <= BUCKET_BOUNDS_MICROS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MICROS.length;
+    }
+}
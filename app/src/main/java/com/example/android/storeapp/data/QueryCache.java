@@ -0,0 +1,195 @@
+package com.example.android.storeapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-process cache of small query results of {@link ProductProvider}, so reopening the same product
+ * or reloading the same page doesn't go back to SQLite.
+ * <p>
+ * Results are keyed by URI, projection, selection, selection arguments and sort order, and kept in
+ * least recently used order within {@link #maxBytes}. Every write bumps the generation of the table;
+ * a result is stamped with the generation read before its query ran, so a result that raced with
+ * a write is never returned.
+ * <p>
+ * Queries run on any binder thread, so every method is synchronized.
+ */
+class QueryCache {
+
+    /**
+     * Results that can have more rows than this are not cached, they would push everything else
+     * out. The provider only caches the queries whose URI limits them to it, so the rows of other
+     * queries are never counted up front.
+     */
+    static final int MAX_CACHED_ROWS = 200;
+
+    /**
+     * Default memory budget of the cached rows
+     */
+    static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+    /**
+     * Estimated size of a cached value that isn't a string or a blob, and of an entry itself
+     */
+    private static final int VALUE_BYTES = 16;
+    private static final int ENTRY_BYTES = 64;
+
+    private final int maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long generation;
+    private int sizeBytes;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxBytes memory budget of the cached rows, 0 to disable the cache
+     */
+    QueryCache(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the key of a query.
+     */
+    static String key(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + selection + "|" + Arrays.toString(selectionArgs) +
+                "|" + sortOrder;
+    }
+
+    /**
+     * Returns the generation to stamp on the result of a query about to run.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns a new cursor over the cached result of the given query, or null on a miss.
+     */
+    synchronized Cursor get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        MatrixCursor cursor = new MatrixCursor(entry.columns, entry.rows.length);
+        for (Object[] row : entry.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Cache the rows of the given cursor, read with the given generation, and rewind it so it can
+     * still be returned to the caller. The cursor must have at most {@link #MAX_CACHED_ROWS} rows.
+     * Results over the memory budget and results older than the latest write are left out.
+     */
+    void put(String key, long queryGeneration, Cursor cursor) {
+        if (maxBytes == 0) {
+            return;
+        }
+        int count = cursor.getCount();
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[count][];
+        int bytes = ENTRY_BYTES + key.length() * 2;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        bytes += VALUE_BYTES;
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        bytes += VALUE_BYTES;
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        String value = cursor.getString(i);
+                        row[i] = value;
+                        bytes += VALUE_BYTES + value.length() * 2;
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte[] blob = cursor.getBlob(i);
+                        row[i] = blob;
+                        bytes += VALUE_BYTES + blob.length;
+                        break;
+                    default:
+                        bytes += VALUE_BYTES;
+                        break;
+                }
+            }
+            rows[cursor.getPosition()] = row;
+        }
+        cursor.moveToPosition(-1);
+
+        synchronized (this) {
+            if (queryGeneration != generation || bytes > maxBytes) {
+                return;
+            }
+            Entry previous = entries.put(key, new Entry(columns, rows, bytes));
+            if (previous != null) {
+                sizeBytes -= previous.bytes;
+            }
+            sizeBytes += bytes;
+            trim();
+        }
+    }
+
+    /**
+     * Drop every cached result, called after every write to the products table.
+     */
+    synchronized void invalidate() {
+        generation++;
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized int getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Evict the least recently used results until the cache fits in its budget.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+            sizeBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * The rows of a cached result.
+     */
+    private static class Entry {
+
+        final String[] columns;
+        final Object[][] rows;
+        final int bytes;
+
+        Entry(String[] columns, Object[][] rows, int bytes) {
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.android.storeapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+import com.example.android.storeapp.data.StoreContract.SalesEntry;
+import com.example.android.storeapp.data.StoreContract.SalesSnapshotEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only ledger of the sales, with one row per sale, and the per-product snapshots the old
+ * ledger rows are compacted into.
+ * <p>
+ * An instance holds the statements of a sale, compiled once. It is only used from one thread at
+ * a time: the {@link GroupCommitWriter} thread, or the thread holding the write transaction.
+ */
+final class SalesLedger {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = SalesLedger.class.getSimpleName();
+
+    /**
+     * Number of most recent sales kept in the ledger by a compaction, older ones only remain in
+     * the snapshots.
+     */
+    static final int KEEP_RECENT_SALES = 1000;
+
+    /**
+     * Number of sales recorded between two automatic compactions
+     */
+    static final int COMPACT_EVERY_SALES = 5000;
+
+    /**
+     * Conditional decrement used to sell units of a product, it only succeeds when there is
+     * enough stock, so concurrent sales can never oversell or overwrite each other.
+     */
+    private static final String SQL_SELL_PRODUCT = "UPDATE " + ProductEntry.TABLE_NAME + " SET " +
+            ProductEntry.COLUMN_PRODUCT_QUANTITY + " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " - ? WHERE " +
+            ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " >= ?";
+    /**
+     * Records a sale with the price and sale offer of the product at the time of the sale.
+     */
+    private static final String SQL_RECORD_SALE = "INSERT INTO " + SalesEntry.TABLE_NAME + " (" +
+            SalesEntry.COLUMN_PRODUCT_ID + ", " + SalesEntry.COLUMN_QUANTITY + ", " + SalesEntry.COLUMN_UNIT_PRICE +
+            ", " + SalesEntry.COLUMN_SALE_OFFER + ", " + SalesEntry.COLUMN_SOLD_AT + ") SELECT " + ProductEntry._ID +
+            ", ?, " + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_SALE_OFFER + ", ? FROM " +
+            ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+    /**
+     * Reads back the stock of a product after a sale.
+     */
+    private static final String SQL_SELECT_QUANTITY = "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY +
+            " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+
+    private final SQLiteDatabase db;
+    private final SQLiteStatement sell;
+    private final SQLiteStatement record;
+    private final SQLiteStatement select;
+
+    SalesLedger(SQLiteDatabase db) {
+        this.db = db;
+        sell = db.compileStatement(SQL_SELL_PRODUCT);
+        record = db.compileStatement(SQL_RECORD_SALE);
+        select = db.compileStatement(SQL_SELECT_QUANTITY);
+    }
+
+    /**
+     * Returns whether or not the statements were compiled for the given database.
+     */
+    boolean isFor(SQLiteDatabase database) {
+        return db == database;
+    }
+
+    /**
+     * Create the ledger and snapshot tables.
+     */
+    static void create(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SalesEntry.TABLE_NAME + " (" + SalesEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                SalesEntry.COLUMN_PRODUCT_ID + " INTEGER NOT NULL, " + SalesEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, " +
+                SalesEntry.COLUMN_UNIT_PRICE + " INTEGER NOT NULL, " + SalesEntry.COLUMN_SALE_OFFER + " INTEGER NOT NULL, " +
+                SalesEntry.COLUMN_SOLD_AT + " INTEGER NOT NULL);");
+        // Sales of a product, for the history of a product and for the compaction
+        db.execSQL("CREATE INDEX " + SalesEntry.TABLE_NAME + "_product ON " + SalesEntry.TABLE_NAME + " (" +
+                SalesEntry.COLUMN_PRODUCT_ID + ", " + SalesEntry._ID + ");");
+
+        db.execSQL("CREATE TABLE " + SalesSnapshotEntry.TABLE_NAME + " (" + SalesSnapshotEntry.COLUMN_PRODUCT_ID +
+                " INTEGER PRIMARY KEY, " + SalesSnapshotEntry.COLUMN_UNITS_SOLD + " INTEGER NOT NULL DEFAULT 0, " +
+                SalesSnapshotEntry.COLUMN_REVENUE + " INTEGER NOT NULL DEFAULT 0, " +
+                SalesSnapshotEntry.COLUMN_SALE_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                SalesSnapshotEntry.COLUMN_LAST_SOLD_AT + " INTEGER NOT NULL DEFAULT 0, " +
+                SalesSnapshotEntry.COLUMN_LAST_SALE_ID + " INTEGER NOT NULL DEFAULT 0);");
+    }
+
+    /**
+     * Sell the given number of units of a product and record the sale in the ledger. Runs inside
+     * the group transaction.
+     *
+     * @return the remaining stock, or {@link ProductEntry#SELL_REJECTED} if the product doesn't
+     * exist or doesn't have enough units in stock, in which case nothing is changed
+     */
+    long sell(long productId, int count, long soldAt) {
+        sell.bindLong(1, count);
+        sell.bindLong(2, productId);
+        sell.bindLong(3, count);
+        if (sell.executeUpdateDelete() == 0) {
+            return ProductEntry.SELL_REJECTED;
+        }
+        record.bindLong(1, count);
+        record.bindLong(2, soldAt);
+        record.bindLong(3, productId);
+        record.executeInsert();
+
+        select.bindLong(1, productId);
+        return select.simpleQueryForLong();
+    }
+
+    /**
+     * Sell every line of a basket and record a sale per line, or nothing if a product of the
+     * basket doesn't exist or doesn't have enough units for all its lines. Runs inside the group
+     * transaction, where no other write can change the stock between the check and the sales.
+     *
+     * @param remaining receives the stock left after every line
+     * @return -1 when the basket was sold, or else the index of the first line where the units of
+     * its product, counted over that line and the lines before it, exceed the stock (the first line
+     * of a product that doesn't exist)
+     */
+    int checkout(long[] productIds, int[] counts, long soldAt, long[] remaining) {
+        // A product can be on several lines, its stock must cover all of them
+        Map<Long, Long> stock = new HashMap<>();
+        Map<Long, Long> needed = new HashMap<>();
+        for (int i = 0; i < productIds.length; i++) {
+            Long quantity = stock.get(productIds[i]);
+            if (quantity == null) {
+                quantity = getQuantity(productIds[i]);
+                stock.put(productIds[i], quantity);
+            }
+            Long units = needed.get(productIds[i]);
+            units = (units == null ? 0 : units) + counts[i];
+            if (quantity < units) {
+                return i;
+            }
+            needed.put(productIds[i], units);
+        }
+
+        for (int i = 0; i < productIds.length; i++) {
+            remaining[i] = sell(productIds[i], counts[i], soldAt);
+            if (remaining[i] == ProductEntry.SELL_REJECTED) {
+                // The stock was checked above, rolls back the group rather than sell part of the basket
+                throw new IllegalStateException("Stock of product " + productIds[i] + " changed during checkout");
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the stock of a product, or -1 if it doesn't exist.
+     */
+    private long getQuantity(long productId) {
+        select.bindLong(1, productId);
+        try {
+            return select.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    void close() {
+        sell.close();
+        record.close();
+        select.close();
+    }
+
+    /**
+     * Fold every sale but the {@link #KEEP_RECENT_SALES} most recent ones into the snapshot of its
+     * product, and delete them from the ledger. Runs inside a transaction.
+     *
+     * @return the number of sales compacted
+     */
+    static int compact(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT " + SalesEntry._ID + " FROM " + SalesEntry.TABLE_NAME + " ORDER BY " +
+                SalesEntry._ID + " DESC LIMIT 1 OFFSET " + KEEP_RECENT_SALES, null);
+        long cutoff;
+        try {
+            if (!cursor.moveToFirst()) {
+                return 0;
+            }
+            cutoff = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+        Object[] args = {cutoff};
+
+        db.execSQL("INSERT OR IGNORE INTO " + SalesSnapshotEntry.TABLE_NAME + " (" +
+                SalesSnapshotEntry.COLUMN_PRODUCT_ID + ") SELECT DISTINCT " + SalesEntry.COLUMN_PRODUCT_ID +
+                " FROM " + SalesEntry.TABLE_NAME + " WHERE " + SalesEntry._ID + " <= ?", args);
+
+        String folded = " FROM " + SalesEntry.TABLE_NAME + " s WHERE s." + SalesEntry.COLUMN_PRODUCT_ID + " = " +
+                SalesSnapshotEntry.TABLE_NAME + "." + SalesSnapshotEntry.COLUMN_PRODUCT_ID + " AND s." +
+                SalesEntry._ID + " <= " + cutoff + ")";
+        db.execSQL("UPDATE " + SalesSnapshotEntry.TABLE_NAME + " SET " +
+                SalesSnapshotEntry.COLUMN_UNITS_SOLD + " = " + SalesSnapshotEntry.COLUMN_UNITS_SOLD +
+                " + (SELECT SUM(s." + SalesEntry.COLUMN_QUANTITY + ")" + folded + ", " +
+                SalesSnapshotEntry.COLUMN_REVENUE + " = " + SalesSnapshotEntry.COLUMN_REVENUE +
+                " + (SELECT SUM(s." + SalesEntry.COLUMN_QUANTITY + " * s." + SalesEntry.COLUMN_UNIT_PRICE + ")" +
+                folded + ", " +
+                SalesSnapshotEntry.COLUMN_SALE_COUNT + " = " + SalesSnapshotEntry.COLUMN_SALE_COUNT +
+                " + (SELECT COUNT(*)" + folded + ", " +
+                SalesSnapshotEntry.COLUMN_LAST_SOLD_AT + " = MAX(" + SalesSnapshotEntry.COLUMN_LAST_SOLD_AT +
+                ", (SELECT MAX(s." + SalesEntry.COLUMN_SOLD_AT + ")" + folded + "), " +
+                SalesSnapshotEntry.COLUMN_LAST_SALE_ID + " = (SELECT MAX(s." + SalesEntry._ID + ")" + folded +
+                " WHERE " + SalesSnapshotEntry.COLUMN_PRODUCT_ID + " IN (SELECT " + SalesEntry.COLUMN_PRODUCT_ID +
+                " FROM " + SalesEntry.TABLE_NAME + " WHERE " + SalesEntry._ID + " <= ?)", args);
+
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + SalesEntry.TABLE_NAME + " WHERE " +
+                SalesEntry._ID + " <= ?");
+        try {
+            delete.bindLong(1, cutoff);
+            int compacted = delete.executeUpdateDelete();
+            Log.i(LOG_TAG, "Compacted " + compacted + " sales up to " + cutoff);
+            return compacted;
+        } finally {
+            delete.close();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.android.storeapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.SlowQueryEntry;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last provider calls that took longer than a threshold, with their URI and their arguments
+ * redacted, their SQL, their duration and the query plan SQLite picks for their SQL. Read through
+ * {@link SlowQueryEntry#CONTENT_URI}.
+ * <p>
+ * The entries are kept in a ring buffer of a fixed capacity, the oldest entry is dropped when
+ * another one comes in. The plan is captured with EXPLAIN QUERY PLAN on a background thread, so
+ * a call that is already slow doesn't wait for it; the entry shows no plan until it's there.
+ * The plan doesn't depend on the values of the arguments, so the statement is explained with its
+ * arguments left unbound and the values are never kept.
+ */
+final class SlowQueryLog {
+
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    /**
+     * Number of entries kept
+     */
+    static final int DEFAULT_CAPACITY = 32;
+
+    /**
+     * Path segments of the contract, kept in a redacted URI. Any other segment is a value, such as
+     * the name of a supplier.
+     */
+    private static final Set<String> PATH_NAMES = new HashSet<>(Arrays.asList(StoreContract.PATH_PRODUCTS,
+            StoreContract.PATH_SELL, StoreContract.PATH_SEARCH, StoreContract.PATH_STATS, StoreContract.PATH_METRICS,
+            StoreContract.PATH_DEBUG, StoreContract.PATH_SLOW_QUERIES, StoreContract.PATH_ON_SALE,
+            StoreContract.PATH_LOW_STOCK, StoreContract.PATH_BY_SUPPLIER, StoreContract.PATH_SALES,
+            StoreContract.PATH_SNAPSHOTS));
+
+    /**
+     * A slow call.
+     */
+    static final class Entry {
+        final long id;
+        final long timeMillis;
+        final String operation;
+        final String uri;
+        /**
+         * SQL run by the call, null when the provider doesn't run a single statement for it
+         */
+        final String sql;
+        final String args;
+        final long durationMicros;
+        /**
+         * Query plan, one line per step, set by the background thread
+         */
+        volatile String plan;
+
+        Entry(long id, String operation, String uri, String sql, String args, long durationMicros) {
+            this.id = id;
+            this.timeMillis = System.currentTimeMillis();
+            this.operation = operation;
+            this.uri = uri;
+            this.sql = sql;
+            this.args = args;
+            this.durationMicros = durationMicros;
+        }
+    }
+
+    private final StoreDbHelper dbHelper;
+    private final Entry[] entries;
+    /**
+     * Explains the statements of the slow calls, one at a time. When more slow calls come in
+     * than it keeps up with, the extra ones are logged without a plan.
+     */
+    private final ThreadPoolExecutor planExecutor;
+
+    private volatile long thresholdNanos;
+    /**
+     * Number of entries ever added, the next entry goes at this count modulo the capacity
+     */
+    private long count;
+
+    SlowQueryLog(StoreDbHelper dbHelper, long thresholdMillis, int capacity) {
+        this.dbHelper = dbHelper;
+        this.entries = new Entry[capacity];
+        this.planExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new ThreadPoolExecutor.DiscardPolicy());
+        setThresholdMillis(thresholdMillis);
+    }
+
+    /**
+     * Set the duration above which a call is logged, 0 to log every call.
+     */
+    void setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Threshold must be 0 or more");
+        }
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Returns whether or not a call that took the given time is logged.
+     */
+    boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= thresholdNanos;
+    }
+
+    /**
+     * Log a slow call, and capture the plan of its SQL in the background.
+     *
+     * @param uri  the URI of the call, redacted before it is kept or logged
+     * @param sql  the SQL run by the call, or null if there isn't a single statement to explain
+     * @param args the arguments of the SQL, redacted before they are kept
+     */
+    void add(String operation, Uri uri, String sql, String[] args, long elapsedNanos) {
+        final Entry entry;
+        synchronized (this) {
+            entry = new Entry(count + 1, operation, redact(uri), sql, redact(args), elapsedNanos / 1000);
+            entries[(int) (count % entries.length)] = entry;
+            count++;
+        }
+        Log.w(LOG_TAG, operation + " " + entry.uri + " took " + entry.durationMicros / 1000 + " ms");
+        if (sql == null) {
+            return;
+        }
+        planExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                entry.plan = explain(entry.sql);
+            }
+        });
+    }
+
+    /**
+     * Returns the entries as rows of {@link SlowQueryEntry#ALL_COLUMNS}, newest first.
+     */
+    Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(SlowQueryEntry.ALL_COLUMNS);
+        synchronized (this) {
+            for (long i = count - 1; i >= 0 && i >= count - entries.length; i--) {
+                Entry entry = entries[(int) (i % entries.length)];
+                cursor.addRow(new Object[]{entry.id, entry.timeMillis, entry.operation, entry.uri, entry.sql,
+                        entry.args, entry.durationMicros, entry.plan});
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Stop capturing plans.
+     */
+    void shutdown() {
+        planExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the plan SQLite picks for the given SQL. Runs on the background thread.
+     */
+    private String explain(String sql) {
+        try {
+            Cursor cursor = dbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+            try {
+                int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+                StringBuilder plan = new StringBuilder();
+                while (cursor.moveToNext()) {
+                    if (plan.length() > 0) {
+                        plan.append('\n');
+                    }
+                    plan.append(cursor.getString(detailColumnIndex));
+                }
+                return plan.toString();
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLException | IllegalStateException e) {
+            // The database was closed, or the caller's selection isn't valid SQL
+            return "No plan: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Returns the given arguments with the text replaced by its length, numbers such as IDs and
+     * quantities are kept.
+     */
+    static String redact(String[] args) {
+        if (args == null) {
+            return null;
+        }
+        StringBuilder redacted = new StringBuilder("[");
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                redacted.append(", ");
+            }
+            appendRedacted(redacted, args[i]);
+        }
+        return redacted.append("]").toString();
+    }
+
+    /**
+     * Returns the given URI with the values in it redacted like the arguments: the path segments
+     * that aren't paths of the contract, such as the name of a supplier, and the values of the
+     * query parameters, such as the text of a search or the sort value of a page.
+     */
+    static String redact(Uri uri) {
+        if (uri == null) {
+            return null;
+        }
+        StringBuilder redacted = new StringBuilder(uri.getScheme()).append("://").append(uri.getAuthority());
+        for (String segment : uri.getPathSegments()) {
+            redacted.append('/');
+            if (PATH_NAMES.contains(segment)) {
+                redacted.append(segment);
+            } else {
+                appendRedacted(redacted, segment);
+            }
+        }
+        char separator = '?';
+        for (String name : uri.getQueryParameterNames()) {
+            for (String value : uri.getQueryParameters(name)) {
+                redacted.append(separator).append(name).append('=');
+                appendRedacted(redacted, value);
+                separator = '&';
+            }
+        }
+        return redacted.toString();
+    }
+
+    /**
+     * Append the given value, or its length if it's text: numbers such as IDs and quantities are kept.
+     */
+    private static void appendRedacted(StringBuilder redacted, String value) {
+        if (value == null) {
+            redacted.append("null");
+        } else if (isNumber(value)) {
+            redacted.append(value);
+        } else {
+            redacted.append("<").append(value.length()).append(" chars>");
+        }
+    }
+
+    private static boolean isNumber(String arg) {
+        if (arg.isEmpty() || arg.length() > 19) {
+            return false;
+        }
+        for (int i = arg.charAt(0) == '-' ? 1 : 0; i < arg.length(); i++) {
+            if (!Character.isDigit(arg.charAt(i))) {
+                return false;
+            }
+        }
+        return arg.length() > (arg.charAt(0) == '-' ? 1 : 0);
+    }
+}
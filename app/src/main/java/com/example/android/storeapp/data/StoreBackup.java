@@ -0,0 +1,458 @@
+package com.example.android.storeapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Online backup and restore of the store database.
+ * <p>
+ * The framework doesn't expose the SQLite backup API, so a backup copies the rows of every table
+ * into a new database file in steps of {@link #STEP_ROWS} rows, the same way the backup API copies
+ * a few pages at a time. It reads the live database through a connection of its own:
+ * <ul>
+ * <li>With write-ahead logging the whole copy reads a single snapshot. Readers never block writers
+ * in that mode, so the tills aren't slowed down at all.</li>
+ * <li>With the rollback journal a reader blocks writers, so every step only holds the read lock for
+ * its own rows. When a write is committed between two steps the copy would mix two versions of the
+ * data, so it starts over, like the backup API does, after waiting a little longer each time for
+ * the tills to go quiet. The read lock is never held for the whole copy, so after
+ * {@link #MAX_RESTARTS} restarts the backup fails rather than make the writers wait for it.</li>
+ * </ul>
+ * The copy is written to a temporary file renamed over the backup once complete, so the previous
+ * backup stays usable until then.
+ * <p>
+ * A restore replaces the rows of every table with the rows of the backup in a single transaction
+ * on the live connection, so readers see either the old store or the restored one, and nothing
+ * holding a connection needs to be reopened.
+ */
+final class StoreBackup {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StoreBackup.class.getSimpleName();
+
+    /**
+     * Name of the backup file, next to the database
+     */
+    static final String BACKUP_FILE_NAME = "store-backup.db";
+
+    /**
+     * Number of rows copied by a single step
+     */
+    static final int STEP_ROWS = 1000;
+
+    /**
+     * Number of times a backup starts over because of a write, before it gives up
+     */
+    static final int MAX_RESTARTS = 5;
+
+    /**
+     * Wait before the first restart, doubled before every next one
+     */
+    static final long RESTART_BACKOFF_MILLIS = 250;
+
+    /**
+     * Tables of the framework that every database gets on its own
+     */
+    private static final String ANDROID_METADATA = "android_metadata";
+
+    /**
+     * Name of the savepoints holding the read lock. A savepoint opens a deferred transaction, unlike
+     * beginTransaction() which would take the write lock and block the writers.
+     */
+    private static final String SAVEPOINT = "store_backup";
+
+    /**
+     * Alias of the row ID in the copy queries, so it doesn't clash with the columns of the table
+     */
+    private static final String ROW_ID_ALIAS = "store_backup_rowid";
+
+    /**
+     * Offset of the file change counter in the database header, updated by every commit with the
+     * rollback journal.
+     */
+    private static final int HEADER_CHANGE_COUNTER_OFFSET = 24;
+
+    /**
+     * Counts of a finished backup.
+     */
+    static class Result {
+        long rows;
+        int steps;
+        int restarts;
+        long longestStepMillis;
+        long elapsedMillis;
+    }
+
+    private StoreBackup() {
+    }
+
+    /**
+     * Back up the given live database file to the given backup file.
+     *
+     * @throws IOException if the backup can't be written, or if the store kept changing through
+     *                     {@link #MAX_RESTARTS} restarts with the rollback journal
+     */
+    static Result backup(File databaseFile, File backupFile) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        Result result = new Result();
+        File tempFile = new File(backupFile.getPath() + ".tmp");
+        SQLiteDatabase.deleteDatabase(tempFile);
+
+        SQLiteDatabase source = SQLiteDatabase.openDatabase(databaseFile.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            boolean writeAheadLogging = "wal".equalsIgnoreCase(
+                    DatabaseUtils.stringForQuery(source, "PRAGMA journal_mode", null));
+            while (true) {
+                // Only a write-ahead log snapshot can be held for the whole copy without blocking writers
+                Snapshot snapshot = new Snapshot(source, databaseFile, writeAheadLogging);
+                SQLiteDatabase target = SQLiteDatabase.openOrCreateDatabase(tempFile, null);
+                boolean copied;
+                try {
+                    copied = copy(snapshot, target, result);
+                } finally {
+                    snapshot.close();
+                    target.close();
+                }
+                if (copied) {
+                    break;
+                }
+                // A write was committed during the copy, start over once the writes let up
+                SQLiteDatabase.deleteDatabase(tempFile);
+                if (result.restarts == MAX_RESTARTS) {
+                    throw new IOException("Store kept changing, gave up after " + result.restarts + " restarts");
+                }
+                SystemClock.sleep(RESTART_BACKOFF_MILLIS << result.restarts);
+                result.rows = 0;
+                result.restarts++;
+            }
+        } finally {
+            source.close();
+        }
+
+        // The temporary database is closed, so it's complete without its journal
+        new File(tempFile.getPath() + "-journal").delete();
+        if (!tempFile.renameTo(backupFile)) {
+            SQLiteDatabase.deleteDatabase(tempFile);
+            throw new IOException("Failed to replace " + backupFile);
+        }
+        result.elapsedMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Backed up " + result.rows + " rows in " + result.steps + " steps, restarts="
+                + result.restarts + " longestStepMillis=" + result.longestStepMillis);
+        return result;
+    }
+
+    /**
+     * Copy the schema and the rows of the snapshot to the target database. Returns false if the
+     * source changed during the copy.
+     */
+    private static boolean copy(Snapshot snapshot, SQLiteDatabase target, Result result) throws IOException {
+        List<String[]> schema = new ArrayList<>();
+        int version;
+        if (!snapshot.beginStep()) {
+            return false;
+        }
+        try {
+            version = (int) DatabaseUtils.longForQuery(snapshot.db, "PRAGMA user_version", null);
+            readSchema(snapshot.db, schema);
+        } finally {
+            snapshot.endStep();
+        }
+
+        // Tables first, indexes and triggers once the rows are in
+        target.beginTransaction();
+        try {
+            for (String[] entry : schema) {
+                if (entry[0].equals("table") && !entry[1].startsWith("sqlite_")
+                        && !isTable(target, entry[1])) {
+                    // Creating a virtual table also creates its shadow tables
+                    target.execSQL(entry[2]);
+                }
+            }
+            target.setTransactionSuccessful();
+        } finally {
+            target.endTransaction();
+        }
+
+        for (String[] entry : schema) {
+            if (isCopiedTable(entry)) {
+                long afterRowId = Long.MIN_VALUE;
+                while (afterRowId != Long.MAX_VALUE) {
+                    long stepStart = SystemClock.elapsedRealtime();
+                    if (!snapshot.beginStep()) {
+                        return false;
+                    }
+                    target.beginTransaction();
+                    try {
+                        int[] copied = new int[1];
+                        afterRowId = copyRows(snapshot.db, target, entry[1], afterRowId, copied);
+                        result.rows += copied[0];
+                        target.setTransactionSuccessful();
+                    } finally {
+                        target.endTransaction();
+                        snapshot.endStep();
+                    }
+                    result.steps++;
+                    result.longestStepMillis = Math.max(result.longestStepMillis,
+                            SystemClock.elapsedRealtime() - stepStart);
+                }
+            }
+        }
+
+        target.beginTransaction();
+        try {
+            for (String[] entry : schema) {
+                if (!entry[0].equals("table")) {
+                    target.execSQL(entry[2]);
+                }
+            }
+            target.setVersion(version);
+            target.setTransactionSuccessful();
+        } finally {
+            target.endTransaction();
+        }
+        return true;
+    }
+
+    /**
+     * Restore the backup file into the given live database, in one transaction.
+     *
+     * @return the number of rows restored
+     * @throws IllegalArgumentException if the backup isn't from the same schema version
+     */
+    static long restore(SQLiteDatabase db, File backupFile) {
+        SQLiteDatabase backup = SQLiteDatabase.openDatabase(backupFile.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            if (backup.getVersion() != db.getVersion()) {
+                throw new IllegalArgumentException("Backup is from schema version " + backup.getVersion()
+                        + ", the store is at " + db.getVersion());
+            }
+            String check = DatabaseUtils.stringForQuery(backup, "PRAGMA quick_check", null);
+            if (!"ok".equals(check)) {
+                throw new IllegalArgumentException("Backup is damaged: " + check);
+            }
+            List<String[]> backupSchema = new ArrayList<>();
+            readSchema(backup, backupSchema);
+            List<String[]> liveSchema = new ArrayList<>();
+            readSchema(db, liveSchema);
+
+            long rows = 0;
+            db.beginTransaction();
+            try {
+                // Without the triggers the copied rows don't update the summary and the search
+                // index a second time, and clearing a table is a single truncate
+                for (String[] entry : liveSchema) {
+                    if (entry[0].equals("trigger")) {
+                        db.execSQL("DROP TRIGGER " + entry[1]);
+                    }
+                }
+                for (String[] entry : liveSchema) {
+                    if (isCopiedTable(entry)) {
+                        db.execSQL("DELETE FROM " + entry[1]);
+                    }
+                }
+                for (String[] entry : backupSchema) {
+                    if (isCopiedTable(entry)) {
+                        long afterRowId = Long.MIN_VALUE;
+                        int[] copied = new int[1];
+                        while (afterRowId != Long.MAX_VALUE) {
+                            afterRowId = copyRows(backup, db, entry[1], afterRowId, copied);
+                            rows += copied[0];
+                        }
+                    }
+                }
+                for (String[] entry : liveSchema) {
+                    if (entry[0].equals("trigger")) {
+                        db.execSQL(entry[2]);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.i(LOG_TAG, "Restored " + rows + " rows");
+            return rows;
+        } finally {
+            backup.close();
+        }
+    }
+
+    /**
+     * Read the type, name and SQL of every schema entry, in creation order.
+     */
+    private static void readSchema(SQLiteDatabase db, List<String[]> schema) {
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master WHERE sql NOT NULL " +
+                "AND name != ? ORDER BY rowid", new String[]{ANDROID_METADATA});
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(new String[]{cursor.getString(0), cursor.getString(1), cursor.getString(2)});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns whether the rows of the given schema entry are copied. Virtual tables keep their
+     * rows in their shadow tables, which are copied as ordinary tables.
+     */
+    private static boolean isCopiedTable(String[] entry) {
+        return entry[0].equals("table") && !entry[2].toUpperCase(Locale.US).startsWith("CREATE VIRTUAL")
+                && (!entry[1].startsWith("sqlite_") || entry[1].equals("sqlite_sequence"));
+    }
+
+    private static boolean isTable(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db, "SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{name}) > 0;
+    }
+
+    /**
+     * Copy up to {@link #STEP_ROWS} rows of a table, in row ID order after the given row ID.
+     *
+     * @param copied receives the number of rows copied
+     * @return the row ID to continue after, or {@link Long#MAX_VALUE} when the table is done
+     */
+    private static long copyRows(SQLiteDatabase from, SQLiteDatabase to, String table, long afterRowId,
+                                 int[] copied) {
+        Cursor cursor = from.rawQuery("SELECT rowid AS " + ROW_ID_ALIAS + ", * FROM " + table +
+                " WHERE rowid > ? ORDER BY rowid LIMIT " + STEP_ROWS, new String[]{String.valueOf(afterRowId)});
+        SQLiteStatement insert = null;
+        try {
+            int columns = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                if (insert == null) {
+                    insert = to.compileStatement(buildInsert(table, cursor.getColumnNames()));
+                }
+                for (int i = 1; i < columns; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            insert.bindNull(i);
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            insert.bindLong(i, cursor.getLong(i));
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            insert.bindDouble(i, cursor.getDouble(i));
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            insert.bindBlob(i, cursor.getBlob(i));
+                            break;
+                        default:
+                            insert.bindString(i, cursor.getString(i));
+                            break;
+                    }
+                }
+                insert.executeInsert();
+                afterRowId = cursor.getLong(0);
+            }
+            copied[0] = cursor.getCount();
+            return cursor.getCount() < STEP_ROWS ? Long.MAX_VALUE : afterRowId;
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the insert of a copied row, the row ID alias in the first column isn't inserted.
+     */
+    private static String buildInsert(String table, String[] columnNames) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder values = new StringBuilder();
+        for (int i = 1; i < columnNames.length; i++) {
+            if (i > 1) {
+                sql.append(", ");
+                values.append(", ");
+            }
+            sql.append('"').append(columnNames[i]).append('"');
+            values.append('?');
+        }
+        return sql.append(") VALUES (").append(values).append(')').toString();
+    }
+
+    /**
+     * The read lock on the live database, held for the whole copy with write-ahead logging or for
+     * one step at a time with the rollback journal.
+     */
+    private static class Snapshot {
+
+        final SQLiteDatabase db;
+        private final File databaseFile;
+        private final boolean holdForWholeCopy;
+        private long changeCounter = -1;
+
+        Snapshot(SQLiteDatabase db, File databaseFile, boolean holdForWholeCopy) {
+            this.db = db;
+            this.databaseFile = databaseFile;
+            this.holdForWholeCopy = holdForWholeCopy;
+            if (holdForWholeCopy) {
+                db.execSQL("SAVEPOINT " + SAVEPOINT);
+            }
+        }
+
+        /**
+         * Take the read lock for a step. Returns false, without the lock, if a write was committed
+         * since the previous step.
+         */
+        boolean beginStep() throws IOException {
+            if (holdForWholeCopy) {
+                return true;
+            }
+            db.execSQL("SAVEPOINT " + SAVEPOINT);
+            long counter;
+            try {
+                // The savepoint only takes the lock with its first read
+                DatabaseUtils.longForQuery(db, "SELECT count(*) FROM sqlite_master", null);
+                counter = readChangeCounter();
+            } catch (IOException | RuntimeException e) {
+                db.execSQL("RELEASE " + SAVEPOINT);
+                throw e;
+            }
+            if (changeCounter == -1) {
+                changeCounter = counter;
+            } else if (counter != changeCounter) {
+                db.execSQL("RELEASE " + SAVEPOINT);
+                return false;
+            }
+            return true;
+        }
+
+        void endStep() {
+            if (!holdForWholeCopy) {
+                db.execSQL("RELEASE " + SAVEPOINT);
+            }
+        }
+
+        void close() {
+            if (holdForWholeCopy) {
+                db.execSQL("RELEASE " + SAVEPOINT);
+            }
+        }
+
+        private long readChangeCounter() throws IOException {
+            RandomAccessFile file = new RandomAccessFile(databaseFile, "r");
+            try {
+                file.seek(HEADER_CHANGE_COUNTER_OFFSET);
+                return file.readInt() & 0xffffffffL;
+            } finally {
+                file.close();
+            }
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.example.android.storeapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import com.example.android.storeapp.domain.Product;
+import com.example.android.storeapp.domain.ProductValidator;
+
 /**
  * API Contract for the store app.
  */
@@ -28,6 +32,116 @@ public class StoreContract {
      * as the ContentProvider hasn't been given any information on what to do with "staff".
      */
     public static final String PATH_PRODUCTS = "products";
+    /**
+     * Path appended to a single product URI to sell units of that product, for instance
+     * content://com.example.android.storeapp/products/3/sell?count=2
+     */
+    public static final String PATH_SELL = "sell";
+    /**
+     * Path appended to the products URI to search the products by name or supplier, for instance
+     * content://com.example.android.storeapp/products/search?q=head
+     */
+    public static final String PATH_SEARCH = "search";
+    /**
+     * Path appended to the products URI to read the inventory statistics, for instance
+     * content://com.example.android.storeapp/products/stats
+     */
+    public static final String PATH_STATS = "stats";
+    /**
+     * Path appended to the products URI to read the timings of the provider operations, for instance
+     * content://com.example.android.storeapp/products/metrics
+     */
+    public static final String PATH_METRICS = "metrics";
+    /**
+     * Path of the debugging tables of the provider, and of the slow calls in it:
+     * content://com.example.android.storeapp/debug/slow_queries
+     */
+    public static final String PATH_DEBUG = "debug";
+    public static final String PATH_SLOW_QUERIES = "slow_queries";
+    /**
+     * Paths appended to the products URI to list a part of the products, with the same sort and
+     * page query parameters as the whole list:
+     * content://com.example.android.storeapp/products/on_sale for the products on sale,
+     * content://com.example.android.storeapp/products/low_stock?threshold=5 for the products
+     * with at most 5 units in stock, and
+     * content://com.example.android.storeapp/products/by_supplier/Acme for the products of a supplier.
+     */
+    public static final String PATH_ON_SALE = "on_sale";
+    public static final String PATH_LOW_STOCK = "low_stock";
+    public static final String PATH_BY_SUPPLIER = "by_supplier";
+    /**
+     * Path of the sales ledger, content://com.example.android.storeapp/sales, and of the per-product
+     * snapshots old sales are compacted into, content://com.example.android.storeapp/sales/snapshots
+     */
+    public static final String PATH_SALES = "sales";
+    public static final String PATH_SNAPSHOTS = "snapshots";
+
+    /**
+     * Provider method returning the hit and miss counts of the query result cache, called with
+     * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on {@link #BASE_CONTENT_URI}.
+     * The result holds {@link #KEY_CACHE_HITS}, {@link #KEY_CACHE_MISSES} and {@link #KEY_CACHE_BYTES}.
+     */
+    public static final String METHOD_QUERY_CACHE_STATS = "query_cache_stats";
+    public static final String KEY_CACHE_HITS = "hits";
+    public static final String KEY_CACHE_MISSES = "misses";
+    public static final String KEY_CACHE_BYTES = "bytes";
+
+    /**
+     * Provider method comparing the inventory statistics with a full recompute from the products,
+     * and fixing them if they differ. The result holds {@link #KEY_STATS_CONSISTENT}.
+     */
+    public static final String METHOD_VERIFY_STATS = "verify_stats";
+    public static final String KEY_STATS_CONSISTENT = "consistent";
+
+    /**
+     * Provider method folding the old sales of the ledger into the per-product snapshots now,
+     * instead of waiting for the next automatic compaction. The result holds {@link #KEY_COMPACTED_SALES}.
+     */
+    public static final String METHOD_COMPACT_SALES = "compact_sales";
+    public static final String KEY_COMPACTED_SALES = "compacted";
+
+    /**
+     * Provider method copying the store to its backup file while the store stays in use. It can
+     * take a while on a large store, so call it from a background thread. The result holds
+     * {@link #KEY_BACKUP_ROWS}, the number of rows copied.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Provider method replacing the whole store with its backup file in one transaction. The
+     * result holds {@link #KEY_BACKUP_ROWS}, the number of rows restored.
+     */
+    public static final String METHOD_RESTORE_BACKUP = "restore_backup";
+    public static final String KEY_BACKUP_ROWS = "rows";
+
+    /**
+     * Method of the provider setting the duration above which a call is logged in
+     * {@link SlowQueryEntry#CONTENT_URI}, given in milliseconds as the argument. 0 logs every call.
+     * The default is in res/values/config.xml.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /**
+     * Provider method selling a basket of products at once. The lines of the basket are given in
+     * the extras, the product IDs in {@link #KEY_CHECKOUT_PRODUCT_IDS} and the number of units of
+     * every line at the same index in {@link #KEY_CHECKOUT_COUNTS}. The stock of every line is
+     * checked and decremented in one transaction, so either the whole basket is sold or nothing is.
+     * <p>
+     * The result holds {@link #KEY_CHECKOUT_REJECTED_LINE}, -1 when the basket was sold or else the
+     * index of the first line where the units of its product, counted over that line and the lines
+     * before it, exceed the stock, and when it was sold
+     * {@link #KEY_CHECKOUT_REMAINING}, the stock left after every line.
+     */
+    public static final String METHOD_CHECKOUT = "checkout";
+    public static final String KEY_CHECKOUT_PRODUCT_IDS = "product_ids";
+    public static final String KEY_CHECKOUT_COUNTS = "counts";
+    public static final String KEY_CHECKOUT_REJECTED_LINE = "rejected_line";
+    public static final String KEY_CHECKOUT_REMAINING = "remaining";
+
+    /**
+     * Largest number of lines in a basket
+     */
+    public static final int MAX_CHECKOUT_LINES = 1000;
 
     // To prevent someone from accidentally instantiating the contract class,
     // give it an empty constructor.
@@ -57,6 +171,96 @@ public class StoreContract {
         public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" +
                 CONTENT_AUTHORITY + "/" + PATH_PRODUCTS;
 
+        /**
+         * Query parameter holding the number of units to sell, see {@link #buildSellUri(long, int)}.
+         * When it is missing one unit is sold.
+         */
+        public static final String QUERY_PARAMETER_COUNT = "count";
+
+        /**
+         * Key of the number of units to sell in the values of an update of a sell URI, in place
+         * of {@link #QUERY_PARAMETER_COUNT}. A batch operation needs values, so a sale in a batch
+         * gives its count there, see {@link #buildSellUri(long)}.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String SELL_COUNT = "sell_count";
+
+        /**
+         * Query parameter holding the text to search, see {@link #buildSearchUri(String)}.
+         * Every word is matched as a prefix of a word of the product or supplier name.
+         */
+        public static final String QUERY_PARAMETER_QUERY = "q";
+
+        /**
+         * Query parameter holding the maximum number of rows to return, for a search or a page.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter holding the sort order of a page of products, one of {@link #SORT_BY_ID},
+         * {@link #SORT_BY_NAME}, {@link #SORT_BY_PRICE} or {@link #SORT_BY_QUANTITY}.
+         * See {@link #buildPageUri(String, int, String, long)}.
+         * <p>
+         * The lists of a part of the products only take the sort orders their index is in, the
+         * first one being used when the parameter is missing: {@link #SORT_BY_NAME} for
+         * {@link #buildOnSaleUri()} and {@link #buildBySupplierUri(String)}, and
+         * {@link #SORT_BY_QUANTITY} for {@link #buildLowStockUri(int)}.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /**
+         * Query parameter holding the highest quantity of a product in the low stock list, see
+         * {@link #buildLowStockUri(int)}. When it is missing {@link #DEFAULT_LOW_STOCK_THRESHOLD}
+         * is used.
+         */
+        public static final String QUERY_PARAMETER_THRESHOLD = "threshold";
+
+        /**
+         * Highest quantity of a product in the low stock list when the URI doesn't say
+         */
+        public static final int DEFAULT_LOW_STOCK_THRESHOLD = 5;
+
+        /**
+         * Query parameter holding the value of the sort column in the last row of the previous page.
+         */
+        public static final String QUERY_PARAMETER_AFTER = "after";
+
+        /**
+         * Query parameter holding the ID of the last row of the previous page.
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter of the URIs the provider notifies for a single changed product, holding
+         * what happened to it: {@link #CHANGE_INSERT}, {@link #CHANGE_UPDATE} or {@link #CHANGE_DELETE}.
+         * See {@link #buildChangeUri(long, String)}. A notification for {@link #CONTENT_URI} itself
+         * means any product may have changed.
+         */
+        public static final String QUERY_PARAMETER_CHANGE = "change";
+
+        /**
+         * Possible kinds of change of a single product.
+         */
+        public static final String CHANGE_INSERT = "insert";
+        public static final String CHANGE_UPDATE = "update";
+        public static final String CHANGE_DELETE = "delete";
+
+        /**
+         * Possible sort orders for a page of products. Ties are always broken by ID, so every
+         * row has a unique position.
+         */
+        public static final String SORT_BY_ID = "id";
+        public static final String SORT_BY_NAME = "name";
+        public static final String SORT_BY_PRICE = "price";
+        public static final String SORT_BY_QUANTITY = "quantity";
+
+        /**
+         * Value returned by an update on a sell URI when the product doesn't exist or
+         * doesn't have enough units in stock. Otherwise the update returns the remaining stock.
+         */
+        public static final int SELL_REJECTED = -1;
+
         /**
          * Name of database table for products
          */
@@ -113,20 +317,495 @@ public class StoreContract {
          */
         public static final String COLUMN_SUPPLIER_PHONE_NUMBER = "Supplier_Phone";
 
+        /**
+         * Columns shown in the product list. Every list and page sort order has an index holding
+         * all of them, so the list is read from the index alone.
+         */
+        public static final String[] LIST_COLUMNS = {_ID, COLUMN_PRODUCT_NAME, COLUMN_PRODUCT_PRICE,
+                COLUMN_PRODUCT_QUANTITY};
+
+        /**
+         * Every column of the products table, in the order of the
+         * {@link com.example.android.storeapp.domain.ProductCodec} columns.
+         */
+        public static final String[] ALL_COLUMNS = {_ID, COLUMN_PRODUCT_NAME, COLUMN_PRODUCT_PRICE,
+                COLUMN_SALE_OFFER, COLUMN_PRODUCT_QUANTITY, COLUMN_PRODUCT_SUPPLIER, COLUMN_SUPPLIER_PHONE_NUMBER};
+
         /**
          * Possible values for the sale offer.
          */
-        public static final int NO_SALE = 0;
-        public static final int HAS_SALE = 1;
+        public static final int NO_SALE = Product.NO_SALE;
+        public static final int HAS_SALE = Product.HAS_SALE;
+
+        /**
+         * Returns the URI used to sell the given number of units of a product.
+         * Performing an update on it returns the remaining stock, or {@link #SELL_REJECTED}.
+         */
+        public static Uri buildSellUri(long id, int count) {
+            return buildSellUri(id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_COUNT, String.valueOf(count))
+                    .build();
+        }
+
+        /**
+         * Returns the URI used to sell units of a product, the number of units being given by the
+         * {@link #SELL_COUNT} value of the update.
+         */
+        public static Uri buildSellUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_SELL)
+                    .build();
+        }
+
+        /**
+         * Returns the URI of a page of products. The page starts right after the row with the given
+         * sort column value and ID, which is the last row of the previous page, so it stays correct
+         * when rows are added or removed before it.
+         *
+         * @param sort       the sort order, {@link #SORT_BY_ID} for instance
+         * @param limit      the maximum number of rows in the page
+         * @param afterValue the sort column value of the last row of the previous page, ignored
+         *                   when sorting by ID. Null with an afterId of 0 for the first page.
+         * @param afterId    the ID of the last row of the previous page, 0 for the first page
+         */
+        public static Uri buildPageUri(String sort, int limit, String afterValue, long afterId) {
+            return buildPageUri(CONTENT_URI, sort, limit, afterValue, afterId);
+        }
+
+        /**
+         * Returns the URI of a page of the given list of products, {@link #CONTENT_URI} or one of
+         * the lists of a part of the products such as {@link #buildOnSaleUri()}. See
+         * {@link #buildPageUri(String, int, String, long)} for the parameters.
+         */
+        public static Uri buildPageUri(Uri listUri, String sort, int limit, String afterValue, long afterId) {
+            Uri.Builder builder = listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sort)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (afterId > 0) {
+                if (afterValue != null) {
+                    builder.appendQueryParameter(QUERY_PARAMETER_AFTER, afterValue);
+                }
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the URI of the list of the products on sale.
+         */
+        public static Uri buildOnSaleUri() {
+            return Uri.withAppendedPath(CONTENT_URI, PATH_ON_SALE);
+        }
+
+        /**
+         * Returns the URI of the list of the products with at most the given quantity in stock.
+         */
+        public static Uri buildLowStockUri(int threshold) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOW_STOCK)
+                    .appendQueryParameter(QUERY_PARAMETER_THRESHOLD, String.valueOf(threshold))
+                    .build();
+        }
+
+        /**
+         * Returns the URI of the list of the products of the given supplier.
+         */
+        public static Uri buildBySupplierUri(String supplier) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_BY_SUPPLIER)
+                    .appendPath(supplier)
+                    .build();
+        }
+
+        /**
+         * Returns the URI used to search the products for the given text.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendQueryParameter(QUERY_PARAMETER_QUERY, query)
+                    .build();
+        }
+
+        /**
+         * Returns the URI notified when the given product was inserted, updated or deleted. It is a
+         * descendant of {@link #CONTENT_URI} and of the product URI, so observers of either get it.
+         */
+        public static Uri buildChangeUri(long id, String change) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHANGE, change)
+                    .build();
+        }
+
+        /**
+         * Returns the kind of change of a notified URI, or null if it doesn't name a single product,
+         * in which case any product may have changed.
+         */
+        public static String getChange(Uri uri) {
+            if (uri == null || uri.getPathSegments().size() != 2) {
+                return null;
+            }
+            return uri.getQueryParameter(QUERY_PARAMETER_CHANGE);
+        }
 
         /**
          * Returns whether or not the given sale is {@link #NO_SALE} or {@link #HAS_SALE}.
          */
         public static boolean isValidSale(int sale) {
-            if (sale == NO_SALE || sale == HAS_SALE) {
-                return true;
-            }
-            return false;
+            return ProductValidator.isValidSale(sale);
         }
     }
+
+    /**
+     * Inner class that defines constant values for the inventory statistics. Querying
+     * {@link #CONTENT_URI} returns a single row, read in constant time whatever the number of
+     * products, and notified like the products themselves.
+     */
+    public static abstract class StatsEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the inventory statistics in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the statistics row.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * Number of products.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /**
+         * Sum of the quantities of every product.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TOTAL_UNITS = "total_units";
+
+        /**
+         * Sum of price times quantity of every product.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TOTAL_VALUE = "total_value";
+
+        /**
+         * Number of products with {@link ProductEntry#HAS_SALE}.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ON_SALE_COUNT = "on_sale_count";
+
+        /**
+         * Number of products with a quantity of 0.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_OUT_OF_STOCK_COUNT = "out_of_stock_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the provider metrics, one row per URI pattern and
+     * operation that has run since the provider started, then one row per kind of change
+     * notification sent. The same table is printed by {@code adb shell dumpsys activity provider
+     * com.example.android.storeapp}.
+     */
+    public static abstract class MetricsEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the metrics in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_METRICS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the metrics rows.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        /**
+         * Value of {@link #COLUMN_URI} for the change notifications, counted in {@link #COLUMN_COUNT}
+         * with {@link #OPERATION_NOTIFY_ROW}, {@link #OPERATION_NOTIFY_TABLE} or
+         * {@link #OPERATION_NOTIFY_OTHER} as operation.
+         */
+        public static final String URI_NOTIFICATIONS = "notifications";
+        public static final String OPERATION_NOTIFY_ROW = "row";
+        public static final String OPERATION_NOTIFY_TABLE = "table";
+        public static final String OPERATION_NOTIFY_OTHER = "other";
+
+        /**
+         * URI pattern of the operation, such as "products/#".
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_URI = "uri";
+
+        /**
+         * Operation: "query", "insert", "bulk_insert", "update", "delete" or "call".
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /**
+         * Number of calls, including the failed ones.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_COUNT = "count";
+
+        /**
+         * Number of calls that threw an exception.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ERRORS = "errors";
+
+        /**
+         * Rows returned by the queries, or written by the other operations. The rows of a query
+         * are added once its cursor is closed, and only if the caller read it.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_ROWS = "rows";
+
+        /**
+         * Sum of the latencies of the calls, in microseconds.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TOTAL_MICROS = "total_micros";
+
+        /**
+         * Longest latency of a call, in microseconds.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_MAX_MICROS = "max_micros";
+
+        /**
+         * Upper bound of the latency bucket holding the 50th, 90th and 99th percentile of the
+         * calls, in microseconds.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_P50_MICROS = "p50_micros";
+        public static final String COLUMN_P90_MICROS = "p90_micros";
+        public static final String COLUMN_P99_MICROS = "p99_micros";
+
+        /**
+         * Every column of the metrics rows, in order.
+         */
+        public static final String[] ALL_COLUMNS = {_ID, COLUMN_URI, COLUMN_OPERATION, COLUMN_COUNT,
+                COLUMN_ERRORS, COLUMN_ROWS, COLUMN_TOTAL_MICROS, COLUMN_MAX_MICROS, COLUMN_P50_MICROS,
+                COLUMN_P90_MICROS, COLUMN_P99_MICROS};
+    }
+
+    /**
+     * Inner class that defines constant values for the slow query log: the last calls of the
+     * provider that took longer than the threshold (see {@link #METHOD_SET_SLOW_QUERY_THRESHOLD}),
+     * newest first. Only kept in memory, for debugging.
+     */
+    public static abstract class SlowQueryEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the slow calls in the provider
+         */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_DEBUG)
+                .appendPath(PATH_SLOW_QUERIES)
+                .build();
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of slow calls.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_SLOW_QUERIES;
+
+        /**
+         * Time the call finished, in milliseconds since the epoch.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_TIME = "time";
+
+        /**
+         * Operation, as in {@link MetricsEntry#COLUMN_OPERATION}.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /**
+         * URI of the call, null for a method. Text in its path and the values of its query
+         * parameters are replaced by their length, like the arguments.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_URI = "uri";
+
+        /**
+         * SQL run by the call, null when it doesn't run a single statement, such as a search or a sale.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_SQL = "sql";
+
+        /**
+         * Arguments of the SQL, with the text replaced by its length.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_ARGS = "args";
+
+        /**
+         * Duration of the call, in microseconds.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_DURATION_MICROS = "duration_micros";
+
+        /**
+         * Output of EXPLAIN QUERY PLAN for the SQL, one line per step. Null until the plan has
+         * been captured in the background, or when there is no SQL.
+         * <p>
+         * Type: TEXT
+         */
+        public static final String COLUMN_PLAN = "plan";
+
+        /**
+         * Every column of the slow query rows, in order.
+         */
+        public static final String[] ALL_COLUMNS = {_ID, COLUMN_TIME, COLUMN_OPERATION, COLUMN_URI, COLUMN_SQL,
+                COLUMN_ARGS, COLUMN_DURATION_MICROS, COLUMN_PLAN};
+    }
+
+    /**
+     * Inner class that defines constant values for the sales ledger. Every sale made through
+     * {@link ProductEntry#buildSellUri(long, int)} appends a row, the ledger is read only.
+     */
+    public static abstract class SalesEntry implements BaseColumns {
+
+        /**
+         * The content URI to access the sales in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SALES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of sales.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /**
+         * Name of database table for sales
+         */
+        public static final String TABLE_NAME = "sales";
+
+        /**
+         * ID of the product sold.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Number of units sold.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Price of one unit when it was sold.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_UNIT_PRICE = "unit_price";
+
+        /**
+         * Sale offer of the product when it was sold, {@link ProductEntry#NO_SALE} or {@link ProductEntry#HAS_SALE}.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SALE_OFFER = "sale";
+
+        /**
+         * Time of the sale, in milliseconds since the epoch.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SOLD_AT = "sold_at";
+    }
+
+    /**
+     * Inner class that defines constant values for the sales snapshots, one row per product
+     * summing the sales compacted out of the ledger.
+     */
+    public static abstract class SalesSnapshotEntry {
+
+        /**
+         * The content URI to access the sales snapshots in the provider
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(SalesEntry.CONTENT_URI, PATH_SNAPSHOTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of snapshots.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_SALES + "/" + PATH_SNAPSHOTS;
+
+        /**
+         * Name of database table for sales snapshots
+         */
+        public static final String TABLE_NAME = "sales_snapshots";
+
+        /**
+         * ID of the product, unique.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_PRODUCT_ID = "product_id";
+
+        /**
+         * Total units sold.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_UNITS_SOLD = "units_sold";
+
+        /**
+         * Total of quantity times unit price of the sales.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_REVENUE = "revenue";
+
+        /**
+         * Number of sales.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_SALE_COUNT = "sale_count";
+
+        /**
+         * Time of the last compacted sale, in milliseconds since the epoch.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_LAST_SOLD_AT = "last_sold_at";
+
+        /**
+         * ID of the last compacted sale in the ledger.
+         * <p>
+         * Type: INTEGER
+         */
+        public static final String COLUMN_LAST_SALE_ID = "last_sale_id";
+    }
 }
@@ -0,0 +1,56 @@
+package com.example.android.storeapp.data;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import com.example.android.storeapp.R;
+
+/**
+ * Concurrency settings of the store database, read from res/values/config.xml.
+ */
+public class StoreDbConfig {
+
+    /**
+     * Possible values for the synchronous level.
+     */
+    public static final String SYNCHRONOUS_OFF = "OFF";
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    /**
+     * Whether the database uses write-ahead logging instead of the rollback journal
+     */
+    final boolean writeAheadLogging;
+    /**
+     * Number of WAL pages after which the log is checkpointed, 0 to turn it off
+     */
+    final int walAutoCheckpointPages;
+    /**
+     * SQLite synchronous level, one of {@link #SYNCHRONOUS_OFF}, {@link #SYNCHRONOUS_NORMAL}
+     * or {@link #SYNCHRONOUS_FULL}
+     */
+    final String synchronous;
+
+    public StoreDbConfig(boolean writeAheadLogging, int walAutoCheckpointPages, String synchronous) {
+        if (walAutoCheckpointPages < 0) {
+            throw new IllegalArgumentException("Checkpoint pages must be 0 or more");
+        }
+        if (!SYNCHRONOUS_OFF.equals(synchronous) && !SYNCHRONOUS_NORMAL.equals(synchronous)
+                && !SYNCHRONOUS_FULL.equals(synchronous)) {
+            throw new IllegalArgumentException("Unknown synchronous level " + synchronous);
+        }
+        this.writeAheadLogging = writeAheadLogging;
+        this.walAutoCheckpointPages = walAutoCheckpointPages;
+        this.synchronous = synchronous;
+    }
+
+    /**
+     * Returns the settings defined in the app resources.
+     */
+    public static StoreDbConfig fromResources(Context context) {
+        Resources resources = context.getResources();
+        return new StoreDbConfig(resources.getBoolean(R.bool.store_db_write_ahead_logging),
+                resources.getInteger(R.integer.store_db_wal_autocheckpoint_pages),
+                resources.getString(R.string.store_db_synchronous));
+    }
+}
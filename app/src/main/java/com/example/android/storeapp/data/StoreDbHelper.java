@@ -1,20 +1,79 @@
 package com.example.android.storeapp.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 import com.example.android.storeapp.data.StoreContract.ProductEntry;
 
 
 public class StoreDbHelper extends SQLiteOpenHelper {
 
-    // If you change the data base schema, you must increment the data base version.
-    private static final int DATABASE_VERSION = 2;
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StoreDbHelper.class.getSimpleName();
+
+    // If you change the data base schema, add a step to StoreMigrations, the data base version follows it.
+    private static final int DATABASE_VERSION = StoreMigrations.latestVersion();
     private static final String DATABASE_NAME = "store.db";
 
+    private final StoreDbConfig config;
+
     public StoreDbHelper(Context context) {
+        this(context, StoreDbConfig.fromResources(context));
+    }
+
+    public StoreDbHelper(Context context, StoreDbConfig config) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.config = config;
+        // With write-ahead logging the framework keeps a pool of reader connections next to the
+        // writer connection, so queries no longer wait for sales and editor saves, and the reverse
+        setWriteAheadLoggingEnabled(config.writeAheadLogging);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Called once each time the helper opens the database, on the primary connection only,
+        // before the schema is created or upgraded. The reader connections of write-ahead logging
+        // don't run it, so a pragma set here only holds for the connection that writes: fine for
+        // the ones below, which only matter to writes, but not for a pragma every connection needs.
+        executePragma(db, "PRAGMA synchronous = " + config.synchronous);
+        // Stored in the database file, and only takes effect when the file is created, before the
+        // first table. An older database keeps the mode it was created with until StoreVacuum
+        // switches it.
+        executePragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+        if (config.writeAheadLogging) {
+            executePragma(db, "PRAGMA wal_autocheckpoint = " + config.walAutoCheckpointPages);
+        }
+    }
+
+    /**
+     * Run a pragma through rawQuery(), as some pragmas return a row and execSQL() refuses those.
+     */
+    private static void executePragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Run the backfill of any pending migration step. Call it from a background thread: the
+     * database is usable while it runs, each chunk only holds the write lock for its own short
+     * transaction. Interrupting the thread stops the backfill after the current chunk.
+     */
+    public void runPendingMigrations() {
+        try {
+            StoreMigrations.runPendingBackfills(getWritableDatabase());
+        } catch (RuntimeException e) {
+            // The progress of every finished chunk is kept, so the next start resumes from there
+            Log.e(LOG_TAG, "Pending migrations were interrupted", e);
+        }
     }
 
     @Override
@@ -31,9 +90,17 @@ public class StoreDbHelper extends SQLiteOpenHelper {
                 ProductEntry.COLUMN_PRODUCT_SUPPLIER + " TEXT, " + ProductEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_ENTRIES);
+
+        // Bring the base schema up to date with every migration step
+        StoreMigrations.upgrade(sqLiteDatabase, StoreMigrations.BASE_VERSION, DATABASE_VERSION);
+        // A new database has no products yet, so its backfills cost nothing and are done right away
+        StoreMigrations.runPendingBackfills(sqLiteDatabase);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // Apply the schema part of every step after oldVersion, the backfills run
+        // later from runPendingMigrations()
+        StoreMigrations.upgrade(sqLiteDatabase, oldVersion, newVersion);
     }
 }
@@ -0,0 +1,212 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Ordered chain of {@link Migration} steps for the store database, and the bookkeeping that
+ * records when each step ran, how long it took and how far its backfill got.
+ */
+final class StoreMigrations {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = StoreMigrations.class.getSimpleName();
+
+    /**
+     * Version of the schema created by {@link StoreDbHelper#onCreate(SQLiteDatabase)} before any
+     * migration step is applied.
+     */
+    static final int BASE_VERSION = 2;
+
+    /**
+     * Number of rows filled in by each backfill transaction
+     */
+    static final int BACKFILL_CHUNK_SIZE = 2000;
+
+    /**
+     * Name of the table recording every migration step
+     */
+    static final String TABLE_NAME = "schema_migrations";
+    static final String COLUMN_VERSION = "version";
+    static final String COLUMN_SCHEMA_MILLIS = "schema_millis";
+    static final String COLUMN_BACKFILL_MILLIS = "backfill_millis";
+    static final String COLUMN_BACKFILL_LAST_ID = "backfill_last_id";
+    static final String COLUMN_COMPLETED = "completed";
+
+    /**
+     * Every migration step, in version order. The last step's version is the current
+     * {@link StoreDbHelper} database version.
+     */
+    private static final Migration[] MIGRATIONS = {
+            // Full-text index for the products search URI
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    ProductSearchIndex.create(db);
+                }
+
+                @Override
+                boolean hasBackfill() {
+                    return true;
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long lastId, int chunkSize) {
+                    return ProductSearchIndex.backfill(db, lastId, chunkSize);
+                }
+            },
+            // Inventory statistics for the products stats URI
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    ProductStats.create(db);
+                }
+
+                @Override
+                boolean hasBackfill() {
+                    return true;
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long lastId, int chunkSize) {
+                    // A single aggregate scan, the row can't be computed a chunk at a time while
+                    // the triggers count the writes in between
+                    ProductStats.seed(db);
+                    return BACKFILL_DONE;
+                }
+            },
+            // Sales ledger and snapshots
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    SalesLedger.create(db);
+                }
+            },
+            // Covering indexes of the product lists and their sort orders
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // No schema change, building an index reads every product so they are all
+                    // built by the backfill
+                }
+
+                @Override
+                boolean hasBackfill() {
+                    return true;
+                }
+
+                @Override
+                long backfill(SQLiteDatabase db, long lastId, int chunkSize) {
+                    // One index per transaction, the key counts the indexes built
+                    if (lastId >= ProductListQuery.INDEX_COUNT) {
+                        return BACKFILL_DONE;
+                    }
+                    ProductListQuery.createIndex(db, (int) lastId);
+                    return lastId + 1;
+                }
+            },
+    };
+
+    private StoreMigrations() {
+    }
+
+    /**
+     * Returns the database version reached once every migration step is applied.
+     */
+    static int latestVersion() {
+        return MIGRATIONS.length == 0 ? BASE_VERSION : MIGRATIONS[MIGRATIONS.length - 1].version;
+    }
+
+    /**
+     * Apply the schema part of every step after oldVersion up to newVersion, and record them.
+     * Steps with a backfill are left pending for {@link #runPendingBackfills(SQLiteDatabase)}.
+     * Runs inside the transaction of {@link StoreDbHelper#onCreate(SQLiteDatabase)} or
+     * {@link StoreDbHelper#onUpgrade(SQLiteDatabase, int, int)}.
+     */
+    static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" + COLUMN_VERSION + " INTEGER PRIMARY KEY, " +
+                COLUMN_SCHEMA_MILLIS + " INTEGER NOT NULL, " + COLUMN_BACKFILL_MILLIS + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_BACKFILL_LAST_ID + " INTEGER NOT NULL DEFAULT 0, " + COLUMN_COMPLETED + " INTEGER NOT NULL);");
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+            long start = SystemClock.elapsedRealtime();
+            migration.migrate(db);
+            long elapsed = SystemClock.elapsedRealtime() - start;
+
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_VERSION, migration.version);
+            values.put(COLUMN_SCHEMA_MILLIS, elapsed);
+            values.put(COLUMN_COMPLETED, migration.hasBackfill() ? 0 : 1);
+            db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            Log.i(LOG_TAG, "Migrated schema to version " + migration.version + " in " + elapsed + "ms");
+        }
+    }
+
+    /**
+     * Run the backfill of every pending step, one chunk per transaction, resuming from the last
+     * recorded key. Called on a background thread once the database is open, so readers and
+     * writers can use the database between chunks. Stops between two chunks if the thread is
+     * interrupted, the next call resumes from there.
+     */
+    static void runPendingBackfills(SQLiteDatabase db) {
+        for (Migration migration : MIGRATIONS) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            if (!migration.hasBackfill()) {
+                continue;
+            }
+            Cursor cursor = db.query(TABLE_NAME, new String[]{COLUMN_BACKFILL_LAST_ID},
+                    COLUMN_VERSION + "=? AND " + COLUMN_COMPLETED + "=0",
+                    new String[]{String.valueOf(migration.version)}, null, null, null);
+            long lastId;
+            try {
+                if (!cursor.moveToFirst()) {
+                    // Already done, or never applied to this database
+                    continue;
+                }
+                lastId = cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+            runBackfill(db, migration, lastId);
+        }
+    }
+
+    private static void runBackfill(SQLiteDatabase db, Migration migration, long lastId) {
+        long totalMillis = 0;
+
+        while (lastId != Migration.BACKFILL_DONE) {
+            if (Thread.currentThread().isInterrupted()) {
+                Log.i(LOG_TAG, "Backfill of version " + migration.version + " stopped after " + totalMillis + "ms");
+                return;
+            }
+            long start = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                lastId = migration.backfill(db, lastId, BACKFILL_CHUNK_SIZE);
+                long elapsed = SystemClock.elapsedRealtime() - start;
+
+                // Record progress in the same transaction as the chunk itself
+                db.execSQL("UPDATE " + TABLE_NAME + " SET " + COLUMN_BACKFILL_MILLIS + " = " +
+                                COLUMN_BACKFILL_MILLIS + " + ?, " + COLUMN_BACKFILL_LAST_ID + " = ?, " +
+                                COLUMN_COMPLETED + " = ? WHERE " + COLUMN_VERSION + " = ?",
+                        new Object[]{elapsed, Math.max(lastId, 0), lastId == Migration.BACKFILL_DONE ? 1 : 0,
+                                migration.version});
+                db.setTransactionSuccessful();
+                totalMillis += elapsed;
+            } finally {
+                db.endTransaction();
+            }
+        }
+        Log.i(LOG_TAG, "Backfilled version " + migration.version + " in " + totalMillis + "ms");
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.storeapp.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Gives the pages freed by deletes back to the file system, so store.db shrinks again after the
+ * products are deleted.
+ * <p>
+ * The database uses incremental auto-vacuum: SQLite keeps the freed pages in a free list, and
+ * {@link #reclaim(SQLiteDatabase)} moves them to the end of the file and truncates it, a few pages
+ * per transaction so readers and writers get in between. A new database is created in that mode
+ * by {@link StoreDbHelper#onConfigure(SQLiteDatabase)}.
+ * <p>
+ * A database created before has auto_vacuum NONE. Switching it takes a full VACUUM, which rewrites
+ * every page still in use and holds the write lock for as long, so it isn't done while the store
+ * is full: only once free pages are {@link #CONVERT_MIN_FREE_PERCENT} percent of the file or more,
+ * as after deleting every product, when there is little left to rewrite. Until then its free pages
+ * are reused by later inserts, they are just not given back.
+ */
+final class StoreVacuum {
+
+    private static final String LOG_TAG = StoreVacuum.class.getSimpleName();
+
+    /**
+     * Value of PRAGMA auto_vacuum for incremental auto-vacuum
+     */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Number of pages given back by each transaction of {@link #reclaim(SQLiteDatabase)}
+     */
+    static final int RECLAIM_STEP_PAGES = 256;
+
+    /**
+     * Share of free pages in the file, in percent, from which a database without auto-vacuum is
+     * switched to incremental auto-vacuum
+     */
+    static final int CONVERT_MIN_FREE_PERCENT = 75;
+
+    private StoreVacuum() {
+    }
+
+    /**
+     * Returns whether or not the database was created with incremental auto-vacuum.
+     */
+    static boolean isIncremental(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    /**
+     * Give every free page back to the file system, {@link #RECLAIM_STEP_PAGES} at a time. A
+     * database created without incremental auto-vacuum is switched to it instead, if most of it is
+     * free, see {@link #convertIfMostlyFree(SQLiteDatabase)}. Must not be called inside a transaction.
+     *
+     * @return the number of pages given back
+     */
+    static long reclaim(SQLiteDatabase db) {
+        if (!isIncremental(db)) {
+            return convertIfMostlyFree(db);
+        }
+        long start = SystemClock.elapsedRealtime();
+        long reclaimed = 0;
+        long free;
+        // Stops between two steps when the provider shuts down
+        while (!Thread.currentThread().isInterrupted() && (free = getFreePages(db)) > 0) {
+            // The pragma frees a page for every row it returns, reading them all runs it to the end
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + RECLAIM_STEP_PAGES + ")", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            long left = getFreePages(db);
+            if (left >= free) {
+                // Nothing more can be given back
+                break;
+            }
+            reclaimed += free - left;
+        }
+        if (reclaimed > 0) {
+            Log.i(LOG_TAG, "Gave back " + reclaimed + " pages in " + (SystemClock.elapsedRealtime() - start)
+                    + " ms, store is " + getSizeBytes(db) + " bytes");
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Switch a database created without auto-vacuum to incremental auto-vacuum when at least
+     * {@link #CONVERT_MIN_FREE_PERCENT} percent of its pages are free. The VACUUM that takes
+     * leaves out every free page, so it also gives them all back.
+     *
+     * @return the number of pages given back, 0 when the database wasn't converted
+     */
+    private static long convertIfMostlyFree(SQLiteDatabase db) {
+        long free = getFreePages(db);
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        if (free * 100 < pages * CONVERT_MIN_FREE_PERCENT) {
+            Log.i(LOG_TAG, "Store was created without incremental auto-vacuum, " + free + " of " + pages
+                    + " pages are free, kept for later inserts");
+            return 0;
+        }
+        long start = SystemClock.elapsedRealtime();
+        long sizeBefore = getSizeBytes(db);
+        executePragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+        long reclaimed = pages - DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        Log.i(LOG_TAG, "Switched to incremental auto-vacuum in " + (SystemClock.elapsedRealtime() - start)
+                + " ms, store went from " + sizeBefore + " to " + getSizeBytes(db) + " bytes");
+        return reclaimed;
+    }
+
+    /**
+     * Returns the number of pages in the free list.
+     */
+    static long getFreePages(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+
+    /**
+     * Returns the size of the database, free pages included.
+     */
+    static long getSizeBytes(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    /**
+     * Run a pragma through rawQuery(), as some pragmas return a row and execSQL() refuses those.
+     */
+    private static void executePragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+}
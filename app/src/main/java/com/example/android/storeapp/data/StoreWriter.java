@@ -0,0 +1,270 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the writes of the app screens on a single background thread, so the main thread never
+ * waits for the database.
+ * <p>
+ * Every write returns a {@link Future} of its result, and calls its {@link Callback} on the main
+ * thread once it's done. The writes queued while the previous ones ran are sent together with
+ * {@link ContentResolver#applyBatch}, which the provider commits in one transaction. If one of
+ * them fails the transaction is rolled back and they are run again one by one, so only the
+ * failing write fails.
+ */
+public final class StoreWriter {
+
+    private static final String LOG_TAG = StoreWriter.class.getSimpleName();
+
+    /**
+     * Largest number of writes sent in one transaction
+     */
+    static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * Receives the result of a write, on the main thread.
+     */
+    public abstract static class Callback {
+        /**
+         * Called when the write is committed, with the new URI of an insert or the number of rows
+         * changed by an update or delete (the remaining stock for a sale).
+         */
+        public void onDone(ContentProviderResult result) {
+        }
+
+        /**
+         * Called when the write failed, nothing of it was written.
+         */
+        public void onFailed(Exception e) {
+        }
+    }
+
+    private static StoreWriter instance;
+
+    private final ContentResolver contentResolver;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedBlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    /**
+     * Returns the writer of the app, started the first time it is needed.
+     */
+    public static synchronized StoreWriter getInstance(Context context) {
+        if (instance == null) {
+            instance = new StoreWriter(context.getApplicationContext().getContentResolver());
+        }
+        return instance;
+    }
+
+    StoreWriter(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runWrites();
+            }
+        }, "StoreWriter");
+        thread.start();
+    }
+
+    /**
+     * Stop the writer thread once the current batch is done (only called from tests).
+     */
+    void shutdown() {
+        thread.interrupt();
+    }
+
+    /**
+     * Insert a product with the given values.
+     */
+    public Future<ContentProviderResult> insert(ContentValues values, Callback callback) {
+        return enqueue(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI).withValues(values).build(),
+                callback);
+    }
+
+    /**
+     * Update the products of the given URI with the given values.
+     */
+    public Future<ContentProviderResult> update(Uri uri, ContentValues values, Callback callback) {
+        return enqueue(ContentProviderOperation.newUpdate(uri).withValues(values).build(), callback);
+    }
+
+    /**
+     * Delete the products of the given URI, a single product or every product.
+     */
+    public Future<ContentProviderResult> delete(Uri uri, Callback callback) {
+        return enqueue(ContentProviderOperation.newDelete(uri).build(), callback);
+    }
+
+    /**
+     * Sell the given number of units of a product. The result count is the remaining stock, or
+     * {@link ProductEntry#SELL_REJECTED}.
+     */
+    public Future<ContentProviderResult> sell(long productId, int count, Callback callback) {
+        return enqueue(ContentProviderOperation.newUpdate(ProductEntry.buildSellUri(productId))
+                .withValue(ProductEntry.SELL_COUNT, count)
+                .build(), callback);
+    }
+
+    /**
+     * Queue any write.
+     */
+    public Future<ContentProviderResult> enqueue(ContentProviderOperation operation, Callback callback) {
+        Write write = new Write(operation, callback);
+        queue.add(write);
+        return write;
+    }
+
+    /**
+     * Take the writes from the queue for as long as the app runs. Runs on the writer thread.
+     */
+    private void runWrites() {
+        List<Write> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            // Everything queued while the last batch ran goes in the same transaction
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            apply(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Apply the given writes in one transaction, or one by one if that fails.
+     */
+    private void apply(List<Write> batch) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+        for (Write write : batch) {
+            operations.add(write.operation);
+        }
+        ContentProviderResult[] results;
+        try {
+            results = contentResolver.applyBatch(StoreContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            if (batch.size() == 1) {
+                Log.e(LOG_TAG, "Write failed " + batch.get(0).operation, e);
+                finish(batch.get(0), null, e);
+                return;
+            }
+            // The whole batch was rolled back, find the writes that fail
+            for (Write write : batch) {
+                apply(Collections.singletonList(write));
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            finish(batch.get(i), results[i], null);
+        }
+    }
+
+    /**
+     * Complete the future of the given write, then call its callback on the main thread.
+     */
+    private void finish(final Write write, final ContentProviderResult result, final Exception error) {
+        write.finish(result, error);
+        if (write.callback == null) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (error == null) {
+                    write.callback.onDone(result);
+                } else {
+                    write.callback.onFailed(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * A queued write and its result.
+     */
+    private static final class Write implements Future<ContentProviderResult> {
+
+        final ContentProviderOperation operation;
+        final Callback callback;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private ContentProviderResult result;
+        private Exception error;
+
+        Write(ContentProviderOperation operation, Callback callback) {
+            this.operation = operation;
+            this.callback = callback;
+        }
+
+        void finish(ContentProviderResult result, Exception error) {
+            this.result = result;
+            this.error = error;
+            done.countDown();
+        }
+
+        /**
+         * A queued write can't be taken back, it may already be in a transaction.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public ContentProviderResult get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResult();
+        }
+
+        @Override
+        public ContentProviderResult get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException("Write still queued " + operation);
+            }
+            return getResult();
+        }
+
+        private ContentProviderResult getResult() throws ExecutionException {
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.support.annotation.NonNull;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Time of a {@link #BATCH_SIZE} operation batch applied by {@link ProductProvider#applyBatch},
+ * in one transaction with a yield point every {@link #YIELD_EVERY} operations, next to the
+ * default of {@link android.content.ContentProvider#applyBatch}, where every operation commits
+ * on its own. Measured for a batch of inserts and a batch of updates.
+ * <p>
+ * Skipped by a plain test run, run it with
+ * <pre>./gradlew testDebugUnitTest -Pbenchmark --tests '*ApplyBatchBenchmark'</pre>
+ * The results are written to build/benchmarks/apply_batch.json, with the speed up of the
+ * transaction for both batches.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26)
+public class ApplyBatchBenchmark {
+
+    private static final int BATCH_SIZE = 10000;
+    private static final int YIELD_EVERY = 500;
+    private static final int ROUNDS = 5;
+    private static final int WARM_UP_ROUNDS = 1;
+
+    /**
+     * The provider applying a batch the way {@link android.content.ContentProvider} does by
+     * default, one operation after the other.
+     */
+    public static class DefaultBatchProvider extends ProductProvider {
+        @NonNull
+        @Override
+        public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            return results;
+        }
+    }
+
+    private ProductProvider transactional;
+    private ProductProvider perOperation;
+    private final BenchmarkReport report = new BenchmarkReport("apply_batch");
+    private final Random random = new Random(42);
+    /**
+     * Products inserted so far, the updates pick one of them
+     */
+    private long products;
+
+    @Before
+    public void setUp() {
+        assumeTrue("Run with -Pbenchmark", BenchmarkReport.isEnabled());
+        transactional = Robolectric.setupContentProvider(ProductProvider.class);
+        perOperation = Robolectric.setupContentProvider(DefaultBatchProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (transactional != null) {
+            transactional.shutdown();
+            perOperation.shutdown();
+        }
+    }
+
+    @Test
+    public void applyBatch_transactionAgainstDefault() throws IOException {
+        compare("insert_batch", new BatchBuilder() {
+            @Override
+            ContentProviderOperation.Builder newOperation(int i) {
+                return ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                        .withValues(ProviderBenchmark.buildProduct(i));
+            }
+        });
+        compare("update_batch", new BatchBuilder() {
+            @Override
+            ContentProviderOperation.Builder newOperation(int i) {
+                long id = 1 + (long) (random.nextDouble() * (products - 1));
+                return ContentProviderOperation.newUpdate(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id))
+                        .withValue(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+            }
+        });
+        report.write();
+    }
+
+    /**
+     * Builds the operations of a batch.
+     */
+    private abstract static class BatchBuilder {
+        abstract ContentProviderOperation.Builder newOperation(int i);
+
+        ArrayList<ContentProviderOperation> build() {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                operations.add(newOperation(i).withYieldAllowed(i % YIELD_EVERY == 0).build());
+            }
+            return operations;
+        }
+    }
+
+    /**
+     * Apply the same kind of batch on both providers in alternating rounds, and record the
+     * speed up of the transaction.
+     */
+    private void compare(String name, final BatchBuilder builder) {
+        double perOperationBatchesPerSec = 0;
+        double transactionalBatchesPerSec = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            perOperationBatchesPerSec += report.measure(name + "_default", products, WARM_UP_ROUNDS, 1,
+                    new BenchmarkReport.Operation() {
+                        @Override
+                        void run(int i) {
+                            apply(perOperation, builder.build());
+                        }
+                    });
+            transactionalBatchesPerSec += report.measure(name + "_transaction", products, WARM_UP_ROUNDS, 1,
+                    new BenchmarkReport.Operation() {
+                        @Override
+                        void run(int i) {
+                            apply(transactional, builder.build());
+                        }
+                    });
+        }
+        report.add(String.format(Locale.US, "{\"operation\": \"%s\", \"operations\": %d, \"speedUp\": %.2f}",
+                name, BATCH_SIZE, transactionalBatchesPerSec / perOperationBatchesPerSec));
+    }
+
+    private void apply(ProductProvider provider, ArrayList<ContentProviderOperation> operations) {
+        try {
+            ContentProviderResult[] results = provider.applyBatch(operations);
+            assertEquals(operations.size(), results.length);
+            if (results[0].uri != null) {
+                // Both providers share the database, so the inserts of either add up
+                products += results.length;
+            }
+        } catch (OperationApplicationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
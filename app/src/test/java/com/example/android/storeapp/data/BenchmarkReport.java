@@ -0,0 +1,105 @@
+package com.example.android.storeapp.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures the operations of a JVM benchmark, and writes their throughput and latency
+ * percentiles as JSON to build/benchmarks/NAME.json, one entry per operation and table size, so
+ * runs of two commits can be compared line by line.
+ */
+class BenchmarkReport {
+
+    /**
+     * System properties set by the build, see app/build.gradle
+     */
+    private static final String PROPERTY_ENABLED = "storeapp.benchmark";
+    private static final String PROPERTY_OUTPUT_DIR = "storeapp.benchmark.dir";
+    private static final String PROPERTY_LABEL = "storeapp.benchmark.label";
+
+    /**
+     * An operation measured many times in a row.
+     */
+    abstract static class Operation {
+        abstract void run(int i);
+    }
+
+    private final String name;
+    private final StringBuilder json = new StringBuilder();
+
+    BenchmarkReport(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns whether or not the benchmarks were asked for, with -Pbenchmark.
+     */
+    static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY_ENABLED);
+    }
+
+    /**
+     * Run the warm up and the measured operations, record their throughput and latencies, and
+     * return the operations per second.
+     */
+    double measure(String operationName, long rows, int warmUpOperations, int operations, Operation operation) {
+        for (int i = 0; i < warmUpOperations; i++) {
+            operation.run(i);
+        }
+        long[] latencies = new long[operations];
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            long operationStart = System.nanoTime();
+            operation.run(i);
+            latencies[i] = System.nanoTime() - operationStart;
+        }
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+
+        double opsPerSec = operations * 1e9 / elapsed;
+        add(String.format(Locale.US, "{\"operation\": \"%s\", \"rows\": %d, \"ops\": %d, "
+                        + "\"opsPerSec\": %.1f, \"p50Micros\": %.1f, \"p90Micros\": %.1f, \"p99Micros\": %.1f, "
+                        + "\"maxMicros\": %.1f}", operationName, rows, operations, opsPerSec,
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                latencies[operations - 1] / 1e3));
+        return opsPerSec;
+    }
+
+    /**
+     * Record an entry of the report, a JSON object.
+     */
+    void add(String line) {
+        System.out.println(name + " " + line);
+        if (json.length() > 0) {
+            json.append(",\n");
+        }
+        json.append("    ").append(line);
+    }
+
+    void write() throws IOException {
+        File directory = new File(System.getProperty(PROPERTY_OUTPUT_DIR, "build/benchmarks"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, name + ".json")), "UTF-8");
+        try {
+            writer.write("{\n  \"benchmark\": \"" + name + "\",\n  \"label\": \""
+                    + System.getProperty(PROPERTY_LABEL, "") + "\",\n  \"results\": [\n" + json + "\n  ]\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the given percentile of the sorted latencies, in microseconds.
+     */
+    private static double percentile(long[] sortedLatencies, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1e3;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Throughput of {@link StoreContract#METHOD_CHECKOUT} for baskets of 1, 10 and 100 lines, next to
+ * the same lines sold one sale URI update at a time, on a table of {@link #TABLE_SIZE} products.
+ * <p>
+ * Skipped by a plain test run, run it with
+ * <pre>./gradlew testDebugUnitTest -Pbenchmark --tests '*CheckoutBenchmark'</pre>
+ * The results are written to build/benchmarks/checkout.json, with the lines sold per second of
+ * both ways for every basket size.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26)
+public class CheckoutBenchmark {
+
+    private static final int TABLE_SIZE = 100000;
+    private static final int[] BASKET_SIZES = {1, 10, 100};
+    /**
+     * Lines sold for every basket size and way, split into baskets
+     */
+    private static final int LINES = 2000;
+    private static final int WARM_UP_LINES = 200;
+    private static final int FILL_BATCH = 10000;
+
+    private ProductProvider provider;
+    private final BenchmarkReport report = new BenchmarkReport("checkout");
+    private final Random random = new Random(42);
+
+    @Before
+    public void setUp() {
+        assumeTrue("Run with -Pbenchmark", BenchmarkReport.isEnabled());
+        provider = Robolectric.setupContentProvider(ProductProvider.class);
+
+        ContentValues[] batch = new ContentValues[FILL_BATCH];
+        for (int rows = 0; rows < TABLE_SIZE; rows += FILL_BATCH) {
+            for (int i = 0; i < FILL_BATCH; i++) {
+                batch[i] = ProviderBenchmark.buildProduct(rows + i);
+                // Enough stock that no sale of the benchmark is rejected
+                batch[i].put(ProductEntry.COLUMN_PRODUCT_QUANTITY, Integer.MAX_VALUE);
+            }
+            assertEquals(FILL_BATCH, provider.bulkInsert(ProductEntry.CONTENT_URI, batch));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (provider != null) {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void checkout_throughputByBasketSize() throws IOException {
+        for (final int basketSize : BASKET_SIZES) {
+            double checkoutsPerSec = report.measure("checkout_" + basketSize, TABLE_SIZE,
+                    Math.max(1, WARM_UP_LINES / basketSize), LINES / basketSize, new BenchmarkReport.Operation() {
+                        @Override
+                        void run(int i) {
+                            Bundle extras = new Bundle();
+                            long[] productIds = new long[basketSize];
+                            int[] counts = new int[basketSize];
+                            for (int line = 0; line < basketSize; line++) {
+                                productIds[line] = randomId();
+                                counts[line] = 1;
+                            }
+                            extras.putLongArray(StoreContract.KEY_CHECKOUT_PRODUCT_IDS, productIds);
+                            extras.putIntArray(StoreContract.KEY_CHECKOUT_COUNTS, counts);
+                            Bundle result = provider.call(StoreContract.METHOD_CHECKOUT, null, extras);
+                            assertEquals(-1, result.getInt(StoreContract.KEY_CHECKOUT_REJECTED_LINE));
+                        }
+                    });
+            double salesPerSec = report.measure("sales_" + basketSize, TABLE_SIZE,
+                    Math.max(1, WARM_UP_LINES / basketSize), LINES / basketSize, new BenchmarkReport.Operation() {
+                        @Override
+                        void run(int i) {
+                            for (int line = 0; line < basketSize; line++) {
+                                provider.update(ProductEntry.buildSellUri(randomId(), 1), null, null, null);
+                            }
+                        }
+                    });
+            report.add(String.format(Locale.US, "{\"basket\": %d, \"checkoutLinesPerSec\": %.1f, "
+                    + "\"salesLinesPerSec\": %.1f}", basketSize, checkoutsPerSec * basketSize,
+                    salesPerSec * basketSize));
+        }
+        report.write();
+    }
+
+    private long randomId() {
+        return 1 + (long) (random.nextDouble() * (TABLE_SIZE - 1));
+    }
+}
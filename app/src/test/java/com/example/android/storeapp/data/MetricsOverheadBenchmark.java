@@ -0,0 +1,153 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Cost of the {@link ProviderMetrics} on the most frequent provider calls: the same calls are
+ * measured on a provider recording its metrics and on one that doesn't, over the same database,
+ * in alternating rounds so a slow down of the machine hits both the same.
+ * <p>
+ * Skipped by a plain test run, run it with
+ * <pre>./gradlew testDebugUnitTest -Pbenchmark --tests '*MetricsOverheadBenchmark'</pre>
+ * The results are written to build/benchmarks/metrics.json, with the overhead of every call in
+ * percent.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26)
+public class MetricsOverheadBenchmark {
+
+    private static final int TABLE_SIZE = 100000;
+    private static final int ROUNDS = 5;
+    private static final int OPERATIONS = 2000;
+    private static final int WARM_UP_OPERATIONS = 200;
+    private static final int FILL_BATCH = 10000;
+
+    /**
+     * The provider with the metrics turned off.
+     */
+    public static class UnmeteredProvider extends ProductProvider {
+        @Override
+        ProviderMetrics newMetrics(String[] uriNames) {
+            return new ProviderMetrics(false, uriNames);
+        }
+    }
+
+    private ProductProvider metered;
+    private ProductProvider unmetered;
+    private final BenchmarkReport report = new BenchmarkReport("metrics");
+    private final Random random = new Random(42);
+
+    @Before
+    public void setUp() {
+        assumeTrue("Run with -Pbenchmark", BenchmarkReport.isEnabled());
+        metered = Robolectric.setupContentProvider(ProductProvider.class);
+        unmetered = Robolectric.setupContentProvider(UnmeteredProvider.class);
+
+        ContentValues[] batch = new ContentValues[FILL_BATCH];
+        for (int rows = 0; rows < TABLE_SIZE; rows += FILL_BATCH) {
+            for (int i = 0; i < FILL_BATCH; i++) {
+                batch[i] = ProviderBenchmark.buildProduct(rows + i);
+            }
+            assertEquals(FILL_BATCH, metered.bulkInsert(ProductEntry.CONTENT_URI, batch));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (metered != null) {
+            metered.shutdown();
+            unmetered.shutdown();
+        }
+    }
+
+    @Test
+    public void metrics_overheadOfEveryCall() throws IOException {
+        compare("point_query", new ProviderOperation() {
+            @Override
+            void run(ProductProvider provider, int i) {
+                Cursor cursor = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, randomId()),
+                        ProductEntry.ALL_COLUMNS, null, null, null);
+                cursor.close();
+            }
+        });
+        compare("list_query", new ProviderOperation() {
+            @Override
+            void run(ProductProvider provider, int i) {
+                Cursor cursor = provider.query(ProductEntry.buildPageUri(ProductEntry.SORT_BY_ID,
+                        ProductListQuery.PAGE_DEFAULT_LIMIT, null, randomId()), ProductEntry.LIST_COLUMNS,
+                        null, null, null);
+                while (cursor.moveToNext()) {
+                    cursor.getString(1);
+                }
+                cursor.close();
+            }
+        });
+        compare("update_quantity", new ProviderOperation() {
+            @Override
+            void run(ProductProvider provider, int i) {
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+                provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, randomId()), values,
+                        null, null);
+            }
+        });
+        report.write();
+    }
+
+    /**
+     * A call made on either provider.
+     */
+    private abstract static class ProviderOperation {
+        abstract void run(ProductProvider provider, int i);
+    }
+
+    /**
+     * Measure a call on both providers in alternating rounds, and record the overhead of the
+     * metrics from the total throughput of every round.
+     */
+    private void compare(String name, final ProviderOperation operation) {
+        double meteredOpsPerSec = 0;
+        double unmeteredOpsPerSec = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            unmeteredOpsPerSec += report.measure(name + "_off", TABLE_SIZE, WARM_UP_OPERATIONS, OPERATIONS,
+                    new BenchmarkReport.Operation() {
+                        @Override
+                        void run(int i) {
+                            operation.run(unmetered, i);
+                        }
+                    });
+            meteredOpsPerSec += report.measure(name + "_on", TABLE_SIZE, WARM_UP_OPERATIONS, OPERATIONS,
+                    new BenchmarkReport.Operation() {
+                        @Override
+                        void run(int i) {
+                            operation.run(metered, i);
+                        }
+                    });
+        }
+        report.add(String.format(Locale.US, "{\"operation\": \"%s\", \"overheadPercent\": %.2f}", name,
+                (unmeteredOpsPerSec - meteredOpsPerSec) / unmeteredOpsPerSec * 100));
+    }
+
+    private long randomId() {
+        return 1 + (long) (random.nextDouble() * (TABLE_SIZE - 1));
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Speed up of the single product operations on {@link ProductStatements}, against the way the
+ * provider ran them before: a selection string, a selection arguments array and
+ * {@link SQLiteDatabase#query}, {@link SQLiteDatabase#update} or {@link SQLiteDatabase#delete}.
+ * <p>
+ * Both ways run in a transaction on a table of {@link #TABLE_SIZE} products, so the cost of the
+ * commit, the same for both, doesn't hide the cost of the statements. Skipped by a plain test run,
+ * run it with
+ * <pre>./gradlew testDebugUnitTest -Pbenchmark --tests '*ProductStatementsBenchmark'</pre>
+ * The results are written to build/benchmarks/statements.json, with the speed up of every
+ * operation.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26)
+public class ProductStatementsBenchmark {
+
+    private static final int TABLE_SIZE = 100000;
+    private static final int OPERATIONS = 5000;
+    private static final int WARM_UP_OPERATIONS = 500;
+
+    /**
+     * Selection of the old path
+     */
+    private static final String SELECTION_BY_ID = ProductEntry._ID + "=?";
+
+    private StoreDbHelper dbHelper;
+    private SQLiteDatabase db;
+    private ProductStatements statements;
+    private final BenchmarkReport report = new BenchmarkReport("statements");
+    private final Random random = new Random(42);
+    private final ContentValues[] products = new ContentValues[100];
+    private long maxId;
+
+    @Before
+    public void setUp() {
+        assumeTrue("Run with -Pbenchmark", BenchmarkReport.isEnabled());
+        RuntimeEnvironment.application.deleteDatabase("store.db");
+        dbHelper = new StoreDbHelper(RuntimeEnvironment.application);
+        db = dbHelper.getWritableDatabase();
+        statements = new ProductStatements(db);
+        for (int i = 0; i < products.length; i++) {
+            products[i] = ProviderBenchmark.buildProduct(i);
+        }
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                maxId = statements.insert(products[i % products.length]);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (dbHelper != null) {
+            statements.close();
+            dbHelper.close();
+        }
+    }
+
+    @Test
+    public void statements_fasterThanBuiltQueries() throws IOException {
+        compare("get_by_id", new BenchmarkReport.Operation() {
+            @Override
+            void run(int i) {
+                Cursor cursor = db.query(false, ProductEntry.TABLE_NAME, ProductEntry.ALL_COLUMNS, SELECTION_BY_ID,
+                        new String[]{String.valueOf(randomId())}, null, null, null, null, null);
+                read(cursor);
+            }
+        }, new BenchmarkReport.Operation() {
+            @Override
+            void run(int i) {
+                read(statements.query(randomId(), null));
+            }
+        });
+        compare("update_quantity", new BenchmarkReport.Operation() {
+            @Override
+            void run(int i) {
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+                db.update(ProductEntry.TABLE_NAME, values, SELECTION_BY_ID, new String[]{String.valueOf(randomId())});
+            }
+        }, new BenchmarkReport.Operation() {
+            @Override
+            void run(int i) {
+                statements.updateQuantity(randomId(), i % 100);
+            }
+        });
+        compare("update_row", new BenchmarkReport.Operation() {
+            @Override
+            void run(int i) {
+                db.update(ProductEntry.TABLE_NAME, products[i % products.length], SELECTION_BY_ID,
+                        new String[]{String.valueOf(randomId())});
+            }
+        }, new BenchmarkReport.Operation() {
+            @Override
+            void run(int i) {
+                statements.updateRow(randomId(), products[i % products.length]);
+            }
+        });
+        compare("insert", new BenchmarkReport.Operation() {
+            @Override
+            void run(int i) {
+                maxId = db.insert(ProductEntry.TABLE_NAME, null, products[i % products.length]);
+            }
+        }, new BenchmarkReport.Operation() {
+            @Override
+            void run(int i) {
+                maxId = statements.insert(products[i % products.length]);
+            }
+        });
+        compare("delete_by_id", new BenchmarkReport.Operation() {
+            @Override
+            void run(int i) {
+                // Delete the newest products, so every delete finds its row
+                db.delete(ProductEntry.TABLE_NAME, SELECTION_BY_ID, new String[]{String.valueOf(maxId--)});
+            }
+        }, new BenchmarkReport.Operation() {
+            @Override
+            void run(int i) {
+                statements.delete(maxId--);
+            }
+        });
+        report.write();
+    }
+
+    /**
+     * Measure an operation the old way and on the compiled statements, and record the speed up.
+     */
+    private void compare(String name, BenchmarkReport.Operation built, BenchmarkReport.Operation compiled) {
+        db.beginTransaction();
+        try {
+            double builtOpsPerSec = report.measure(name + "_built", TABLE_SIZE, WARM_UP_OPERATIONS, OPERATIONS, built);
+            double compiledOpsPerSec = report.measure(name + "_compiled", TABLE_SIZE, WARM_UP_OPERATIONS, OPERATIONS,
+                    compiled);
+            report.add(String.format(Locale.US, "{\"operation\": \"%s\", \"speedup\": %.2f}", name,
+                    compiledOpsPerSec / builtOpsPerSec));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void read(Cursor cursor) {
+        try {
+            if (cursor.moveToFirst()) {
+                cursor.getString(1);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long randomId() {
+        return 1 + (long) (random.nextDouble() * (TABLE_SIZE - 1));
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.android.storeapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.storeapp.data.StoreContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Throughput and latency of the main operations of {@link ProductProvider}, run on the JVM with
+ * Robolectric against a real SQLite database, at 1k, 100k and 1M products.
+ * <p>
+ * Skipped by a plain test run, as filling the large tables takes a while. Run it with
+ * <pre>./gradlew testDebugUnitTest -Pbenchmark --tests '*ProviderBenchmark'</pre>
+ * The results are printed and written as JSON to build/benchmarks/provider.json, one entry per
+ * operation and table size with the operations per second and the latency percentiles, so runs of
+ * two commits can be compared line by line.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26)
+public class ProviderBenchmark {
+
+    /**
+     * Table sizes the operations are measured at, the table is grown from one to the next
+     */
+    private static final int[] TABLE_SIZES = {1000, 100000, 1000000};
+
+    /**
+     * Number of measured operations of every kind at every table size
+     */
+    private static final int OPERATIONS = 1000;
+
+    /**
+     * Operations run before the measured ones, so the statements are compiled and the pages cached
+     */
+    private static final int WARM_UP_OPERATIONS = 100;
+
+    private static final int FILL_BATCH = 10000;
+    private static final int PAGE_SIZE = 50;
+
+    private ProductProvider provider;
+    private final Random random = new Random(42);
+    private final BenchmarkReport report = new BenchmarkReport("provider");
+    /**
+     * Rows in the table and the highest product ID, kept up to date by the fill and the operations
+     */
+    private long rows;
+    private long maxId;
+
+    @Before
+    public void setUp() {
+        assumeTrue("Run with -Pbenchmark", BenchmarkReport.isEnabled());
+        provider = Robolectric.setupContentProvider(ProductProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (provider != null) {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void provider_operationsAtEveryTableSize() throws IOException {
+        for (int size : TABLE_SIZES) {
+            fill(size);
+            measure("insert", size, new BenchmarkReport.Operation() {
+                @Override
+                void run(int i) {
+                    Uri uri = provider.insert(ProductEntry.CONTENT_URI, buildProduct(i));
+                    maxId = ContentUris.parseId(uri);
+                    rows++;
+                }
+            });
+            measure("point_query", size, new BenchmarkReport.Operation() {
+                @Override
+                void run(int i) {
+                    Cursor cursor = provider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, randomId()),
+                            ProductEntry.ALL_COLUMNS, null, null, null);
+                    try {
+                        cursor.moveToFirst();
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            });
+            measure("list_query", size, new BenchmarkReport.Operation() {
+                @Override
+                void run(int i) {
+                    // A page of the list at a random position, read to the end like the list does
+                    Cursor cursor = provider.query(ProductEntry.buildPageUri(ProductEntry.SORT_BY_ID, PAGE_SIZE,
+                            null, randomId()), ProductEntry.ALL_COLUMNS, null, null, null);
+                    try {
+                        while (cursor.moveToNext()) {
+                            cursor.getString(1);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            });
+            measure("update", size, new BenchmarkReport.Operation() {
+                @Override
+                void run(int i) {
+                    // The update made when a product is saved from the editor
+                    ContentValues values = new ContentValues();
+                    values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i % 500);
+                    values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+                    provider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, randomId()), values,
+                            null, null);
+                }
+            });
+            measure("delete", size, new BenchmarkReport.Operation() {
+                @Override
+                void run(int i) {
+                    // Delete the newest products, so every delete finds its row
+                    provider.delete(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, maxId), null, null);
+                    maxId--;
+                    rows--;
+                }
+            });
+        }
+        report.write();
+    }
+
+    /**
+     * Grow the table to the given number of rows with bulk inserts.
+     */
+    private void fill(int size) {
+        ContentValues[] batch = new ContentValues[FILL_BATCH];
+        while (rows < size) {
+            int count = (int) Math.min(FILL_BATCH, size - rows);
+            if (count != batch.length) {
+                batch = new ContentValues[count];
+            }
+            for (int i = 0; i < count; i++) {
+                batch[i] = buildProduct((int) rows + i);
+            }
+            assertEquals(count, provider.bulkInsert(ProductEntry.CONTENT_URI, batch));
+            rows += count;
+        }
+        Cursor cursor = provider.query(ProductEntry.CONTENT_URI, new String[]{"max(" + ProductEntry._ID + ")"},
+                null, null, null);
+        try {
+            cursor.moveToFirst();
+            maxId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void measure(String name, int size, BenchmarkReport.Operation operation) {
+        report.measure(name, size, WARM_UP_OPERATIONS, OPERATIONS, operation);
+    }
+
+    private long randomId() {
+        return 1 + (long) (random.nextDouble() * maxId);
+    }
+
+    static ContentValues buildProduct(int i) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i % 500);
+        values.put(ProductEntry.COLUMN_SALE_OFFER, i % 2);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 100);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, "Supplier " + (i % 50));
+        values.put(ProductEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0100000" + (i % 50));
+        return values;
+    }
+}
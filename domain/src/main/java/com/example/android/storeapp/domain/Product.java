@@ -0,0 +1,115 @@
+package com.example.android.storeapp.domain;
+
+/**
+ * A product of the store, as stored in one row of the products table.
+ * <p>
+ * Products are immutable, so they can be shared between threads, and a changed product is a new
+ * {@link Product}. Making one doesn't check it, see {@link ProductValidator#validate(Product)}.
+ */
+public final class Product {
+
+    /**
+     * ID of a product that hasn't been saved yet
+     */
+    public static final long NO_ID = 0;
+
+    /**
+     * Possible values for the sale offer of the product.
+     */
+    public static final int NO_SALE = 0;
+    public static final int HAS_SALE = 1;
+
+    private final long id;
+    private final String name;
+    private final long price;
+    private final int sale;
+    private final long quantity;
+    private final String supplier;
+    private final String supplierPhone;
+
+    /**
+     * Create a product, use {@link #NO_ID} for a product that hasn't been saved yet.
+     * The supplier and its phone number may be null.
+     */
+    public Product(long id, String name, long price, int sale, long quantity, String supplier,
+                   String supplierPhone) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.sale = sale;
+        this.quantity = quantity;
+        this.supplier = supplier;
+        this.supplierPhone = supplierPhone;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getPrice() {
+        return price;
+    }
+
+    /**
+     * Returns {@link #NO_SALE} or {@link #HAS_SALE}.
+     */
+    public int getSale() {
+        return sale;
+    }
+
+    public long getQuantity() {
+        return quantity;
+    }
+
+    public String getSupplier() {
+        return supplier;
+    }
+
+    public String getSupplierPhone() {
+        return supplierPhone;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Product)) {
+            return false;
+        }
+        Product other = (Product) o;
+        return id == other.id
+                && price == other.price
+                && sale == other.sale
+                && quantity == other.quantity
+                && equal(name, other.name)
+                && equal(supplier, other.supplier)
+                && equal(supplierPhone, other.supplierPhone);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + (int) (price ^ (price >>> 32));
+        result = 31 * result + sale;
+        result = 31 * result + (int) (quantity ^ (quantity >>> 32));
+        result = 31 * result + (supplier != null ? supplier.hashCode() : 0);
+        result = 31 * result + (supplierPhone != null ? supplierPhone.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Product{id=" + id + ", name=" + name + ", price=" + price + ", sale=" + sale
+                + ", quantity=" + quantity + ", supplier=" + supplier + ", supplierPhone=" + supplierPhone + "}";
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.storeapp.domain;
+
+/**
+ * Maps a {@link Product} to and from the columns of a row.
+ * <p>
+ * Columns are numbered by the constants below, in the order of the columns of the products table.
+ * Rows are read from a {@link Source} and written to a {@link Sink}, which the app implements over
+ * a cursor and over content values, so this module doesn't depend on Android.
+ */
+public final class ProductCodec {
+
+    /**
+     * Column numbers of a product row
+     */
+    public static final int ID = 0;
+    public static final int NAME = 1;
+    public static final int PRICE = 2;
+    public static final int SALE = 3;
+    public static final int QUANTITY = 4;
+    public static final int SUPPLIER = 5;
+    public static final int SUPPLIER_PHONE = 6;
+
+    /**
+     * Number of columns of a product row
+     */
+    public static final int COLUMN_COUNT = 7;
+
+    /**
+     * A row the columns of a product are read from. A missing number is read as 0.
+     */
+    public interface Source {
+        long getLong(int column);
+
+        String getString(int column);
+    }
+
+    /**
+     * A row the columns of a product are written to.
+     */
+    public interface Sink {
+        void putLong(int column, long value);
+
+        /**
+         * Write the given text, which may be null.
+         */
+        void putString(int column, String value);
+    }
+
+    private ProductCodec() {
+    }
+
+    /**
+     * Returns the product in the given row.
+     */
+    public static Product read(Source source) {
+        return new Product(
+                source.getLong(ID),
+                source.getString(NAME),
+                source.getLong(PRICE),
+                (int) source.getLong(SALE),
+                source.getLong(QUANTITY),
+                source.getString(SUPPLIER),
+                source.getString(SUPPLIER_PHONE));
+    }
+
+    /**
+     * Write the given product to a row. The ID is left out of a product to insert, so a new one is
+     * given to it.
+     */
+    public static void write(Product product, Sink sink, boolean withId) {
+        if (withId) {
+            sink.putLong(ID, product.getId());
+        }
+        sink.putString(NAME, product.getName());
+        sink.putLong(PRICE, product.getPrice());
+        sink.putLong(SALE, product.getSale());
+        sink.putLong(QUANTITY, product.getQuantity());
+        sink.putString(SUPPLIER, product.getSupplier());
+        sink.putString(SUPPLIER_PHONE, product.getSupplierPhone());
+    }
+}
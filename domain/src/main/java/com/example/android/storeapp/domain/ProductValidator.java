@@ -0,0 +1,129 @@
+package com.example.android.storeapp.domain;
+
+/**
+ * The rules a product must follow before it is saved, shared by every way a product is written so a
+ * product is accepted or rejected the same way by all of them. Every method throws an
+ * {@link IllegalArgumentException} describing the rule broken.
+ * <p>
+ * The rules can be checked on a {@link Product}, or column by column on the raw values of a row,
+ * where numbers are read directly and strings are parsed. Nothing is allocated unless a rule is
+ * broken, so checking a row costs the same as comparing its values. The methods don't keep any
+ * state, so they can be called from any thread.
+ */
+public final class ProductValidator {
+
+    public static final String INVALID_NAME = "Product requires a name";
+    public static final String INVALID_PRICE = "product requires valid price";
+    public static final String INVALID_SALE = "Product requires valid sale offer";
+    public static final String INVALID_QUANTITY = "product requires valid quantity";
+
+    private ProductValidator() {
+    }
+
+    /**
+     * Check every rule on the given product.
+     */
+    public static void validate(Product product) {
+        requireName(product.getName());
+        requirePrice(product.getPrice());
+        requireSale(product.getSale());
+        requireQuantity(product.getQuantity());
+    }
+
+    /**
+     * Check that the name is not null.
+     */
+    public static String requireName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException(INVALID_NAME);
+        }
+        return name;
+    }
+
+    /**
+     * Check that the price is greater than or equal to 0.
+     */
+    public static long requirePrice(long price) {
+        if (price < 0) {
+            throw new IllegalArgumentException(INVALID_PRICE);
+        }
+        return price;
+    }
+
+    /**
+     * Check that the sale equals one of those values {@link Product#NO_SALE},
+     * or {@link Product#HAS_SALE}.
+     */
+    public static int requireSale(long sale) {
+        if (!isValidSale(sale)) {
+            throw new IllegalArgumentException(INVALID_SALE);
+        }
+        return (int) sale;
+    }
+
+    /**
+     * Check that the quantity is greater than or equal to 0.
+     */
+    public static long requireQuantity(long quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException(INVALID_QUANTITY);
+        }
+        return quantity;
+    }
+
+    /**
+     * Returns whether or not the given sale is {@link Product#NO_SALE} or {@link Product#HAS_SALE}.
+     */
+    public static boolean isValidSale(long sale) {
+        return sale == Product.NO_SALE || sale == Product.HAS_SALE;
+    }
+
+    /**
+     * Returns the raw value of a name column as a string, making sure it is present.
+     */
+    public static String parseName(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        return requireName(value != null ? value.toString() : null);
+    }
+
+    /**
+     * Returns the raw value of a price column, making sure it is present and valid.
+     */
+    public static long parsePrice(Object value) {
+        return requirePrice(toLong(value, INVALID_PRICE));
+    }
+
+    /**
+     * Returns the raw value of a sale offer column, making sure it is present and valid.
+     */
+    public static int parseSale(Object value) {
+        return requireSale(toLong(value, INVALID_SALE));
+    }
+
+    /**
+     * Returns the raw value of a quantity column, making sure it is present and valid.
+     */
+    public static long parseQuantity(Object value) {
+        return requireQuantity(toLong(value, INVALID_QUANTITY));
+    }
+
+    /**
+     * Returns the given raw value as a long. Numbers are read directly and strings are parsed, so
+     * no boxed copy is made.
+     */
+    private static long toLong(Object value, String message) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(message);
+            }
+        }
+        throw new IllegalArgumentException(message);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.android.storeapp.domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link ProductCodec}, over a row held in an array.
+ */
+public class ProductCodecTest {
+
+    @Test
+    public void writeThenRead_givesTheSameProduct() {
+        Product product = new Product(42, "Pen", 10, Product.HAS_SALE, 5, "Acme", null);
+        ArrayRow row = new ArrayRow();
+
+        ProductCodec.write(product, row, true);
+
+        assertEquals(product, ProductCodec.read(row));
+    }
+
+    @Test
+    public void write_withoutIdLeavesTheIdOut() {
+        ArrayRow row = new ArrayRow();
+
+        ProductCodec.write(new Product(42, "Pen", 10, Product.NO_SALE, 5, null, null), row, false);
+
+        assertNull(row.values[ProductCodec.ID]);
+        assertEquals(Product.NO_ID, ProductCodec.read(row).getId());
+    }
+
+    /**
+     * A row of raw values, like a cursor row or content values.
+     */
+    static class ArrayRow implements ProductCodec.Source, ProductCodec.Sink {
+
+        final Object[] values = new Object[ProductCodec.COLUMN_COUNT];
+
+        @Override
+        public long getLong(int column) {
+            Object value = values[column];
+            return value != null ? (Long) value : 0;
+        }
+
+        @Override
+        public String getString(int column) {
+            return (String) values[column];
+        }
+
+        @Override
+        public void putLong(int column, long value) {
+            values[column] = value;
+        }
+
+        @Override
+        public void putString(int column, String value) {
+            values[column] = value;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.android.storeapp.domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ProductValidator}.
+ */
+public class ProductValidatorTest {
+
+    private static final Product VALID = new Product(Product.NO_ID, "Pen", 10, Product.HAS_SALE, 5, "Acme", "123");
+
+    @Test
+    public void validate_acceptsValidProduct() {
+        ProductValidator.validate(VALID);
+        ProductValidator.validate(new Product(1, "Pen", 0, Product.NO_SALE, 0, null, null));
+    }
+
+    @Test
+    public void validate_rejectsEveryBrokenRule() {
+        assertRejected(new Product(1, null, 10, Product.NO_SALE, 5, null, null), ProductValidator.INVALID_NAME);
+        assertRejected(new Product(1, "Pen", -1, Product.NO_SALE, 5, null, null), ProductValidator.INVALID_PRICE);
+        assertRejected(new Product(1, "Pen", 10, 2, 5, null, null), ProductValidator.INVALID_SALE);
+        assertRejected(new Product(1, "Pen", 10, Product.NO_SALE, -1, null, null), ProductValidator.INVALID_QUANTITY);
+    }
+
+    @Test
+    public void parse_readsNumbersAndStrings() {
+        assertEquals(12, ProductValidator.parsePrice(12));
+        assertEquals(12, ProductValidator.parsePrice(12L));
+        assertEquals(12, ProductValidator.parsePrice("12"));
+        assertEquals(Product.HAS_SALE, ProductValidator.parseSale("1"));
+        assertEquals(0, ProductValidator.parseQuantity(0));
+        assertEquals("Pen", ProductValidator.parseName("Pen"));
+    }
+
+    @Test
+    public void parse_rejectsMissingAndMalformedValues() {
+        assertParseRejected(null, ProductValidator.INVALID_PRICE);
+        assertParseRejected("ten", ProductValidator.INVALID_PRICE);
+        assertParseRejected(-3, ProductValidator.INVALID_PRICE);
+        try {
+            ProductValidator.parseName(null);
+            fail("Missing name accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(ProductValidator.INVALID_NAME, e.getMessage());
+        }
+        try {
+            ProductValidator.parseSale(5);
+            fail("Sale offer 5 accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(ProductValidator.INVALID_SALE, e.getMessage());
+        }
+    }
+
+    private static void assertRejected(Product product, String message) {
+        try {
+            ProductValidator.validate(product);
+            fail(product + " accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static void assertParseRejected(Object price, String message) {
+        try {
+            ProductValidator.parsePrice(price);
+            fail("Price " + price + " accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}